@@ -0,0 +1,74 @@
+/*
+ * A simple backup mod for Fabric
+ * Copyright (C)  2022   Szum123321
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package net.szum123321.textile_backup.benchmark;
+
+import org.at4j.comp.bzip2.BZip2OutputStream;
+import org.at4j.comp.bzip2.BlockSortingAlgorithm;
+import org.at4j.comp.bzip2.BZip2OutputStreamSettings;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scaling of the at4j {@link BZip2OutputStream} with the number of encoder threads, and the cost of each block sorting algorithm
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class BZip2Benchmark {
+    private final static int DATA_LENGTH = 8 * 1024 * 1024;
+
+    @Param({ "1", "2", "4", "8" })
+    public int threads;
+
+    @Param({ "9" })
+    public int blockSize;
+
+    @Param({ "RADIX_QUICKSORT_WITH_FALLBACK", "SUFFIX_ARRAY" })
+    public BlockSortingAlgorithm sorting;
+
+    private byte[] data;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        //Half random, half zeroes - something in between of the chunk data and the padding of a region file
+        data = new byte[DATA_LENGTH];
+        Random random = new Random(2137);
+        for(int i = 0; i < data.length; i += 2) data[i] = (byte) random.nextInt();
+    }
+
+    @Benchmark
+    public void compress() throws IOException {
+        BZip2OutputStreamSettings settings = new BZip2OutputStreamSettings()
+                .setBlockSize(blockSize)
+                .setNumberOfEncoderThreads(threads)
+                .setBlockSortingAlgorithm(sorting);
+
+        try(BZip2OutputStream out = new BZip2OutputStream(OutputStream.nullOutputStream(), settings)) {
+            out.write(data);
+        }
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * A simple backup mod for Fabric
+ * Copyright (C)  2022   Szum123321
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package net.szum123321.textile_backup.benchmark;
+
+import me.shedaniel.autoconfig.ConfigHolder;
+import net.szum123321.textile_backup.config.ConfigHelper;
+import net.szum123321.textile_backup.config.ConfigPOJO;
+import net.szum123321.textile_backup.core.ActionInitiator;
+import net.szum123321.textile_backup.core.Utilities;
+import net.szum123321.textile_backup.core.create.ExecutableBackup;
+import net.szum123321.textile_backup.core.create.compressors.*;
+import net.szum123321.textile_backup.core.create.compressors.tar.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.Random;
+import java.util.UUID;
+import java.util.stream.Stream;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Shared plumbing for the benchmarks. There is no running server here, so the config is installed directly and
+ * backups are made with a bare {@link ExecutableBackup} context.
+ */
+public class BenchmarkSupport {
+    private final static int REGION_SIDE = 32;
+    private final static int SECTOR_SIZE = 4096;
+
+    /**
+     * Installs a fresh default config. Incremental backups are disabled, so that every invocation measures a full backup
+     */
+    @SuppressWarnings("unchecked")
+    public static ConfigPOJO installConfig() {
+        ConfigPOJO config = new ConfigPOJO();
+        config.incrementalBackupChainLength = 0;
+
+        ConfigHelper.updateInstance((ConfigHolder<ConfigPOJO>) Proxy.newProxyInstance(
+                ConfigHolder.class.getClassLoader(),
+                new Class<?>[]{ ConfigHolder.class },
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "get", "getConfig" -> config;
+                    case "load" -> true;
+                    case "getConfigClass" -> ConfigPOJO.class;
+                    case "hashCode" -> System.identityHashCode(proxy);
+                    case "equals" -> proxy == args[0];
+                    case "toString" -> "BenchmarkConfigHolder";
+                    default -> null;
+                }
+        ));
+
+        return config;
+    }
+
+    public static ExecutableBackup context() {
+        return new ExecutableBackup(null, null, ActionInitiator.Timer, false, false, null, LocalDateTime.now());
+    }
+
+    /**
+     * Mirrors the compressor selection in {@link ExecutableBackup#call()}
+     */
+    public static AbstractCompressor compressorFor(ConfigPOJO.ArchiveFormat format, int threads) {
+        return switch (format) {
+            case ZIP -> threads > 1 ? ParallelZipCompressor.getInstance() : ZipCompressor.getInstance();
+            case BZIP2 -> ParallelBZip2Compressor.getInstance();
+            case GZIP -> ParallelGzipCompressor.getInstance();
+            case TAR -> new AbstractTarArchiver();
+            case ZSTD -> ZstdCompressor.getInstance();
+            case LZ4 -> Lz4Compressor.getInstance();
+            case LZMA -> XzCompressor.getInstance();
+            case DEDUP -> ChunkStoreCompressor.getInstance();
+            default -> throw new IllegalArgumentException("Unsupported format: " + format);
+        };
+    }
+
+    public static Path outputFile(Path dir, ConfigPOJO.ArchiveFormat format) throws IOException {
+        Path out = dir.resolve(Utilities.getDateTimeFormatter().format(LocalDateTime.now()) + format.getCompleteString());
+        Files.createDirectories(dir);
+        return Files.createFile(out);
+    }
+
+    /**
+     * Builds a world which roughly resembles a real one: a handful of region files with zlib-compressed chunks,
+     * gzipped NBT-like .dat files and a lot of small player files.
+     */
+    public static void generateWorld(Path root, int regions, int players, long seed) throws IOException {
+        Random random = new Random(seed);
+
+        Path region = Files.createDirectories(root.resolve("region"));
+        for(int i = 0; i < regions; i++)
+            Files.write(region.resolve("r." + (i % 4) + "." + (i / 4) + ".mca"), regionFile(random));
+
+        Files.write(root.resolve("level.dat"), gzip(nbtLike(random, 8 * 1024)));
+        Files.write(root.resolve("level.dat_old"), gzip(nbtLike(random, 8 * 1024)));
+
+        Path data = Files.createDirectories(root.resolve("data"));
+        for(int i = 0; i < 16; i++)
+            Files.write(data.resolve("map_" + i + ".dat"), gzip(nbtLike(random, 16 * 1024)));
+
+        Path playerData = Files.createDirectories(root.resolve("playerdata"));
+        Path stats = Files.createDirectories(root.resolve("stats"));
+        for(int i = 0; i < players; i++) {
+            String uuid = new UUID(random.nextLong(), random.nextLong()).toString();
+            Files.write(playerData.resolve(uuid + ".dat"), gzip(nbtLike(random, 2 * 1024)));
+            Files.write(stats.resolve(uuid + ".json"), nbtLike(random, 512));
+        }
+    }
+
+    public static void deleteQuietly(Path path) {
+        if(path == null || !Files.exists(path)) return;
+        try {
+            Utilities.deleteDirectory(path);
+        } catch (IOException ignored) {}
+    }
+
+    public static long directorySize(Path path) throws IOException {
+        try(Stream<Path> files = Files.walk(path)) {
+            long size = 0;
+            for(Path file: files.filter(Files::isRegularFile).toList()) size += Files.size(file);
+            return size;
+        }
+    }
+
+    private static byte[] regionFile(Random random) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        ByteBuffer header = ByteBuffer.allocate(2 * SECTOR_SIZE);
+        int sector = 2;
+
+        for(int i = 0; i < REGION_SIDE * REGION_SIDE; i++) {
+            //Not every chunk is generated
+            if(random.nextInt(4) == 0) continue;
+
+            byte[] compressed = deflate(nbtLike(random, 8 * 1024 + random.nextInt(16 * 1024)));
+            int sectors = (compressed.length + 5 + SECTOR_SIZE - 1) / SECTOR_SIZE;
+
+            ByteBuffer chunk = ByteBuffer.allocate(sectors * SECTOR_SIZE);
+            chunk.putInt(compressed.length + 1).put((byte) 2).put(compressed);
+            body.write(chunk.array());
+
+            header.putInt(i * 4, (sector << 8) | sectors);
+            header.putInt(SECTOR_SIZE + i * 4, (int) (System.currentTimeMillis() / 1000));
+            sector += sectors;
+        }
+
+        byte[] out = new byte[header.capacity() + body.size()];
+        System.arraycopy(header.array(), 0, out, 0, header.capacity());
+        System.arraycopy(body.toByteArray(), 0, out, header.capacity(), body.size());
+        return out;
+    }
+
+    //Long runs of repeated tags with some noise in between, compresses about as well as real NBT does
+    private static byte[] nbtLike(Random random, int len) {
+        byte[] data = new byte[len];
+        int i = 0;
+        while(i < len) {
+            int run = Math.min(len - i, 1 + random.nextInt(24));
+            if(random.nextInt(3) == 0) {
+                for(int j = 0; j < run; j++) data[i + j] = (byte) random.nextInt();
+            } else {
+                byte v = (byte) random.nextInt(16);
+                for(int j = 0; j < run; j++) data[i + j] = v;
+            }
+            i += run;
+        }
+        return data;
+    }
+
+    private static byte[] deflate(byte[] data) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try(OutputStream o = new DeflaterOutputStream(out)) {
+            o.write(data);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try(OutputStream o = new GZIPOutputStream(out)) {
+            o.write(data);
+        }
+        return out.toByteArray();
+    }
+}
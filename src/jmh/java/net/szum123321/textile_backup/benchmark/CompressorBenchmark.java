@@ -0,0 +1,91 @@
+/*
+ * A simple backup mod for Fabric
+ * Copyright (C)  2022   Szum123321
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package net.szum123321.textile_backup.benchmark;
+
+import net.szum123321.textile_backup.config.ConfigPOJO;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Full backup of a synthetic world with each of the {@link net.szum123321.textile_backup.core.create.compressors.AbstractCompressor}s.
+ * The size of the backup (including the chunk store in case of DEDUP) is reported as a secondary metric,
+ * so that speed can be weighed against the ratio.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CompressorBenchmark {
+    @Param({ "ZIP", "GZIP", "BZIP2", "TAR", "ZSTD", "LZ4", "LZMA", "DEDUP" })
+    public ConfigPOJO.ArchiveFormat format;
+
+    @Param({ "1", "4" })
+    public int threads;
+
+    @Param({ "8" })
+    public int regions;
+
+    @Param({ "200" })
+    public int players;
+
+    private Path world;
+    private Path backups;
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class ArchiveSize {
+        public long archiveBytes;
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        BenchmarkSupport.installConfig().format = format;
+        world = Files.createTempDirectory("textile_bench_world");
+        BenchmarkSupport.generateWorld(world, regions, players, 2137);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        BenchmarkSupport.deleteQuietly(world);
+    }
+
+    @Setup(Level.Invocation)
+    public void prepareOutput() throws Exception {
+        backups = Files.createTempDirectory("textile_bench_backups");
+    }
+
+    @TearDown(Level.Invocation)
+    public void cleanOutput() {
+        //The chunk store of DEDUP lives next to the archive, so the whole directory has to go
+        BenchmarkSupport.deleteQuietly(backups);
+    }
+
+    @Benchmark
+    public void createArchive(ArchiveSize size) throws Exception {
+        Path out = BenchmarkSupport.outputFile(backups, format);
+        BenchmarkSupport.compressorFor(format, threads).createArchive(world, out, BenchmarkSupport.context(), threads);
+        size.archiveBytes = BenchmarkSupport.directorySize(backups);
+    }
+}
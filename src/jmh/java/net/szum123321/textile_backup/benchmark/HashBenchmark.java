@@ -0,0 +1,102 @@
+/*
+ * A simple backup mod for Fabric
+ * Copyright (C)  2022   Szum123321
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package net.szum123321.textile_backup.benchmark;
+
+import net.szum123321.textile_backup.core.create.BrokenFileHandler;
+import net.szum123321.textile_backup.core.digest.FileTreeHashBuilder;
+import net.szum123321.textile_backup.core.digest.Hash;
+import net.szum123321.textile_backup.core.digest.HashAlgorithm;
+import net.szum123321.textile_backup.core.digest.HashingInputStream;
+import net.szum123321.textile_backup.core.digest.SegmentedHash;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of every {@link HashAlgorithm}, of {@link SegmentedHash} and of the {@link HashingInputStream} which wraps every file being backed up
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HashBenchmark {
+    private final static int DATA_LENGTH = 16 * 1024 * 1024;
+    private final static Path PATH = Path.of("region", "r.0.0.mca");
+
+    //Size of a single update call, from single longs up to whole BufferedInputStream buffers
+    @Param({ "8", "31", "512", "8192", "65536" })
+    public int bufferSize;
+
+    @Param({ "BALTIC", "CRC32C", "XXH3" })
+    public HashAlgorithm algorithm;
+
+    private byte[] data;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        data = new byte[DATA_LENGTH];
+        new Random(2137).nextBytes(data);
+    }
+
+    @Benchmark
+    public long plainHash() {
+        Hash hash = algorithm.create();
+        for(int off = 0; off < data.length; off += bufferSize)
+            hash.update(data, off, Math.min(bufferSize, data.length - off));
+        return hash.getValue();
+    }
+
+    @Benchmark
+    public long segmentedHash() {
+        SegmentedHash hash = new SegmentedHash(SegmentedHash.SEGMENT_SIZE, algorithm);
+        for(int off = 0; off < data.length; off += bufferSize)
+            hash.update(data, off, Math.min(bufferSize, data.length - off));
+        return hash.getValue();
+    }
+
+    //Baseline for the one below
+    @Benchmark
+    public void plainStream(Blackhole bh) throws IOException {
+        byte[] buf = new byte[bufferSize];
+        try(InputStream in = new ByteArrayInputStream(data)) {
+            int n;
+            while((n = in.read(buf)) != -1) bh.consume(n);
+        }
+    }
+
+    @Benchmark
+    public void hashingStream(Blackhole bh) throws IOException {
+        byte[] buf = new byte[bufferSize];
+        FileTreeHashBuilder builder = new FileTreeHashBuilder(1, SegmentedHash.SEGMENT_SIZE, algorithm);
+        try(InputStream in = new HashingInputStream(new ByteArrayInputStream(data), PATH, builder, new BrokenFileHandler())) {
+            int n;
+            while((n = in.read(buf)) != -1) bh.consume(n);
+        }
+        bh.consume(builder.getFileHash(PATH));
+    }
+}
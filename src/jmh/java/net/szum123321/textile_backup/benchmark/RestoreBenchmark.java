@@ -0,0 +1,102 @@
+/*
+ * A simple backup mod for Fabric
+ * Copyright (C)  2022   Szum123321
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package net.szum123321.textile_backup.benchmark;
+
+import net.szum123321.textile_backup.config.ConfigPOJO;
+import net.szum123321.textile_backup.core.digest.FileTreeHashBuilder;
+import net.szum123321.textile_backup.core.restore.decompressors.ChunkStoreDecompressor;
+import net.szum123321.textile_backup.core.restore.decompressors.ExtractionTarget;
+import net.szum123321.textile_backup.core.restore.decompressors.GenericTarDecompressor;
+import net.szum123321.textile_backup.core.restore.decompressors.ZipDecompressor;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decompression of a synthetic world backup with {@link ZipDecompressor}, {@link GenericTarDecompressor}
+ * and {@link ChunkStoreDecompressor}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class RestoreBenchmark {
+    @Param({ "ZIP", "GZIP", "BZIP2", "TAR", "ZSTD", "LZ4", "LZMA", "DEDUP" })
+    public ConfigPOJO.ArchiveFormat format;
+
+    @Param({ "8" })
+    public int regions;
+
+    @Param({ "200" })
+    public int players;
+
+    //Threads extracting zip entries, or writing the files of tar based formats
+    @Param({ "1", "4" })
+    public int threads;
+
+    private Path root;
+    private Path archive;
+    private Path target;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        BenchmarkSupport.installConfig().format = format;
+        root = Files.createTempDirectory("textile_bench_restore");
+
+        Path world = root.resolve("world");
+        BenchmarkSupport.generateWorld(world, regions, players, 2137);
+
+        int cores = Runtime.getRuntime().availableProcessors();
+        archive = BenchmarkSupport.outputFile(root.resolve("backups"), format);
+        BenchmarkSupport.compressorFor(format, cores).createArchive(world, archive, BenchmarkSupport.context(), cores);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        BenchmarkSupport.deleteQuietly(root);
+    }
+
+    @Setup(Level.Invocation)
+    public void prepareTarget() throws Exception {
+        target = Files.createTempDirectory(root, "target");
+    }
+
+    @TearDown(Level.Invocation)
+    public void cleanTarget() {
+        BenchmarkSupport.deleteQuietly(target);
+    }
+
+    @Benchmark
+    public long decompress() throws Exception {
+        FileTreeHashBuilder hashBuilder = new FileTreeHashBuilder(0);
+
+        switch (format) {
+            case ZIP -> ZipDecompressor.decompress(archive, ExtractionTarget.directory(target), hashBuilder, threads);
+            case DEDUP -> ChunkStoreDecompressor.decompress(archive, target, hashBuilder);
+            default -> GenericTarDecompressor.decompress(archive, ExtractionTarget.directory(target), hashBuilder, threads);
+        }
+
+        return hashBuilder.getValue(false);
+    }
+}
@@ -18,17 +18,9 @@
 
 package net.szum123321.textile_backup;
 
-import net.minecraft.server.MinecraftServer;
-import net.szum123321.textile_backup.core.digest.BalticHash;
-import net.szum123321.textile_backup.core.digest.Hash;
-import net.szum123321.textile_backup.core.Utilities;
-
 import net.szum123321.textile_backup.core.restore.AwaitThread;
-import org.apache.commons.io.FileUtils;
+import net.szum123321.textile_backup.core.verify.Scrubber;
 
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.time.format.DateTimeFormatter;
 import java.util.Objects;
@@ -37,44 +29,18 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.function.Supplier;
-import java.util.zip.CRC32;
 
 public class Globals {
     public static final Globals INSTANCE = new Globals();
     private static final TextileLogger log = new TextileLogger(TextileBackup.MOD_NAME);
     public static final DateTimeFormatter defaultDateTimeFormatter = DateTimeFormatter.ofPattern("yyyy-MM-dd_HH.mm.ss");
-    public static final Supplier<Hash> CHECKSUM_SUPPLIER = BalticHash::new;/*() -> new Hash() {
-        private final CRC32 crc = new CRC32();
-
-        @Override
-        public void update ( int b){
-            crc.update(b);
-        }
-
-        @Override
-        public void update ( long b) {
-            ByteBuffer v = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
-            v.putLong(b);
-            crc.update(v.array());
-        }
-
-        @Override
-        public void update ( byte[] b, int off, int len){
-            crc.update(b, off, len);
-        }
-
-        @Override
-        public long getValue () {
-            return crc.getValue();
-        }
-    };*/
 
     private ExecutorService executorService = null;//TODO: AAAAAAAAAAAAAAA MEMORY LEAK!!!!!!!!!
+    private ExecutorService verificationExecutor = null;
     public final AtomicBoolean globalShutdownBackupFlag = new AtomicBoolean(true);
-    public boolean disableWatchdog = false;
-    private boolean disableTMPFiles = false;
-    private AwaitThread restoreAwaitThread = null;
+    public volatile boolean disableWatchdog = false;
+    private volatile AwaitThread restoreAwaitThread = null;
+    private Thread scrubberThread = null;
     private Path lockedPath = null;
 
     private String combinedVersionString;
@@ -108,6 +74,39 @@ public class Globals {
 
     }
 
+    //Verifications run one at a time, separately from the backups, so that they don't hold up the queue
+    public ExecutorService getVerificationExecutor() { return verificationExecutor; }
+
+    public void resetVerificationExecutor() {
+        if(Objects.nonNull(verificationExecutor) && !verificationExecutor.isShutdown()) return;
+        verificationExecutor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "Textile Backup verification");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    //Nothing is lost by dropping a verification, so there's no point in waiting for it
+    public void shutdownVerificationExecutor() {
+        if(Objects.nonNull(verificationExecutor)) verificationExecutor.shutdownNow();
+    }
+
+    public void startScrubber(Path backupRoot) {
+        stopScrubber();
+        scrubberThread = new Thread(new Scrubber(backupRoot), "Textile Backup scrubber");
+        scrubberThread.setDaemon(true);
+        scrubberThread.setPriority(Thread.MIN_PRIORITY);
+        scrubberThread.start();
+    }
+
+    public void stopScrubber() {
+        if(Objects.nonNull(scrubberThread)) scrubberThread.interrupt();
+        scrubberThread = null;
+    }
+
+    //Either a backup is being made, or a restore is about to start
+    public boolean isBusy() { return disableWatchdog || getAwaitThread().filter(Thread::isAlive).isPresent(); }
+
     public Optional<AwaitThread> getAwaitThread() { return Optional.ofNullable(restoreAwaitThread); }
 
     public void setAwaitThread(AwaitThread th) { restoreAwaitThread = th; }
@@ -116,26 +115,6 @@ public class Globals {
     public Optional<Path> getLockedFile() { return Optional.ofNullable(lockedPath); }
     public void setLockedFile(Path p) { lockedPath = p; }
 
-    public synchronized boolean disableTMPFS() { return disableTMPFiles; }
-    public synchronized void updateTMPFSFlag(MinecraftServer server) {
-        disableTMPFiles = false;
-        Path tmp_dir = Path.of(System.getProperty("java.io.tmpdir"));
-        if(
-                FileUtils.sizeOfDirectory(Utilities.getWorldFolder(server).toFile()) >=
-                        tmp_dir.toFile().getUsableSpace()
-        ) {
-            log.error("Not enough space left in TMP directory! ({})", tmp_dir);
-            disableTMPFiles = true;
-        }
-
-        if(!Files.isWritable(tmp_dir)) {
-            log.error("TMP filesystem ({}) is read-only!", tmp_dir);
-            disableTMPFiles = true;
-        }
-
-        if(disableTMPFiles) log.error("Might cause: https://github.com/Szum123321/textile_backup/wiki/ZIP-Problems");
-    }
-
     public String getCombinedVersionString() {
         return combinedVersionString;
     }
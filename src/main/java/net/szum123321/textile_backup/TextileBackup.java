@@ -35,10 +35,12 @@ import net.szum123321.textile_backup.commands.manage.DeleteCommand;
 import net.szum123321.textile_backup.commands.manage.WhitelistCommand;
 import net.szum123321.textile_backup.commands.restore.KillRestoreCommand;
 import net.szum123321.textile_backup.commands.manage.ListBackupsCommand;
+import net.szum123321.textile_backup.commands.manage.VerifyBackupCommand;
 import net.szum123321.textile_backup.commands.restore.RestoreBackupCommand;
 import net.szum123321.textile_backup.config.ConfigHelper;
 import net.szum123321.textile_backup.config.ConfigPOJO;
 import net.szum123321.textile_backup.core.ActionInitiator;
+import net.szum123321.textile_backup.core.Utilities;
 import net.szum123321.textile_backup.core.create.BackupScheduler;
 import net.szum123321.textile_backup.core.create.ExecutableBackup;
 
@@ -66,11 +68,16 @@ public class TextileBackup implements ModInitializer {
         //Restart Executor Service in single-player
         ServerLifecycleEvents.SERVER_STARTING.register(server -> {
             Globals.INSTANCE.resetQueueExecutor();
-            Globals.INSTANCE.updateTMPFSFlag(server);
+            Globals.INSTANCE.resetVerificationExecutor();
         });
 
+        ServerLifecycleEvents.SERVER_STARTED.register(server ->
+                Globals.INSTANCE.startScrubber(Utilities.getBackupRootPath(Utilities.getLevelName(server))));
+
         //Wait 60s for already submitted backups to finish. After that kill the bastards and run the one last if required
         ServerLifecycleEvents.SERVER_STOPPED.register(server -> {
+            Globals.INSTANCE.stopScrubber();
+            Globals.INSTANCE.shutdownVerificationExecutor();
             Globals.INSTANCE.shutdownQueueExecutor(60000);
 
             if (config.get().shutdownBackup && Globals.INSTANCE.globalShutdownBackupFlag.get()) {
@@ -109,6 +116,7 @@ public class TextileBackup implements ModInitializer {
                         .then(ListBackupsCommand.register())
                         .then(DeleteCommand.register())
                         .then(KillRestoreCommand.register())
+                        .then(VerifyBackupCommand.register())
         ));
     }
 }
@@ -28,8 +28,11 @@ import net.szum123321.textile_backup.TextileBackup;
 import net.szum123321.textile_backup.TextileLogger;
 import net.szum123321.textile_backup.commands.CommandExceptions;
 import net.szum123321.textile_backup.commands.FileSuggestionProvider;
+import net.szum123321.textile_backup.config.ConfigPOJO;
+import net.szum123321.textile_backup.core.BackupManifest;
 import net.szum123321.textile_backup.core.RestoreableFile;
 import net.szum123321.textile_backup.core.Utilities;
+import net.szum123321.textile_backup.core.dedup.ChunkStore;
 
 import java.io.IOException;
 import java.nio.file.Files;
@@ -64,11 +67,17 @@ public class DeleteCommand {
                 e -> log.sendErrorAL(source, "An exception occurred while trying to delete a file!", e),
                 stream -> stream.filter(f -> f.getCreationTime().equals(dateTime)).map(RestoreableFile::getFile).findFirst()
                 ).ifPresentOrElse(file -> {
-                    if(Globals.INSTANCE.getLockedFile().filter(p -> p == file).isEmpty()) {
+                    if(BackupManifest.getReferencedBackups(root).contains((Path) file)) {
+                        log.sendError(source, "Couldn't delete the file because other incremental backups depend on it.");
+                    } else if(Globals.INSTANCE.getLockedFile().filter(p -> p == file).isEmpty()) {
                         try {
                             Files.delete((Path) file);
+                            BackupManifest.deleteSidecar((Path) file);
                             log.sendInfo(source, "File {} successfully deleted!", file);
 
+                            if(((Path) file).getFileName().toString().endsWith(ConfigPOJO.ArchiveFormat.DEDUP.getCompleteString()))
+                                ChunkStore.collectGarbage(root);
+
                             if(Utilities.wasSentByPlayer(source))
                                 log.info("Player {} deleted {}.", source.getPlayer().getName(), file);
                         } catch (IOException e) {
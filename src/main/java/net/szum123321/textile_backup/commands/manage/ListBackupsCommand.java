@@ -24,7 +24,9 @@ import net.minecraft.server.command.ServerCommandSource;
 import net.szum123321.textile_backup.TextileBackup;
 import net.szum123321.textile_backup.TextileLogger;
 import net.szum123321.textile_backup.core.RestoreableFile;
+import net.szum123321.textile_backup.core.Utilities;
 import net.szum123321.textile_backup.core.restore.RestoreHelper;
+import net.szum123321.textile_backup.core.verify.VerificationLog;
 
 import java.util.*;
 
@@ -35,22 +37,23 @@ public class ListBackupsCommand {
         return CommandManager.literal("list")
                 .executes(ctx -> { StringBuilder builder = new StringBuilder();
                     var backups = RestoreHelper.getAvailableBackups(ctx.getSource().getServer());
+                    var verificationLog = VerificationLog.load(Utilities.getBackupRootPath(Utilities.getLevelName(ctx.getSource().getServer())));
 
                     if(backups.size() == 0) {
                         builder.append("There a no backups available for this world.");
                     } else if(backups.size() == 1) {
                         builder.append("There is only one backup available: ");
-                        builder.append(backups.get(0).toString());
+                        builder.append(describe(backups.get(0), verificationLog));
                     } else {
                         backups.sort(null);
                         Iterator<RestoreableFile> iterator = backups.iterator();
                         builder.append("Available backups:\n");
 
-                        builder.append(iterator.next());
+                        builder.append(describe(iterator.next(), verificationLog));
 
                         while(iterator.hasNext()) {
                             builder.append(",\n");
-                            builder.append(iterator.next().toString());
+                            builder.append(describe(iterator.next(), verificationLog));
                         }
                     }
 
@@ -59,4 +62,8 @@ public class ListBackupsCommand {
                     return 1;
                 });
     }
+
+    private static String describe(RestoreableFile file, VerificationLog verificationLog) {
+        return file.toString() + (verificationLog.isDamaged(file.getFile()) ? " (DAMAGED!)" : "");
+    }
 }
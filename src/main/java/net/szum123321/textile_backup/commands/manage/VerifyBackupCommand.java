@@ -0,0 +1,110 @@
+/*
+ * A simple backup mod for Fabric
+ * Copyright (C)  2022   Szum123321
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package net.szum123321.textile_backup.commands.manage;
+
+import com.mojang.brigadier.arguments.StringArgumentType;
+import com.mojang.brigadier.builder.LiteralArgumentBuilder;
+import com.mojang.brigadier.exceptions.CommandSyntaxException;
+import net.minecraft.server.command.CommandManager;
+import net.minecraft.server.command.ServerCommandSource;
+import net.szum123321.textile_backup.Globals;
+import net.szum123321.textile_backup.TextileBackup;
+import net.szum123321.textile_backup.TextileLogger;
+import net.szum123321.textile_backup.commands.CommandExceptions;
+import net.szum123321.textile_backup.commands.FileSuggestionProvider;
+import net.szum123321.textile_backup.core.RestoreableFile;
+import net.szum123321.textile_backup.core.Utilities;
+import net.szum123321.textile_backup.core.digest.TreeDigest;
+import net.szum123321.textile_backup.core.restore.RestoreHelper;
+import net.szum123321.textile_backup.core.verify.BackupVerifier;
+
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.Objects;
+import java.util.Optional;
+
+public class VerifyBackupCommand {
+    private final static TextileLogger log = new TextileLogger(TextileBackup.MOD_NAME);
+
+    public static LiteralArgumentBuilder<ServerCommandSource> register() {
+        return CommandManager.literal("verify")
+                .then(CommandManager.argument("file", StringArgumentType.word())
+                        .suggests(FileSuggestionProvider.Instance())
+                        .executes(ctx -> execute(ctx.getSource(), StringArgumentType.getString(ctx, "file"), null))
+                        //Checks a directory of the world against the backup, e.g. a dimension which has just been restored
+                        .then(CommandManager.argument("directory", StringArgumentType.greedyString())
+                                .executes(ctx -> execute(
+                                        ctx.getSource(),
+                                        StringArgumentType.getString(ctx, "file"),
+                                        StringArgumentType.getString(ctx, "directory")
+                                ))
+                        )
+                ).executes(ctx -> execute(ctx.getSource(), "latest", null));
+    }
+
+    private static int execute(ServerCommandSource source, String file, String directory) throws CommandSyntaxException {
+        var backups = RestoreHelper.getAvailableBackups(source.getServer());
+        Optional<RestoreableFile> backup;
+
+        if(Objects.equals(file, "latest")) {
+            backup = Optional.ofNullable(backups.peekLast());
+        } else {
+            LocalDateTime dateTime;
+
+            try {
+                dateTime = LocalDateTime.from(Globals.defaultDateTimeFormatter.parse(file));
+            } catch (DateTimeParseException e) {
+                throw CommandExceptions.DATE_TIME_PARSE_COMMAND_EXCEPTION_TYPE.create(e);
+            }
+
+            backup = backups.stream().filter(f -> f.getCreationTime().equals(dateTime)).findFirst();
+        }
+
+        if(backup.isEmpty()) {
+            log.sendInfo(source, "Couldn't find file by this name.");
+            log.sendInfo(source, "Maybe try /backup list");
+            return -1;
+        }
+
+        if(directory != null) {
+            //On a dedicated server the world folder is relative, e.g. ./world, so both sides have to be normalized
+            Path world = Utilities.getWorldFolder(source.getServer()).toAbsolutePath().normalize();
+            Path path = world.resolve(directory).normalize();
+
+            if(!path.startsWith(world)) {
+                log.sendInfo(source, "Directory has to be inside the world.");
+                return -1;
+            }
+
+            String name = TreeDigest.toEntryName(world, path);
+            log.sendInfo(source, "Verifying {} against {}. The result will be sent once it's done",
+                    name.isEmpty() ? "the world" : name, backup.get().getFile().getFileName());
+            BackupVerifier.submit(backup.get(), world, name, source);
+
+            return 1;
+        }
+
+        log.sendInfo(source, "Verifying {}. The result will be sent once it's done", backup.get().getFile().getFileName());
+        BackupVerifier.submit(backup.get(), source);
+
+        return 1;
+    }
+}
@@ -24,6 +24,7 @@ import me.shedaniel.autoconfig.ConfigData;
 import me.shedaniel.autoconfig.annotation.Config;
 import me.shedaniel.autoconfig.annotation.ConfigEntry;
 import net.szum123321.textile_backup.TextileBackup;
+import net.szum123321.textile_backup.core.digest.HashAlgorithm;
 
 import java.time.format.DateTimeFormatter;
 import java.util.*;
@@ -103,6 +104,12 @@ public class ConfigPOJO implements ConfigData {
     @ConfigEntry.Category("Create")
     public int compression = 7;
 
+    @Comment("\nZstandard compression level \n1 - 19\n Only affects tar.zst compression.\n")
+    @ConfigEntry.Gui.Tooltip()
+    @ConfigEntry.BoundedDiscrete(min = 1, max = 19)
+    @ConfigEntry.Category("Create")
+    public int zstdCompressionLevel = 3;
+
     @Comment("""
             \nLimit how many cores can be used for compression.
             0 means that all available cores will be used
@@ -111,17 +118,101 @@ public class ConfigPOJO implements ConfigData {
     @ConfigEntry.Category("Create")
     public int compressionCoreCountLimit = 0;
 
+    @Comment("""
+            \nMaximal amount of memory (in MiB) used to hold entries compressed in parallel, before they get written to the archive.
+            Files larger than that are compressed one at a time. Only affects zip and xz compression,
+            with xz every thread takes about 150 MiB, and only if a single one doesn't fit, the dictionary gets smaller.
+            When restoring tar based backups, it limits the data waiting to be written to the disk,
+            as well as the xz and bzip2 blocks being decompressed in parallel
+            """)
+    @ConfigEntry.Gui.Tooltip()
+    @ConfigEntry.Category("Create")
+    public int compressionMemoryBudget = 256;
+
     @Comment("""
             \nAvailable formats are:
             ZIP - normal zip archive using standard deflate compression
             GZIP - tar.gz using gzip compression
             TAR - .tar with no compression
+            ZSTD - tar.zst using multithreaded zstandard compression
+            LZ4 - tar.lz4 using lz4 compression. Fastest, but the archive is the largest
+            LZMA - tar.xz using multithreaded xz compression. Smallest, but the slowest
+            DEDUP - files are split into chunks, which are stored only once and shared between backups
             """)
     @ConfigEntry.Gui.Tooltip()
     @ConfigEntry.Category("Create")
     @ConfigEntry.Gui.EnumHandler(option = ConfigEntry.Gui.EnumHandler.EnumDisplayOption.BUTTON)
     public ArchiveFormat format = ArchiveFormat.ZIP;
 
+    @Comment("""
+            \nWrite GZIP backups as a series of independent blocks, just like BGZF does, so that they can be decompressed on many cores.
+            The result is still a valid .tar.gz, only slightly larger
+            """)
+    @ConfigEntry.Gui.Tooltip()
+    @ConfigEntry.Category("Create")
+    public boolean blockGzip = false;
+
+    @Comment("""
+            \nMaximal number of incremental backups made on top of a single full one.
+            Incremental backup only stores files which have changed since the previous one,
+            thus it can only be restored as long as all of its predecessors are present.
+            Cleanup never breaks a chain, so keep this value lower than backupsToKeep.
+            0 disables incremental backups
+            """)
+    @ConfigEntry.Gui.Tooltip()
+    @ConfigEntry.Category("Create")
+    public int incrementalBackupChainLength = 0;
+
+    @Comment("""
+            \nMake a copy of the world first and compress the copy.
+            World saving is only disabled while the copy is made, instead of for the whole compression.
+            Requires enough free space for a copy of the world, otherwise the world is compressed directly
+            """)
+    @ConfigEntry.Gui.Tooltip()
+    @ConfigEntry.Category("Create")
+    public boolean snapshotBeforeCompression = false;
+
+    @Comment("""
+            \nRemember hashes of the world files between backups, so that files which haven't changed don't need to be hashed again.
+            The cache is kept in the backup directory
+            """)
+    @ConfigEntry.Gui.Tooltip()
+    @ConfigEntry.Category("Create")
+    public boolean useHashCache = true;
+
+    @Comment("""
+            \nAlgorithm used to verify backup integrity. Each backup remembers its own, so it can be changed at any time
+            BALTIC - the default one
+            CRC32C - fastest on CPUs with hardware crc support, but only 32 bits long
+            XXH3 - fast and 64 bits long
+            """)
+    @ConfigEntry.Gui.Tooltip()
+    @ConfigEntry.Category("Create")
+    @ConfigEntry.Gui.EnumHandler(option = ConfigEntry.Gui.EnumHandler.EnumDisplayOption.BUTTON)
+    public HashAlgorithm hashAlgorithm = HashAlgorithm.BALTIC;
+
+    @Comment("""
+            \nRead every new backup back once it's done and check it against its hashes, just like restoring would.
+            Runs in the background and doesn't write anything to the disk. See also: /backup verify
+            """)
+    @ConfigEntry.Gui.Tooltip()
+    @ConfigEntry.Category("Create")
+    public boolean verifyNewBackups = false;
+
+    @Comment("""
+            \nKeep verifying existing backups in the background, so that damaged ones are found before they are needed.
+            Speed limit in MiB/s of the data read out of the archives. Scrubbing pauses while a backup or restore is running.
+            0 disables scrubbing. Results are shown in /backup list
+            """)
+    @ConfigEntry.Gui.Tooltip()
+    @ConfigEntry.Category("Manage")
+    public int scrubbingSpeed = 0;
+
+    @Comment("\nTime in seconds after which a backup gets verified again by the scrubber\n")
+    @ConfigEntry.Gui.Tooltip()
+    @ConfigEntry.Category("Manage")
+    public long scrubbingInterval = 604800;
+
     @Comment("\nMinimal permission level required to run commands\n")
     @ConfigEntry.Category("Manage")
     @ConfigEntry.Gui.NoTooltip()
@@ -174,6 +265,21 @@ public class ConfigPOJO implements ConfigData {
         if(compressionCoreCountLimit > Runtime.getRuntime().availableProcessors())
             throw new ValidationException("compressionCoreCountLimit is too high! Your system only has: " + Runtime.getRuntime().availableProcessors() + " cores!");
 
+        if(incrementalBackupChainLength < 0)
+            throw new ValidationException("incrementalBackupChainLength cannot be negative!");
+
+        if(compressionMemoryBudget <= 0)
+            throw new ValidationException("compressionMemoryBudget has to be positive!");
+
+        if(zstdCompressionLevel < 1 || zstdCompressionLevel > 19)
+            throw new ValidationException("zstdCompressionLevel has to be between 1 and 19!");
+
+        if(scrubbingSpeed < 0)
+            throw new ValidationException("scrubbingSpeed cannot be negative!");
+
+        if(scrubbingInterval < 0)
+            throw new ValidationException("scrubbingInterval cannot be negative!");
+
         try {
             DateTimeFormatter.ofPattern(dateTimeFormat);
         } catch (IllegalArgumentException e) {
@@ -199,7 +305,10 @@ public class ConfigPOJO implements ConfigData {
         GZIP("tar", "gz"),
         BZIP2("tar", "bz2"),
         LZMA("tar", "xz"),
-        TAR("tar");
+        TAR("tar"),
+        ZSTD("tar", "zst"),
+        LZ4("tar", "lz4"),
+        DEDUP("dedup");
 
         private final List<String> extensionPieces;
 
@@ -0,0 +1,160 @@
+/*
+ * A simple backup mod for Fabric
+ * Copyright (C)  2022   Szum123321
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package net.szum123321.textile_backup.core;
+
+import net.szum123321.textile_backup.TextileBackup;
+import net.szum123321.textile_backup.TextileLogger;
+import net.szum123321.textile_backup.core.digest.HashAlgorithm;
+import net.szum123321.textile_backup.core.digest.SegmentedHash;
+import net.szum123321.textile_backup.core.region.RegionDelta;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Describes every file that makes up the world at the time of backup creation: its size, modification time and hash.
+ * <br>
+ * It is what makes incremental backups possible. Next backup compares the world against the manifest of its parent and only
+ * archives the files that have changed. The manifest is stored both inside the archive and next to it, as a sidecar file,
+ * so that we don't have to decompress the whole previous backup just to find out what's in there.
+ */
+public record BackupManifest(String parent, int chainLength, Map<String, FileEntry> files, int hashSegmentSize, HashAlgorithm hashAlgorithm) implements Serializable {
+    private final static TextileLogger log = new TextileLogger(TextileBackup.MOD_NAME);
+
+    public static final String DATA_FILENAME = "textile_manifest.data";
+    public static final String SIDECAR_EXTENSION = ".manifest";
+
+    /**
+     * @param regionChunks hashes of the chunks of a region file, see {@link RegionDelta}. Null for other files
+     */
+    public record FileEntry(long size, long lastModified, long hash, long[] regionChunks) implements Serializable { }
+
+    public record ParentBackup(Path file, BackupManifest manifest) { }
+
+    public boolean isIncremental() { return parent != null; }
+
+    //Manifests written before the algorithm could be chosen don't have it set
+    @Override
+    public HashAlgorithm hashAlgorithm() { return hashAlgorithm != null ? hashAlgorithm : HashAlgorithm.BALTIC; }
+
+    public static Path resolveSidecar(Path backupFile) {
+        return backupFile.resolveSibling(backupFile.getFileName().toString() + SIDECAR_EXTENSION);
+    }
+
+    public static Optional<BackupManifest> readSidecar(Path backupFile) {
+        Path sidecar = resolveSidecar(backupFile);
+
+        if(Files.notExists(sidecar)) return Optional.empty();
+
+        try {
+            return Optional.of(read(sidecar));
+        } catch (IOException | ClassNotFoundException e) {
+            log.error("An exception occurred while trying to read manifest: {}", sidecar, e);
+        }
+
+        return Optional.empty();
+    }
+
+    public void writeSidecar(Path backupFile) throws IOException {
+        Files.write(resolveSidecar(backupFile), serialize());
+    }
+
+    public static void deleteSidecar(Path backupFile) throws IOException {
+        Files.deleteIfExists(resolveSidecar(backupFile));
+    }
+
+    public static Path resolveManifestFilename(Path directory) { return directory.resolve(DATA_FILENAME); }
+
+    public static BackupManifest readFromFile(Path directory) throws IOException, ClassNotFoundException {
+        return read(resolveManifestFilename(directory));
+    }
+
+    /**
+     * Finds the newest backup in the directory of <code>outputFile</code> that the new backup can be built on top of.
+     * Backups without a manifest or ones that have already reached the maximal chain length are not considered.
+     * Neither are ones whose files were hashed with a different segment size or algorithm, as their hashes can't be reused.
+     */
+    public static Optional<ParentBackup> findParent(Path outputFile, int maxChainLength, HashAlgorithm algorithm) {
+        return RestoreableFile.applyOnFiles(outputFile.getParent(), Optional.<RestoreableFile>empty(),
+                        e -> log.error("An exception occurred while looking for parent backup!", e),
+                        s -> s.filter(f -> !f.getFile().equals(outputFile)).max(Comparator.naturalOrder())
+                ).flatMap(f -> readSidecar(f.getFile()).map(m -> new ParentBackup(f.getFile(), m)))
+                .filter(p -> p.manifest().chainLength() < maxChainLength)
+                .filter(p -> p.manifest().hashSegmentSize() == SegmentedHash.SEGMENT_SIZE)
+                .filter(p -> p.manifest().hashAlgorithm() == algorithm);
+    }
+
+    /**
+     * Lists all the backups needed to restore the given one. The full backup comes first, the requested one is last
+     */
+    public static List<RestoreableFile> resolveChain(RestoreableFile backup) throws IOException {
+        LinkedList<RestoreableFile> chain = new LinkedList<>();
+        chain.addFirst(backup);
+
+        Optional<BackupManifest> manifest = readSidecar(backup.getFile());
+        final int declaredLength = manifest.map(BackupManifest::chainLength).orElse(0);
+
+        while(manifest.isPresent() && manifest.get().isIncremental()) {
+            //A chain can't be longer than the one which was declared in the newest manifest
+            if(chain.size() > declaredLength) throw new IOException("Backup chain is longer than declared!");
+
+            Path parentFile = chain.getFirst().getFile().resolveSibling(manifest.get().parent());
+
+            RestoreableFile parent = RestoreableFile.build(parentFile)
+                    .orElseThrow(() -> new FileNotFoundException("Missing parent backup: " + parentFile));
+
+            chain.addFirst(parent);
+            manifest = readSidecar(parentFile);
+        }
+
+        return chain;
+    }
+
+    /**
+     * @return Backups which are parents of other backups present in the root directory, thus can't be deleted
+     */
+    public static Set<Path> getReferencedBackups(Path root) {
+        return RestoreableFile.applyOnFiles(root, Set.of(),
+                e -> log.error("An exception occurred while listing backup manifests!", e),
+                s -> {
+                    Set<Path> set = new HashSet<>();
+                    s.forEach(f -> readSidecar(f.getFile())
+                            .filter(BackupManifest::isIncremental)
+                            .ifPresent(m -> set.add(f.getFile().resolveSibling(m.parent()))));
+                    return set;
+                });
+    }
+
+    private static BackupManifest read(Path file) throws IOException, ClassNotFoundException {
+        try(InputStream i = new BufferedInputStream(Files.newInputStream(file));
+            ObjectInputStream obj = new ObjectInputStream(i)) {
+            return (BackupManifest) obj.readObject();
+        }
+    }
+
+    public byte[] serialize() throws IOException {
+        try (ByteArrayOutputStream bo = new ByteArrayOutputStream();
+             ObjectOutputStream o = new ObjectOutputStream(bo)) {
+            o.writeObject(this);
+            return bo.toByteArray();
+        }
+    }
+}
@@ -23,14 +23,22 @@ import net.szum123321.textile_backup.Globals;
 import net.szum123321.textile_backup.TextileBackup;
 import net.szum123321.textile_backup.TextileLogger;
 import net.szum123321.textile_backup.config.ConfigHelper;
+import net.szum123321.textile_backup.config.ConfigPOJO;
+import net.szum123321.textile_backup.core.dedup.ChunkStore;
+import net.szum123321.textile_backup.core.verify.VerificationLog;
 
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 /**
@@ -42,6 +50,8 @@ public class Cleanup implements Callable<Integer> {
 
 	private final ServerCommandSource ctx;
 	private final String worldName;
+	private Set<Path> referenced = Set.of();
+	private Set<Path> lastGood = Set.of();
 
 	public Cleanup(ServerCommandSource ctx, String worldName) {
 		this.ctx = ctx;
@@ -54,6 +64,10 @@ public class Cleanup implements Callable<Integer> {
 
 		if (!Files.isDirectory(root) || !Files.exists(root) || isEmpty(root)) return 0;
 
+		//Parents of incremental backups can only be deleted once all of their children are gone
+		referenced = BackupManifest.getReferencedBackups(root);
+		lastGood = getLastGoodChain(root);
+
 		if (config.get().maxAge > 0) { // delete files older that configured
 			final long now = LocalDateTime.now().toEpochSecond(ZoneOffset.UTC);
 
@@ -71,26 +85,46 @@ public class Cleanup implements Callable<Integer> {
 		long[] counts = count(root);
 		long n = counts[0], size = counts[1];
 
-		var it = RestoreableFile.applyOnFiles(root, null,
-				e -> log.error("An exception occurred while trying to delete old files!", e),
-				s -> s.sorted().toList().iterator());
+		//Incremental backups which the newest one depends on have to stay
+		Set<Path> newestChain = getNewestChain(root);
+		boolean progress = true;
 
-		if(Objects.isNull(it)) return deletedFiles;
+		//Deleting a child backup may unlock its parent, so we start over from the oldest one after every deletion
+		while(progress && (n > noToKeep || size > maxSize)) {
+			progress = false;
 
-		while(it.hasNext() && (n > noToKeep || size > maxSize)) {
-			Path f = it.next().getFile();
-			long x;
-			try {
-				x = Files.size(f);
-			} catch (IOException e) { size = 0; continue; }
+			var it = RestoreableFile.applyOnFiles(root, null,
+					e -> log.error("An exception occurred while trying to delete old files!", e),
+					s -> s.sorted().map(RestoreableFile::getFile).filter(f -> !newestChain.contains(f)).toList().iterator());
 
-			if(!deleteFile(f, ctx)) continue;
+			if(Objects.isNull(it)) return deletedFiles;
+
+			while(it.hasNext() && !progress) {
+				Path f = it.next();
+				long x;
+				try {
+					x = Files.size(f);
+				} catch (IOException e) { size = 0; continue; }
 
-			size -= x;
-			n--;
-			deletedFiles++;
+				if(!deleteFile(f, ctx)) continue;
+
+				n--;
+				deletedFiles++;
+				progress = true;
+
+				if(isDeduplicated(f)) {
+					//Only the chunks which were exclusive to the deleted index free up space
+					ChunkStore.collectGarbage(root);
+					size = count(root)[1];
+				} else {
+					size -= x;
+				}
+			}
 		}
 
+		//Deletions based on age also may have left some chunks unreferenced
+		if(deletedFiles > 0 && Files.exists(root.resolve(ChunkStore.DIRECTORY_NAME))) ChunkStore.collectGarbage(root);
+
 		return deletedFiles;
 	}
 
@@ -113,9 +147,66 @@ public class Cleanup implements Callable<Integer> {
 			log.error("Error while counting files!", e);
 		}
 
+		//Chunks shared by deduplicated backups also take up space
+		size += ChunkStore.size(root);
+
 		return new long[]{n, size};
 	}
 
+	private Set<Path> getNewestChain(Path root) {
+		var newest = RestoreableFile.applyOnFiles(root, Optional.<RestoreableFile>empty(),
+				e -> log.error("An exception occurred while trying to find the newest backup!", e),
+				s -> s.max(Comparator.naturalOrder()));
+
+		if(newest.isEmpty()) return Set.of();
+
+		try {
+			return BackupManifest.resolveChain(newest.get()).stream().map(RestoreableFile::getFile).collect(Collectors.toSet());
+		} catch (IOException e) {
+			log.error("Couldn't resolve backup chain of {}", newest.get().getFile(), e);
+			return Set.of(newest.get().getFile());
+		}
+	}
+
+	/**
+	 * If the newest backups were found to be damaged, the newest one that was verified to be fine has to stay,
+	 * together with its parents. Otherwise, there's nothing to protect.
+	 */
+	private Set<Path> getLastGoodChain(Path root) {
+		VerificationLog verificationLog = VerificationLog.load(root);
+
+		var backups = RestoreableFile.applyOnFiles(root, List.<RestoreableFile>of(),
+				e -> log.error("An exception occurred while trying to find the last good backup!", e),
+				s -> s.sorted(Comparator.reverseOrder()).toList());
+
+		boolean damagedNewer = false;
+
+		for(RestoreableFile backup: backups) {
+			var entry = verificationLog.get(backup.getFile());
+			if(entry.isEmpty()) continue;
+
+			if(!entry.get().isValid()) {
+				damagedNewer = true;
+				continue;
+			}
+
+			if(!damagedNewer) return Set.of();
+
+			try {
+				return BackupManifest.resolveChain(backup).stream().map(RestoreableFile::getFile).collect(Collectors.toSet());
+			} catch (IOException e) {
+				log.error("Couldn't resolve backup chain of {}", backup.getFile(), e);
+				return Set.of(backup.getFile());
+			}
+		}
+
+		return Set.of();
+	}
+
+	private static boolean isDeduplicated(Path f) {
+		return f.getFileName().toString().endsWith(ConfigPOJO.ArchiveFormat.DEDUP.getCompleteString());
+	}
+
 	private boolean isEmpty(Path root) {
 		if (!Files.isDirectory(root)) return false;
 		return RestoreableFile.applyOnFiles(root, false, e -> {}, s -> s.findFirst().isEmpty());
@@ -124,8 +215,12 @@ public class Cleanup implements Callable<Integer> {
 	//1 -> ok, 0 -> err
 	private boolean deleteFile(Path f, ServerCommandSource ctx) {
 		if(Globals.INSTANCE.getLockedFile().filter(p -> p == f).isPresent()) return false;
+		if(referenced.contains(f)) return false;
+		if(lastGood.contains(f)) return false;
 		try {
 			Files.delete(f);
+			BackupManifest.deleteSidecar(f);
+			referenced = BackupManifest.getReferencedBackups(f.getParent());
 			log.sendInfoAL(ctx, "Deleted: {}", f);
 		} catch (IOException e) {
 			if(Utilities.wasSentByPlayer(ctx)) log.sendError(ctx, "Something went wrong while deleting: {}.", f);
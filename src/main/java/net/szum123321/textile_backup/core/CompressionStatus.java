@@ -18,6 +18,8 @@
 
 package net.szum123321.textile_backup.core;
 
+import net.szum123321.textile_backup.core.digest.HashAlgorithm;
+import net.szum123321.textile_backup.core.digest.TreeDigest;
 import net.szum123321.textile_backup.core.restore.RestoreContext;
 
 import java.io.*;
@@ -28,14 +30,15 @@ import java.time.format.DateTimeFormatter;
 import java.util.Map;
 import java.util.Optional;
 
-public record CompressionStatus(long treeHash, Map<String, Exception> brokenFiles, LocalDateTime date, long startTimestamp, long finishTimestamp, String version) implements Serializable {
+public record CompressionStatus(long treeHash, Map<String, Exception> brokenFiles, LocalDateTime date, long startTimestamp, long finishTimestamp, String version, String parentBackup, int hashSegmentSize, TreeDigest digest, HashAlgorithm hashAlgorithm) implements Serializable {
     public static final String DATA_FILENAME = "textile_status.data";
 
-    public Optional<String> validate(long hash, RestoreContext ctx) throws RuntimeException {
-        if(hash != treeHash)
-            return Optional.of("Tree Hash mismatch!\n  Expected: " + hex(treeHash) + ", got: " + hex(hash));
-
-        if(!brokenFiles.isEmpty()) return Optional.of("Damaged files present! ^");
+    /**
+     * @param actual digest of the restored files, used to tell which ones don't match
+     */
+    public Optional<String> validate(long hash, TreeDigest actual, RestoreContext ctx) throws RuntimeException {
+        Optional<String> hashError = validateHash(hash, actual);
+        if(hashError.isPresent()) return hashError;
 
         if(ctx.restoreableFile().getCreationTime().equals(date))
             return Optional.of(
@@ -47,6 +50,31 @@ public record CompressionStatus(long treeHash, Map<String, Exception> brokenFile
         return Optional.empty();
     }
 
+    /**
+     * Same as {@link #validate(long, TreeDigest, RestoreContext)}, but only checks the contents, so it can be used without restoring
+     */
+    public Optional<String> validateHash(long hash, TreeDigest actual) {
+        if(hash != treeHash) {
+            String msg = "Tree Hash mismatch!\n  Expected: " + hex(treeHash) + ", got: " + hex(hash);
+            //Backups made by older versions don't have the digest
+            if(digest != null) msg += digest.compare(actual);
+            return Optional.of(msg);
+        }
+
+        if(!brokenFiles.isEmpty()) return Optional.of("Damaged files present! ^");
+
+        return Optional.empty();
+    }
+
+    public boolean isIncremental() { return parentBackup != null; }
+
+    //Backups made before files were hashed in segments have it set to 0, which means the same as hashing in one piece
+    public boolean isSegmentHashed() { return hashSegmentSize > 0; }
+
+    //Older backups were always hashed with BalticHash
+    @Override
+    public HashAlgorithm hashAlgorithm() { return hashAlgorithm != null ? hashAlgorithm : HashAlgorithm.BALTIC; }
+
     public static Path resolveStatusFilename(Path directory) { return directory.resolve(DATA_FILENAME); }
 
     public static CompressionStatus readFromFile(Path directory) throws IOException, ClassNotFoundException {
@@ -56,6 +84,12 @@ public record CompressionStatus(long treeHash, Map<String, Exception> brokenFile
         }
     }
 
+    public static CompressionStatus deserialize(byte[] data) throws IOException, ClassNotFoundException {
+        try(ObjectInputStream obj = new ObjectInputStream(new ByteArrayInputStream(data))) {
+            return (CompressionStatus) obj.readObject();
+        }
+    }
+
     public byte[] serialize() throws IOException {
         try (ByteArrayOutputStream bo = new ByteArrayOutputStream();
              ObjectOutputStream o = new ObjectOutputStream(bo)) {
@@ -76,6 +110,11 @@ public record CompressionStatus(long treeHash, Map<String, Exception> brokenFile
                 .append(", Finish timestamp: ").append(finishTimestamp)
                 .append(", Mod Version: ").append(version);
 
+        if(isIncremental()) builder.append(", Parent: ").append(parentBackup);
+        if(isSegmentHashed()) builder.append(", Hash segment size: ").append(hashSegmentSize);
+        builder.append(", Hash algorithm: ").append(hashAlgorithm());
+        if(digest != null) builder.append(", Files: ").append(digest.entries().size());
+
         builder.append(", Broken files: ");
         if(brokenFiles.isEmpty()) builder.append("[]");
         else {
@@ -119,9 +119,17 @@ public class Utilities {
 
 		if(path.getFileName().equals(Path.of(CompressionStatus.DATA_FILENAME))) return true;
 
+		if(path.getFileName().equals(Path.of(BackupManifest.DATA_FILENAME))) return true;
+
 		return config.get().fileBlacklist.stream().anyMatch(path::startsWith);
 	}
 
+	//Number of threads to use for compression and decompression, as limited by compressionCoreCountLimit
+	public static int getCoreCount() {
+		int available = Runtime.getRuntime().availableProcessors();
+		return config.get().compressionCoreCountLimit <= 0 ? available : Math.min(config.get().compressionCoreCountLimit, available);
+	}
+
 	public static DateTimeFormatter getDateTimeFormatter() {
 		return DateTimeFormatter.ofPattern(config.get().dateTimeFormat);
 	}
@@ -8,13 +8,19 @@ import net.szum123321.textile_backup.TextileLogger;
 import net.szum123321.textile_backup.config.ConfigHelper;
 import net.szum123321.textile_backup.core.ActionInitiator;
 import net.szum123321.textile_backup.core.Cleanup;
+import net.szum123321.textile_backup.core.RestoreableFile;
 import net.szum123321.textile_backup.core.Utilities;
 import net.szum123321.textile_backup.core.WorldSavingState;
+import net.szum123321.textile_backup.core.create.compressors.ChunkStoreCompressor;
 import net.szum123321.textile_backup.core.create.compressors.ParallelZipCompressor;
 import net.szum123321.textile_backup.core.create.compressors.ZipCompressor;
 import net.szum123321.textile_backup.core.create.compressors.tar.AbstractTarArchiver;
+import net.szum123321.textile_backup.core.create.compressors.tar.Lz4Compressor;
 import net.szum123321.textile_backup.core.create.compressors.tar.ParallelBZip2Compressor;
 import net.szum123321.textile_backup.core.create.compressors.tar.ParallelGzipCompressor;
+import net.szum123321.textile_backup.core.create.compressors.tar.XzCompressor;
+import net.szum123321.textile_backup.core.create.compressors.tar.ZstdCompressor;
+import net.szum123321.textile_backup.core.verify.BackupVerifier;
 import org.jetbrains.annotations.NotNull;
 
 import java.io.IOException;
@@ -73,6 +79,7 @@ public record ExecutableBackup(@NotNull MinecraftServer server,
         log.trace("Outfile is: {}", outFile);
 
         AtomicReference<Optional<WorldSavingState>> state = new AtomicReference<>(Optional.empty());
+        Optional<WorldSnapshot> snapshot = Optional.empty();
 
         try {
             Globals.INSTANCE.disableWatchdog = true;
@@ -90,28 +97,33 @@ public record ExecutableBackup(@NotNull MinecraftServer server,
                 state.set(Optional.of(WorldSavingState.disable(server)));
             });
 
-            Globals.INSTANCE.updateTMPFSFlag(server);
-
             log.sendInfoAL(this, "Starting backup");
 
             Path world = Utilities.getWorldFolder(server);
 
             log.trace("Minecraft world is: {}", world);
 
+            //When restoring, the server is already dead, so there's no point in making a snapshot
+            if(config.get().snapshotBeforeCompression && initiator != ActionInitiator.Restore) {
+                snapshot = WorldSnapshot.create(world, server.getRunDirectory().toPath());
+
+                if(snapshot.isPresent()) {
+                    world = snapshot.get().getRoot();
+                    state.getAndSet(Optional.empty()).ifPresent(s -> s.enable(server));
+                    log.trace("Compressing snapshot: {}", world);
+                }
+            }
+
             Files.createDirectories(outFile.getParent());
             Files.createFile(outFile);
 
-            int coreCount;
-
-            if (config.get().compressionCoreCountLimit <= 0) coreCount = Runtime.getRuntime().availableProcessors();
-            else
-                coreCount = Math.min(config.get().compressionCoreCountLimit, Runtime.getRuntime().availableProcessors());
+            int coreCount = Utilities.getCoreCount();
 
             log.trace("Running compression on {} threads. Available cores: {}", coreCount, Runtime.getRuntime().availableProcessors());
 
             switch (config.get().format) {
                 case ZIP -> {
-                    if (coreCount > 1 && !Globals.INSTANCE.disableTMPFS()) {
+                    if (coreCount > 1) {
                         log.trace("Using PARALLEL Zip Compressor. Threads: {}", coreCount);
                         ParallelZipCompressor.getInstance().createArchive(world, outFile, this, coreCount);
                     } else {
@@ -122,10 +134,18 @@ public record ExecutableBackup(@NotNull MinecraftServer server,
                 case BZIP2 -> ParallelBZip2Compressor.getInstance().createArchive(world, outFile, this, coreCount);
                 case GZIP -> ParallelGzipCompressor.getInstance().createArchive(world, outFile, this, coreCount);
                 case TAR -> new AbstractTarArchiver().createArchive(world, outFile, this, coreCount);
+                case ZSTD -> ZstdCompressor.getInstance().createArchive(world, outFile, this, coreCount);
+                case LZ4 -> Lz4Compressor.getInstance().createArchive(world, outFile, this, coreCount);
+                case LZMA -> XzCompressor.getInstance().createArchive(world, outFile, this, coreCount);
+                case DEDUP -> ChunkStoreCompressor.getInstance().createArchive(world, outFile, this, coreCount);
             }
 
             if(cleanup) new Cleanup(commandSource, Utilities.getLevelName(server)).call();
 
+            //Server is going down, so there's no one to verify it
+            if(config.get().verifyNewBackups && initiator != ActionInitiator.Shutdown && initiator != ActionInitiator.Restore)
+                RestoreableFile.build(outFile).ifPresent(f -> BackupVerifier.submit(f, commandSource));
+
             if (config.get().broadcastBackupDone) Utilities.notifyPlayers(server, "Done!");
             else log.sendInfoAL(this, "Done!");
 
@@ -149,6 +169,7 @@ public record ExecutableBackup(@NotNull MinecraftServer server,
             if (state.get().isPresent()) {
                 state.get().get().enable(server);
             }
+            snapshot.ifPresent(WorldSnapshot::close);
             Globals.INSTANCE.disableWatchdog = false;
         }
 
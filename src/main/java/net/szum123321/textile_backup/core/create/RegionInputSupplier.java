@@ -0,0 +1,122 @@
+/*
+ * A simple backup mod for Fabric
+ * Copyright (C)  2022   Szum123321
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package net.szum123321.textile_backup.core.create;
+
+import net.szum123321.textile_backup.TextileBackup;
+import net.szum123321.textile_backup.TextileLogger;
+import net.szum123321.textile_backup.core.digest.FileTreeHashBuilder;
+import net.szum123321.textile_backup.core.digest.HashingInputStream;
+import net.szum123321.textile_backup.core.region.RegionDelta;
+import net.szum123321.textile_backup.core.region.RegionHashingInputStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Supplies region (.mca) files. Hashes of all the chunks get collected into <code>regionHashes</code>, so that they can be saved in the manifest.
+ * <br>
+ * If hashes of the previous version of the file are known, instead of the file itself a {@link RegionDelta} is supplied.
+ * Such entry is virtual, as its contents and size have to be computed first.
+ */
+public class RegionInputSupplier implements InputSupplier {
+    private final static TextileLogger log = new TextileLogger(TextileBackup.MOD_NAME);
+
+    private final Path path;
+    private final String name;
+    private final long[] baseHashes;
+    private final FileTreeHashBuilder hashTreeBuilder;
+    private final BrokenFileHandler brokenFileHandler;
+    private final Map<Path, long[]> regionHashes;
+
+    private byte[] delta;
+
+    public RegionInputSupplier(Path path, String name, long[] baseHashes, FileTreeHashBuilder hashTreeBuilder,
+                               BrokenFileHandler brokenFileHandler, Map<Path, long[]> regionHashes) {
+        this.path = path;
+        this.name = name;
+        this.baseHashes = baseHashes;
+        this.hashTreeBuilder = hashTreeBuilder;
+        this.brokenFileHandler = brokenFileHandler;
+        this.regionHashes = regionHashes;
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        if(isDelta()) return new ByteArrayInputStream(getDelta());
+
+        return openFile();
+    }
+
+    private InputStream openFile() throws IOException {
+        try {
+            return new RegionHashingInputStream(
+                    new HashingInputStream(Files.newInputStream(path), path, hashTreeBuilder, brokenFileHandler),
+                    hashTreeBuilder.getAlgorithm(),
+                    hashes -> { if(hashes != null) regionHashes.put(path, hashes); }
+            );
+        } catch (IOException e) {
+            hashTreeBuilder.update(path, 0, 0);
+            brokenFileHandler.handle(path, e);
+            throw e;
+        }
+    }
+
+    //Some compressors need to know the size of the entry up front, or request the input stream more than once
+    private synchronized byte[] getDelta() throws IOException {
+        if(delta == null) {
+            byte[] file;
+            try (InputStream in = openFile()) {
+                file = in.readAllBytes();
+            }
+
+            delta = RegionDelta.create(file, regionHashes.get(path), baseHashes);
+        }
+
+        return delta;
+    }
+
+    public boolean isDelta() { return baseHashes != null; }
+
+    @Override
+    public Optional<Path> getPath() { return isDelta() ? Optional.empty() : Optional.of(path); }
+
+    @Override
+    public long size() throws IOException { return isDelta() ? getDelta().length : Files.size(path); }
+
+    @Override
+    public String getName() {
+        return isDelta() ? name + RegionDelta.DELTA_EXTENSION : name;
+    }
+
+    @Override
+    public InputStream get() {
+        try {
+            return getInputStream();
+        } catch (IOException e) {
+            log.error("An exception occurred while trying to create an input stream from file: {}!", path.toString(), e);
+        }
+
+        return null;
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * A simple backup mod for Fabric
+ * Copyright (C)  2022   Szum123321
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package net.szum123321.textile_backup.core.create;
+
+import net.szum123321.textile_backup.TextileBackup;
+import net.szum123321.textile_backup.TextileLogger;
+import net.szum123321.textile_backup.core.Utilities;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+/**
+ * Point-in-time copy of the world, so that world saving can be enabled again before the compression starts.
+ * <br>
+ * Most of the files (region files, data/*.dat) are modified in place, so these have to be copied. Level and player data are written to
+ * a temporary file which then replaces the old one, thus it's safe to just hard link them.
+ * Java has no way of making reflink copies (FICLONE), but on file systems supporting them (btrfs, xfs, APFS) the copy is done
+ * by the OS, and it's cheap anyway. Modification times are preserved, as incremental backups depend on them.
+ */
+public class WorldSnapshot implements AutoCloseable {
+    private final static TextileLogger log = new TextileLogger(TextileBackup.MOD_NAME);
+
+    //Leave some space for the server
+    private final static long SPACE_MARGIN = 256L << 20;
+
+    private final Path root;
+
+    private WorldSnapshot(Path root) {
+        this.root = root;
+    }
+
+    public Path getRoot() { return root; }
+
+    /**
+     * @param world world directory
+     * @param tmpDirectory directory in which the snapshot will be created, preferably on the same file system as the world
+     * @return the snapshot, or empty if it couldn't be made, in which case the world has to be compressed directly
+     */
+    public static Optional<WorldSnapshot> create(Path world, Path tmpDirectory) {
+        Instant start = Instant.now();
+        Path root = null;
+
+        try {
+            List<Path> files;
+            try (Stream<Path> stream = Files.walk(world)) {
+                files = stream.filter(Files::isRegularFile)
+                        .filter(f -> !Utilities.isBlacklisted(world.relativize(f)))
+                        .toList();
+            }
+
+            long size = 0;
+            for(Path file: files) if(!isLinkable(file)) size += Files.size(file);
+
+            long available = Files.getFileStore(tmpDirectory).getUsableSpace();
+            if(size + SPACE_MARGIN > available) {
+                log.warn("Not enough space to make a snapshot of the world. Required: {} MiB, available: {} MiB",
+                        (size + SPACE_MARGIN) >> 20, available >> 20);
+                return Optional.empty();
+            }
+
+            root = Files.createTempDirectory(tmpDirectory, "textile_snapshot");
+
+            boolean canLink = true;
+
+            for(Path file: files) {
+                Path target = root.resolve(world.relativize(file).toString());
+                Files.createDirectories(target.getParent());
+
+                if(canLink && isLinkable(file)) {
+                    try {
+                        Files.createLink(target, file);
+                        continue;
+                    } catch (UnsupportedOperationException | IOException e) {
+                        //Most likely different file system, no point in trying again
+                        log.debug("Couldn't create a hard link to {}, falling back to copying", file, e);
+                        canLink = false;
+                    }
+                }
+
+                Files.copy(file, target, StandardCopyOption.COPY_ATTRIBUTES);
+            }
+
+            log.info("Snapshot took: {} seconds.", Utilities.formatDuration(Duration.between(start, Instant.now())));
+
+            return Optional.of(new WorldSnapshot(root));
+        } catch (IOException e) {
+            log.error("An exception occurred while making a snapshot of the world!", e);
+
+            if(root != null) {
+                try {
+                    Utilities.deleteDirectory(root);
+                } catch (IOException ex) {
+                    log.error("Couldn't delete the snapshot: {}", root, ex);
+                }
+            }
+
+            return Optional.empty();
+        }
+    }
+
+    //Files which Minecraft never modifies in place
+    private static boolean isLinkable(Path file) {
+        String name = file.getFileName().toString();
+        if(name.equals("level.dat") || name.equals("level.dat_old")) return true;
+
+        return file.getParent() != null && file.getParent().getFileName().toString().equals("playerdata");
+    }
+
+    @Override
+    public void close() {
+        try {
+            Utilities.deleteDirectory(root);
+        } catch (IOException e) {
+            log.error("Couldn't delete the snapshot: {}", root, e);
+        }
+    }
+}
@@ -27,14 +27,25 @@ import net.szum123321.textile_backup.core.create.BrokenFileHandler;
 import net.szum123321.textile_backup.core.create.ExecutableBackup;
 import net.szum123321.textile_backup.core.create.FileInputStreamSupplier;
 import net.szum123321.textile_backup.core.create.InputSupplier;
+import net.szum123321.textile_backup.core.create.RegionInputSupplier;
 import net.szum123321.textile_backup.core.digest.FileTreeHashBuilder;
+import net.szum123321.textile_backup.core.digest.HashAlgorithm;
+import net.szum123321.textile_backup.core.digest.HashCache;
+import net.szum123321.textile_backup.core.digest.SegmentedHash;
+import net.szum123321.textile_backup.core.region.RegionDelta;
 
 import java.io.*;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.stream.Stream;
 
@@ -44,10 +55,24 @@ import java.util.stream.Stream;
 public abstract class AbstractCompressor {
     private final static TextileLogger log = new TextileLogger(TextileBackup.MOD_NAME);
 
+    private ExecutableBackup ctx;
+    private BrokenFileHandler brokenFileHandler;
+    private FileTreeHashBuilder fileHashBuilder;
+
     public void createArchive(Path inputFile, Path outputFile, ExecutableBackup ctx, int coreLimit) throws IOException, ExecutionException, InterruptedException {
         Instant start = Instant.now();
 
-        BrokenFileHandler brokenFileHandler = new BrokenFileHandler(); //Basically a hashmap storing files and their respective exceptions
+        this.ctx = ctx;
+        brokenFileHandler = new BrokenFileHandler(); //Basically a hashmap storing files and their respective exceptions
+
+        final int chainLength = ConfigHelper.INSTANCE.get().incrementalBackupChainLength;
+        final HashAlgorithm hashAlgorithm = ConfigHelper.INSTANCE.get().hashAlgorithm;
+        Optional<BackupManifest.ParentBackup> parent = chainLength > 0 ? BackupManifest.findParent(outputFile, chainLength, hashAlgorithm) : Optional.empty();
+
+        parent.ifPresent(p -> log.sendInfoAL(ctx, "Creating incremental backup on top of: {}", p.file().getFileName()));
+
+        BackupManifest manifest = null;
+        HashCache hashCache = openHashCache(outputFile.getParent(), inputFile, hashAlgorithm);
 
         try (OutputStream outStream = Files.newOutputStream(outputFile);
              BufferedOutputStream bufferedOutputStream = new BufferedOutputStream(outStream);
@@ -59,70 +84,207 @@ public abstract class AbstractCompressor {
                     .filter(Files::isRegularFile)
                     .toList();
 
-            FileTreeHashBuilder fileHashBuilder = new FileTreeHashBuilder(fileList.size());
+            if(largestFirst()) fileList = sortLargestFirst(fileList);
+
+            fileHashBuilder = new FileTreeHashBuilder(fileList.size(), SegmentedHash.SEGMENT_SIZE, hashAlgorithm);
+            fileHashBuilder.setCache(hashCache);
+            Map<Path, BasicFileAttributes> attributes = new HashMap<>();
+            Map<Path, long[]> regionHashes = new ConcurrentHashMap<>();
+            int unchanged = 0;
 
             for (Path file : fileList) {
+                String name = inputFile.relativize(file).toString();
                 try {
+                    if(chainLength > 0) {
+                        BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+                        attributes.put(file, attrs);
+
+                        //The file hasn't changed since the last backup, so we only need its hash
+                        var previous = parent.map(p -> p.manifest().files().get(name));
+                        if(previous.isPresent() && isUnchanged(previous.get(), attrs)) {
+                            fileHashBuilder.update(file, previous.get().hash(), previous.get().size());
+                            if(previous.get().regionChunks() != null) regionHashes.put(file, previous.get().regionChunks());
+                            unchanged++;
+                            continue;
+                        }
+
+                        //Only the chunks of a region file which have changed need to be stored
+                        if(RegionDelta.isRegionFile(name)) {
+                            addEntry(
+                                    new RegionInputSupplier(
+                                            file,
+                                            name,
+                                            previous.map(BackupManifest.FileEntry::regionChunks).orElse(null),
+                                            fileHashBuilder,
+                                            brokenFileHandler,
+                                            regionHashes),
+                                    arc
+                            );
+                            continue;
+                        }
+                    }
+
                     addEntry(
                             new FileInputStreamSupplier(
                                     file,
-                                    inputFile.relativize(file).toString(),
+                                    name,
                                     fileHashBuilder,
                                     brokenFileHandler),
                             arc
                     );
+                } catch (ArchiveAbortedException e) {
+                    throw e;
                 } catch (IOException e) {
-                    brokenFileHandler.handle(file, e);
-                    fileHashBuilder.update(file, 0, 0);
-                    //In Permissive mode we allow partial backups
-                    if (ConfigHelper.INSTANCE.get().integrityVerificationMode.isStrict()) throw e;
-                    else log.sendErrorAL(ctx, "An exception occurred while trying to compress: {}",
-                            inputFile.relativize(file).toString(), e
-                    );
+                    handleBrokenFile(file, name, e);
                 }
             }
 
+            //Entries which are still being compressed may fail as well, and they have to be in the status
+            awaitEntries(arc);
+
+            if(parent.isPresent()) log.sendInfoAL(ctx, "Skipped {} unchanged files out of {}.", unchanged, fileList.size());
+
             arc.flush();
 
             //wait for all the InputStreams to close/fail with InputSupplier
 
+            long treeHash = fileHashBuilder.getValue(true);
+
+            if(chainLength > 0) {
+                manifest = buildManifest(inputFile, parent, attributes, regionHashes, fileHashBuilder, brokenFileHandler);
+                addEntry(new StatusFileInputSupplier(manifest.serialize(), BackupManifest.DATA_FILENAME), arc);
+            }
+
             Instant now = Instant.now();
 
-            long treeHash = fileHashBuilder.getValue(true);
             CompressionStatus status = new CompressionStatus (
                     treeHash,
                     brokenFileHandler.get(),
                     ctx.startDate(), start.toEpochMilli(), now.toEpochMilli(),
-                    Globals.INSTANCE.getCombinedVersionString()
+                    Globals.INSTANCE.getCombinedVersionString(),
+                    parent.map(p -> p.file().getFileName().toString()).orElse(null),
+                    fileHashBuilder.getSegmentSize(),
+                    fileHashBuilder.getDigest(inputFile),
+                    fileHashBuilder.getAlgorithm()
             );
 
-            addEntry(new StatusFileInputSupplier(status.serialize()), arc);
+            addEntry(new StatusFileInputSupplier(status.serialize(), CompressionStatus.DATA_FILENAME), arc);
 
             finish(arc);
         } finally {
             close();
+            if(hashCache != null) hashCache.close();
         }
 
+        //Sidecar is only written once the archive is complete, otherwise the next backup could be built on top of a broken one
+        if(manifest != null) manifest.writeSidecar(outputFile);
+
         log.sendInfoAL(ctx, "Compression took: {} seconds.", Utilities.formatDuration(Duration.between(start, Instant.now())));
     }
 
+    private static HashCache openHashCache(Path backupRoot, Path inputFile, HashAlgorithm algorithm) {
+        if(!ConfigHelper.INSTANCE.get().useHashCache) return null;
+
+        try {
+            return HashCache.open(backupRoot, inputFile, SegmentedHash.SEGMENT_SIZE, algorithm);
+        } catch (IOException e) {
+            //It's only an optimisation, we can do without it
+            log.error("An exception occurred while trying to open the hash cache!", e);
+            return null;
+        }
+    }
+
+    /**
+     * Parallel compressors work best when the largest files get started first, so that no thread is left working on
+     * a huge file while all the others are idle. Ties are broken by path, thus the order of the archive is still deterministic
+     */
+    private static List<Path> sortLargestFirst(List<Path> files) {
+        Map<Path, Long> sizes = new HashMap<>();
+
+        for(Path file: files) {
+            try {
+                sizes.put(file, Files.size(file));
+            } catch (IOException e) {
+                //It will be handled once the file gets compressed
+                sizes.put(file, 0L);
+            }
+        }
+
+        return files.stream()
+                .sorted(Comparator.<Path>comparingLong(sizes::get).reversed().thenComparing(Comparator.naturalOrder()))
+                .toList();
+    }
+
+    private static boolean isUnchanged(BackupManifest.FileEntry entry, BasicFileAttributes attrs) {
+        return entry.size() == attrs.size() && entry.lastModified() == attrs.lastModifiedTime().toMillis();
+    }
+
+    private static BackupManifest buildManifest(Path inputFile,
+                                                Optional<BackupManifest.ParentBackup> parent,
+                                                Map<Path, BasicFileAttributes> attributes,
+                                                Map<Path, long[]> regionHashes,
+                                                FileTreeHashBuilder fileHashBuilder,
+                                                BrokenFileHandler brokenFileHandler) {
+        Map<String, BackupManifest.FileEntry> files = new HashMap<>();
+
+        attributes.forEach((file, attrs) -> {
+            //Broken files have to be archived again next time
+            if(brokenFileHandler.get().containsKey(file.toString())) return;
+
+            fileHashBuilder.getFileHash(file).ifPresent(hash -> files.put(
+                    inputFile.relativize(file).toString(),
+                    new BackupManifest.FileEntry(attrs.size(), attrs.lastModifiedTime().toMillis(), hash, regionHashes.get(file))
+            ));
+        });
+
+        return new BackupManifest(
+                parent.map(p -> p.file().getFileName().toString()).orElse(null),
+                parent.map(p -> p.manifest().chainLength() + 1).orElse(0),
+                files,
+                fileHashBuilder.getSegmentSize(),
+                fileHashBuilder.getAlgorithm()
+        );
+    }
+
+    /**
+     * Marks the file as broken. In Strict mode the backup fails, while in Permissive mode it carries on without the file.
+     * Compressors which write entries out after {@link #addEntry(InputSupplier, OutputStream)} has returned have to call it themselves,
+     * for the file whose entry has actually failed
+     */
+    protected void handleBrokenFile(Path file, String name, IOException e) throws IOException {
+        brokenFileHandler.handle(file, e);
+        fileHashBuilder.update(file, 0, 0);
+        //In Permissive mode we allow partial backups
+        if (ConfigHelper.INSTANCE.get().integrityVerificationMode.isStrict())
+            throw new ArchiveAbortedException("An exception occurred while trying to compress: " + name, e);
+        else log.sendErrorAL(ctx, "An exception occurred while trying to compress: {}",
+                name, e
+        );
+    }
+
+    //Whether files should be added starting from the largest one, see sortLargestFirst
+    protected boolean largestFirst() { return false; }
+
     protected abstract OutputStream createArchiveOutputStream(OutputStream stream, ExecutableBackup ctx, int coreLimit) throws IOException;
     protected abstract void addEntry(InputSupplier inputSupplier, OutputStream arc) throws IOException;
 
+    //Waits until all the entries added so far have either been written or failed
+    protected void awaitEntries(OutputStream arc) throws IOException { }
+
     protected void finish(OutputStream arc) throws InterruptedException, ExecutionException, IOException {
-        //This function is only needed for the ParallelZipCompressor to write out ParallelScatterZipCreator
+        //Only needed by compressors which have something left to write out once all the entries are in
     }
 
     protected void close() {
         //Same as above, just for ParallelGzipCompressor to shut down ExecutorService
     }
 
-    private record StatusFileInputSupplier(byte[] data) implements InputSupplier {
+    private record StatusFileInputSupplier(byte[] data, String name) implements InputSupplier {
         public InputStream getInputStream() { return new ByteArrayInputStream(data); }
 
         public Optional<Path> getPath() { return Optional.empty(); }
 
-        public String getName() { return CompressionStatus.DATA_FILENAME; }
+        public String getName() { return name; }
 
         public long size() { return data.length; }
 
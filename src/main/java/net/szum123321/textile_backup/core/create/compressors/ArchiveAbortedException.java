@@ -16,15 +16,16 @@
  * along with this program.  If not, see <https://www.gnu.org/licenses/>.
  */
 
-package net.szum123321.textile_backup.core;
+package net.szum123321.textile_backup.core.create.compressors;
 
 import java.io.IOException;
 
 /**
- * Wrapper for specific IOException. Temporary way to get more info about issue #51
+ * Thrown when the archive can't be carried on with, e.g. because a part of an entry has already been written out.
+ * Unlike other exceptions it isn't put down to a single file, so the backup fails in Permissive mode as well
  */
-public class NoSpaceLeftOnDeviceException extends IOException {
-    public NoSpaceLeftOnDeviceException(Throwable cause) {
-        super("The underlying filesystem has ran out of available space.\nSee: https://github.com/Szum123321/textile_backup/wiki/ZIP-Problems", cause);
-    }
+public class ArchiveAbortedException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    public ArchiveAbortedException(String message, Throwable cause) { super(message, cause); }
 }
@@ -0,0 +1,122 @@
+/*
+ * A simple backup mod for Fabric
+ * Copyright (C)  2022   Szum123321
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package net.szum123321.textile_backup.core.create.compressors;
+
+import net.szum123321.textile_backup.config.ConfigHelper;
+import net.szum123321.textile_backup.core.create.ExecutableBackup;
+import net.szum123321.textile_backup.core.create.InputSupplier;
+import net.szum123321.textile_backup.core.dedup.ChunkIndex;
+import net.szum123321.textile_backup.core.dedup.ChunkStore;
+import net.szum123321.textile_backup.core.dedup.ContentDefinedChunker;
+
+import java.io.*;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Instead of an archive, creates an index of chunks stored in the {@link ChunkStore} shared by all backups of the world.
+ * Only the chunks which aren't in the store already get compressed and written, which happens on a thread pool.
+ */
+public class ChunkStoreCompressor extends AbstractCompressor {
+    private final static ConfigHelper config = ConfigHelper.INSTANCE;
+
+    private final ContentDefinedChunker chunker = new ContentDefinedChunker();
+    private final List<ChunkIndex.Entry> entries = new ArrayList<>();
+    private final AtomicReference<IOException> failure = new AtomicReference<>();
+    private ChunkStore store;
+    private ExecutorService executorService;
+    private Semaphore inFlight;
+    private int maxInFlight;
+
+    public static ChunkStoreCompressor getInstance() {
+        return new ChunkStoreCompressor();
+    }
+
+    @Override
+    public void createArchive(Path inputFile, Path outputFile, ExecutableBackup ctx, int coreLimit) throws IOException, ExecutionException, InterruptedException {
+        store = new ChunkStore(outputFile.getParent());
+        super.createArchive(inputFile, outputFile, ctx, coreLimit);
+    }
+
+    @Override
+    protected OutputStream createArchiveOutputStream(OutputStream stream, ExecutableBackup ctx, int coreLimit) {
+        executorService = Executors.newFixedThreadPool(coreLimit);
+        //Bounds the memory used by chunks waiting to be compressed
+        maxInFlight = coreLimit * 2;
+        inFlight = new Semaphore(maxInFlight);
+        return stream;
+    }
+
+    @Override
+    protected void addEntry(InputSupplier input, OutputStream arc) throws IOException {
+        ByteArrayOutputStream hashes = new ByteArrayOutputStream();
+        long size;
+
+        try (InputStream in = input.getInputStream()) {
+            size = chunker.split(in, (data, len) -> {
+                byte[] hash = ChunkStore.hash(data, len);
+                hashes.write(hash);
+
+                if(store.contains(hash, 0)) return;
+
+                byte[] copy = Arrays.copyOf(data, len);
+                acquire(1);
+
+                executorService.execute(() -> {
+                    try {
+                        store.write(hash, copy, len, config.get().compression);
+                    } catch (IOException e) {
+                        failure.compareAndSet(null, e);
+                    } finally {
+                        inFlight.release();
+                    }
+                });
+            });
+        }
+
+        entries.add(new ChunkIndex.Entry(input.getName(), size, hashes.toByteArray()));
+    }
+
+    @Override
+    protected void finish(OutputStream arc) throws IOException {
+        //Once we get all the permits, all the chunks are stored
+        acquire(maxInFlight);
+
+        new ChunkIndex(entries).write(arc);
+    }
+
+    private void acquire(int permits) throws IOException {
+        try {
+            inFlight.acquire(permits);
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Interrupted while waiting for chunks to be stored");
+        }
+
+        if(failure.get() != null) throw new IOException("An exception occurred while storing a chunk!", failure.get());
+    }
+
+    @Override
+    protected void close() {
+        if(executorService != null) executorService.shutdownNow();
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * A simple backup mod for Fabric
+ * Copyright (C)  2022   Szum123321
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package net.szum123321.textile_backup.core.create.compressors;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Base for formats which consist of independently compressed blocks.
+ * <br>
+ * Input is cut into blocks of a fixed size, which are compressed on a thread pool. Compressed blocks are written out
+ * in the original order. At most <code>maxPending</code> blocks, <code>2 * threads</code> by default, are kept in memory at once.
+ */
+public abstract class ParallelBlockOutputStream extends OutputStream {
+    protected final OutputStream out;
+    private final ExecutorService executorService;
+    private final Queue<Future<byte[]>> pending = new ArrayDeque<>();
+    private final int maxPending;
+
+    private byte[] buffer;
+    private int position = 0;
+    private boolean headerWritten = false, closed = false;
+
+    protected ParallelBlockOutputStream(OutputStream out, int blockSize, int threads) {
+        this(out, blockSize, threads, threads * 2);
+    }
+
+    protected ParallelBlockOutputStream(OutputStream out, int blockSize, int threads, int maxPending) {
+        this.out = out;
+        this.buffer = new byte[blockSize];
+        this.maxPending = Math.max(1, maxPending);
+        this.executorService = Executors.newFixedThreadPool(threads);
+    }
+
+    /**
+     * Compresses a single block. Called concurrently from multiple threads
+     * @return the block, as it should appear in the output
+     */
+    protected abstract byte[] compressBlock(byte[] data, int len) throws IOException;
+
+    protected void writeHeader() throws IOException { }
+
+    protected void writeTrailer() throws IOException { }
+
+    //Called in the order the blocks appear in the output
+    protected void blockWritten(byte[] block) throws IOException { }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{ (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte @NotNull [] b, int off, int len) throws IOException {
+        if(closed) throw new IOException("Stream closed");
+
+        while(len > 0) {
+            int n = Math.min(len, buffer.length - position);
+            System.arraycopy(b, off, buffer, position, n);
+            position += n;
+            off += n;
+            len -= n;
+
+            if(position == buffer.length) submit();
+        }
+    }
+
+    private void submit() throws IOException {
+        if(!headerWritten) {
+            writeHeader();
+            headerWritten = true;
+        }
+
+        if(position == 0) return;
+
+        final byte[] block = buffer;
+        final int len = position;
+
+        pending.add(executorService.submit(() -> compressBlock(block, len)));
+
+        buffer = new byte[block.length];
+        position = 0;
+
+        while(pending.size() >= maxPending) writeOut();
+    }
+
+    private void writeOut() throws IOException {
+        try {
+            byte[] block = pending.remove().get();
+            out.write(block);
+            blockWritten(block);
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Interrupted while waiting for a block to be compressed");
+        } catch (ExecutionException e) {
+            if(e.getCause() instanceof IOException io) throw io;
+            throw new IOException("An exception occurred while compressing a block!", e.getCause());
+        }
+    }
+
+    /**
+     * Writes out all the data, but doesn't close the underlying stream
+     */
+    public void finish() throws IOException {
+        if(closed) return;
+
+        try {
+            submit();
+            while(!pending.isEmpty()) writeOut();
+            writeTrailer();
+        } finally {
+            closed = true;
+            executorService.shutdownNow();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            finish();
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -18,43 +18,47 @@
 
 package net.szum123321.textile_backup.core.create.compressors;
 
-import net.szum123321.textile_backup.TextileBackup;
-import net.szum123321.textile_backup.TextileLogger;
-import net.szum123321.textile_backup.core.NoSpaceLeftOnDeviceException;
+import net.szum123321.textile_backup.config.ConfigHelper;
+import net.szum123321.textile_backup.core.Utilities;
 import net.szum123321.textile_backup.core.create.ExecutableBackup;
 import net.szum123321.textile_backup.core.create.InputSupplier;
-import org.apache.commons.compress.archivers.zip.*;
 
 import java.io.*;
-import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.Objects;
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Queue;
 import java.util.concurrent.*;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
 import java.util.zip.ZipEntry;
 
-/*
-	This part of code is based on:
-	https://stackoverflow.com/questions/54624695/how-to-implement-parallel-zip-creation-with-scatterzipoutputstream-with-zip64-su
-	answer by:
-	https://stackoverflow.com/users/2987755/dkb
-*/
-public class ParallelZipCompressor extends ZipCompressor {
-	private final static TextileLogger log = new TextileLogger(TextileBackup.MOD_NAME);
-
-	//These fields are used to discriminate against the issue #51
-	private final static SimpleStackTraceElement[] STACKTRACE_NO_SPACE_ON_LEFT_ON_DEVICE = {
-			new SimpleStackTraceElement("sun.nio.ch.FileDispatcherImpl", "write0", true),
-			new SimpleStackTraceElement("sun.nio.ch.FileDispatcherImpl", "write", false),
-			new SimpleStackTraceElement("sun.nio.ch.IOUtil", "writeFromNativeBuffer", false),
-			new SimpleStackTraceElement("sun.nio.ch.IOUtil", "write", false),
-			new SimpleStackTraceElement("sun.nio.ch.FileChannelImpl", "write", false),
-			new SimpleStackTraceElement("java.nio.channels.Channels", "writeFullyImpl", false),
-			new SimpleStackTraceElement("java.nio.channels.Channels", "writeFully", false),
-			new SimpleStackTraceElement("java.nio.channels.Channels$1", "write", false),
-			new SimpleStackTraceElement("org.apache.commons.compress.parallel.FileBasedScatterGatherBackingStore", "writeOut", false)
-	};
-
-	private ParallelScatterZipCreator scatterZipCreator;
+/**
+ * Compresses multiple entries at once.
+ * <br>
+ * Every entry is deflated by a worker thread into a memory buffer, together with its CRC and sizes. The buffers are then written
+ * to the archive in the order in which they were added, so nothing ever gets written to a temporary file.
+ * Memory used by the buffers is limited by <code>compressionMemoryBudget</code>.
+ * <br>
+ * Large files would leave a single thread working for a long time, so these are cut into chunks, which are deflated in parallel
+ * and stitched into a single deflate stream, just like pigz does. Every chunk is primed with the last 32 KiB of the previous one
+ * as a dictionary, and ends with a sync flush, so that the next one starts at a byte boundary. CRCs of the chunks are combined.
+ */
+public class ParallelZipCompressor extends AbstractCompressor {
+	private final static ConfigHelper config = ConfigHelper.INSTANCE;
+
+	private final static int CHUNK_SIZE = 1 << 20;
+	private final static int DICTIONARY_SIZE = 32 * 1024;
+	//Files larger than that are compressed in chunks
+	private final static long LARGE_ENTRY_SIZE = 16L << 20;
+	//Final, empty block of fixed huffman codes
+	private final static byte[] DEFLATE_END = { 0x03, 0x00 };
+
+	private final Queue<PendingEntry> pending = new ArrayDeque<>();
+	private ExecutorService executorService;
+	private int threads;
+	private long budget, used = 0;
 
 	public static ParallelZipCompressor getInstance() {
 		return new ParallelZipCompressor();
@@ -62,66 +66,281 @@ public class ParallelZipCompressor extends ZipCompressor {
 
 	@Override
 	protected OutputStream createArchiveOutputStream(OutputStream stream, ExecutableBackup ctx, int coreLimit) {
-		scatterZipCreator = new ParallelScatterZipCreator(Executors.newFixedThreadPool(coreLimit));
-		return super.createArchiveOutputStream(stream, ctx, coreLimit);
+		threads = coreLimit;
+		executorService = Executors.newWorkStealingPool(coreLimit);
+		budget = Math.max(1, config.get().compressionMemoryBudget) * 1024L * 1024L;
+
+		return new StreamingZipOutputStream(stream, "Created on: " + Utilities.getDateTimeFormatter().format(LocalDateTime.now()));
 	}
 
+	@Override
+	protected boolean largestFirst() { return true; }
+
 	@Override
 	protected void addEntry(InputSupplier input, OutputStream arc) throws IOException {
-		ZipArchiveEntry entry;
-		if(input.getPath().isEmpty()) {
-			entry = new ZipArchiveEntry(input.getName());
-			entry.setMethod(ZipEntry.STORED);
-			entry.setSize(input.size());
-		} else {
-			Path file = input.getPath().get();
-			entry = (ZipArchiveEntry) ((ZipArchiveOutputStream) arc).createArchiveEntry(file, input.getName());
-			if (ZipCompressor.isDotDat(file.toString())) {
-				entry.setMethod(ZipEntry.STORED);
-				entry.setSize(Files.size(file));
-				entry.setCompressedSize(Files.size(file));
-				entry.setCrc(getCRC(file));
-			} else entry.setMethod(ZipEntry.DEFLATED);
+		StreamingZipOutputStream zip = (StreamingZipOutputStream) arc;
+
+		//Virtual entries and *.dat files, which are already compressed, are stored as they are
+		boolean store = input.getPath().map(Path::toString).map(ZipCompressor::isDotDat).orElse(true);
+
+		//Deflate can make the data a tiny bit larger
+		long estimate = input.size() + input.size() / 1000 + 64;
+
+		if(estimate > budget || input.size() >= LARGE_ENTRY_SIZE) {
+			writeOutAll(zip);
+			compressInChunks(input, store, zip);
+			return;
 		}
 
-		entry.setTime(System.currentTimeMillis());
+		//Once all the pending entries are written out, the whole budget is available
+		while(used + estimate > budget) writeOut(zip);
+		used += estimate;
 
-		scatterZipCreator.addArchiveEntry(entry, input);
+		pending.add(new PendingEntry(input.getPath().orElse(null), input.getName(), System.currentTimeMillis(), estimate,
+				executorService.submit(() -> compress(input, store, (int) estimate))));
 	}
 
-	@Override
-	protected void finish(OutputStream arc) throws InterruptedException, IOException, ExecutionException {
-		/*
-			This is perhaps the most dreadful line of this whole mess
-			This line causes the infamous Out of space error (#20 and #80)
-		*/
-		try {
-			scatterZipCreator.writeTo((ZipArchiveOutputStream) arc);
-		} catch (ExecutionException e) {
-			Throwable cause;
-			if((cause = e.getCause()).getClass().equals(IOException.class)) {
-				//The out of space exception is thrown at sun.nio.ch.FileDispatcherImpl.write0(Native Method)
-				boolean match = (cause.getStackTrace().length >= STACKTRACE_NO_SPACE_ON_LEFT_ON_DEVICE.length);
-				if(match) {
-					for(int i = 0; i < STACKTRACE_NO_SPACE_ON_LEFT_ON_DEVICE.length && match; i++)
-						if(!STACKTRACE_NO_SPACE_ON_LEFT_ON_DEVICE[i].matches(cause.getStackTrace()[i])) match = false;
-
-					//For clarity's sake let's not throw the ExecutionException itself rather only the cause, as the EE is just the wrapper
-					if(match) throw new NoSpaceLeftOnDeviceException(cause);
+	private static Buffer compress(InputSupplier input, boolean store, int estimate) throws IOException {
+		CRC32 crc = new CRC32();
+		byte[] readBuffer = new byte[64 * 1024];
+		byte[] out = new byte[estimate];
+		int outLen = 0;
+		long size = 0;
+
+		Deflater deflater = store ? null : new Deflater(config.get().compression, true);
+
+		try (InputStream in = input.getInputStream()) {
+			int len;
+			while((len = in.read(readBuffer)) != -1) {
+				crc.update(readBuffer, 0, len);
+				size += len;
+
+				if(store) {
+					if(outLen + len > out.length) out = Arrays.copyOf(out, Math.max(outLen + len, out.length * 2));
+					System.arraycopy(readBuffer, 0, out, outLen, len);
+					outLen += len;
+				} else {
+					deflater.setInput(readBuffer, 0, len);
+					while(!deflater.needsInput()) {
+						if(outLen == out.length) out = Arrays.copyOf(out, out.length * 2);
+						outLen += deflater.deflate(out, outLen, out.length - outLen);
+					}
+				}
+			}
+
+			if(!store) {
+				deflater.finish();
+				while(!deflater.finished()) {
+					if(outLen == out.length) out = Arrays.copyOf(out, out.length * 2);
+					outLen += deflater.deflate(out, outLen, out.length - outLen);
+				}
+			}
+		} finally {
+			if(deflater != null) deflater.end();
+		}
+
+		return new Buffer(out, outLen, size, crc.getValue(), store ? ZipEntry.STORED : ZipEntry.DEFLATED);
+	}
+
+	/**
+	 * Once the local header is written, the entry has to be completed, or else every entry after it would end up inside it.
+	 * If reading the file fails midway, the entry is closed with whatever has been read so far and the exception is rethrown,
+	 * so the file gets reported as broken while the archive stays valid. Any other failure aborts the archive.
+	 */
+	private void compressInChunks(InputSupplier input, boolean store, StreamingZipOutputStream zip) throws IOException {
+		//Opened before the header is written, so a file which can't be opened doesn't leave anything behind
+		try (InputStream in = input.getInputStream()) {
+			zip.putEntry(input.getName(), System.currentTimeMillis(), store ? ZipEntry.STORED : ZipEntry.DEFLATED, input.size());
+
+			//Every chunk in flight takes up to two times its size
+			final int maxInFlight = (int) Math.max(1, Math.min(threads * 2L, budget / (2L * CHUNK_SIZE)));
+			final Queue<Future<Chunk>> chunks = new ArrayDeque<>();
+
+			long crc = 0, size = 0;
+			byte[] dictionary = null;
+			IOException readFailure = null;
+
+			try {
+				while(true) {
+					byte[] data;
+					try {
+						data = in.readNBytes(CHUNK_SIZE);
+					} catch (IOException e) {
+						readFailure = e;
+						break;
+					}
+					if(data.length == 0) break;
+
+					final byte[] dict = dictionary;
+					chunks.add(executorService.submit(() -> compressChunk(data, dict, store)));
+
+					if(!store) dictionary = Arrays.copyOfRange(data, Math.max(0, data.length - DICTIONARY_SIZE), data.length);
+
+					while(chunks.size() >= maxInFlight) {
+						Chunk chunk = writeOut(chunks.remove(), zip, input.getName());
+						crc = crc32Combine(crc, chunk.crc(), chunk.size());
+						size += chunk.size();
+					}
+				}
+
+				//Every chunk ends with a sync flush, so the data read so far always makes a complete deflate stream
+				while(!chunks.isEmpty()) {
+					Chunk chunk = writeOut(chunks.remove(), zip, input.getName());
+					crc = crc32Combine(crc, chunk.crc(), chunk.size());
+					size += chunk.size();
 				}
+
+				if(!store) zip.write(DEFLATE_END);
+
+				zip.closeEntry(crc, size);
+			} catch (IOException e) {
+				throw new ArchiveAbortedException("An exception occurred while writing: " + input.getName(), e);
+			} finally {
+				chunks.forEach(f -> f.cancel(true));
 			}
 
-			throw e;
+			if(readFailure != null) throw readFailure;
 		}
 	}
 
-	private record SimpleStackTraceElement (
-			String className,
-			String methodName,
-			boolean isNative
-	) {
-		public boolean matches(StackTraceElement o) {
-			return (isNative == o.isNativeMethod()) && Objects.equals(className, o.getClassName()) && Objects.equals(methodName, o.getMethodName());
+	private static Chunk compressChunk(byte[] data, byte[] dictionary, boolean store) {
+		CRC32 crc = new CRC32();
+		crc.update(data);
+
+		if(store) return new Chunk(data, data.length, data.length, crc.getValue());
+
+		Deflater deflater = new Deflater(config.get().compression, true);
+
+		try {
+			if(dictionary != null) deflater.setDictionary(dictionary);
+			deflater.setInput(data);
+
+			byte[] out = new byte[data.length + data.length / 1000 + 64];
+			int len = 0;
+
+			//Sync flush empties the buffer and aligns the output to a byte, without marking the last block
+			while(true) {
+				len += deflater.deflate(out, len, out.length - len, Deflater.SYNC_FLUSH);
+				if(len < out.length) break;
+				out = Arrays.copyOf(out, out.length * 2);
+			}
+
+			return new Chunk(out, len, data.length, crc.getValue());
+		} finally {
+			deflater.end();
 		}
 	}
+
+	private static Chunk writeOut(Future<Chunk> future, StreamingZipOutputStream zip, String name) throws IOException {
+		try {
+			Chunk chunk = future.get();
+			zip.write(chunk.data(), 0, chunk.length());
+			return chunk;
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException("Interrupted while waiting for a chunk to be compressed");
+		} catch (ExecutionException e) {
+			throw new IOException("An exception occurred while compressing: " + name, e.getCause());
+		}
+	}
+
+	//This is usually called while another entry is being added, so a failed entry has to be reported here, not thrown
+	private void writeOut(StreamingZipOutputStream zip) throws IOException {
+		PendingEntry next = pending.remove();
+		Buffer buffer;
+
+		try {
+			buffer = next.future().get();
+		} catch (InterruptedException e) {
+			throw new ArchiveAbortedException("Interrupted while waiting for an entry to be compressed", e);
+		} catch (ExecutionException e) {
+			Throwable thrown = e.getCause();
+			//Work stealing pool wraps whatever the task has thrown
+			while(thrown instanceof RuntimeException && thrown.getCause() != null) thrown = thrown.getCause();
+			IOException cause = thrown instanceof IOException io ? io : new IOException("An exception occurred while compressing: " + next.name(), thrown);
+
+			//Virtual entries are kept in memory, so there's no file to put the blame on
+			if(next.file() == null) throw new ArchiveAbortedException("An exception occurred while compressing: " + next.name(), cause);
+
+			handleBrokenFile(next.file(), next.name(), cause);
+			return;
+		} finally {
+			used -= next.reserved();
+		}
+
+		try {
+			zip.writeEntry(next.name(), next.time(), buffer.method(), buffer.crc(), buffer.size(), buffer.data(), 0, buffer.length());
+		} catch (IOException e) {
+			throw new ArchiveAbortedException("An exception occurred while writing: " + next.name(), e);
+		}
+	}
+
+	private void writeOutAll(StreamingZipOutputStream zip) throws IOException {
+		while(!pending.isEmpty()) writeOut(zip);
+	}
+
+	@Override
+	protected void awaitEntries(OutputStream arc) throws IOException {
+		writeOutAll((StreamingZipOutputStream) arc);
+	}
+
+	@Override
+	protected void finish(OutputStream arc) throws IOException {
+		writeOutAll((StreamingZipOutputStream) arc);
+	}
+
+	@Override
+	protected void close() {
+		if(executorService != null) executorService.shutdownNow();
+	}
+
+	//Port of crc32_combine from zlib. Returns CRC of two concatenated blocks, given CRCs of both and the length of the second one
+	static long crc32Combine(long crc1, long crc2, long len2) {
+		if(len2 <= 0) return crc1;
+
+		long[] even = new long[32], odd = new long[32];
+
+		//Operator for one zero bit
+		odd[0] = 0xEDB88320L;
+		long row = 1;
+		for(int n = 1; n < 32; n++) {
+			odd[n] = row;
+			row <<= 1;
+		}
+
+		//Two zero bits, then four
+		gf2MatrixSquare(even, odd);
+		gf2MatrixSquare(odd, even);
+
+		do {
+			gf2MatrixSquare(even, odd);
+			if((len2 & 1) != 0) crc1 = gf2MatrixTimes(even, crc1);
+			len2 >>= 1;
+
+			if(len2 == 0) break;
+
+			gf2MatrixSquare(odd, even);
+			if((len2 & 1) != 0) crc1 = gf2MatrixTimes(odd, crc1);
+			len2 >>= 1;
+		} while(len2 != 0);
+
+		return crc1 ^ crc2;
+	}
+
+	private static long gf2MatrixTimes(long[] mat, long vec) {
+		long sum = 0;
+		for(int i = 0; vec != 0; i++, vec >>>= 1)
+			if((vec & 1) != 0) sum ^= mat[i];
+		return sum;
+	}
+
+	private static void gf2MatrixSquare(long[] square, long[] mat) {
+		for(int n = 0; n < 32; n++) square[n] = gf2MatrixTimes(mat, mat[n]);
+	}
+
+	//File is null for virtual entries
+	private record PendingEntry(Path file, String name, long time, long reserved, Future<Buffer> future) { }
+
+	private record Buffer(byte[] data, int length, long size, long crc, int method) { }
+
+	private record Chunk(byte[] data, int length, long size, long crc) { }
 }
@@ -0,0 +1,274 @@
+/*
+ * A simple backup mod for Fabric
+ * Copyright (C)  2022   Szum123321
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package net.szum123321.textile_backup.core.create.compressors;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Minimal zip writer for data which has already been compressed.
+ * <br>
+ * Entries are either written at once, with their sizes and CRC known up front, or streamed, in which case these are written
+ * after the data, in a data descriptor. Zip64 extensions are used when needed. Nothing gets compressed here,
+ * and the underlying stream doesn't have to be seekable.
+ */
+public class StreamingZipOutputStream extends FilterOutputStream {
+    private static final int LOCAL_HEADER = 0x04034b50, DATA_DESCRIPTOR = 0x08074b50, CENTRAL_HEADER = 0x02014b50,
+            END_OF_CENTRAL_DIRECTORY = 0x06054b50, ZIP64_END_OF_CENTRAL_DIRECTORY = 0x06064b50, ZIP64_LOCATOR = 0x07064b50;
+    private static final short ZIP64_EXTRA = 0x0001;
+    private static final short VERSION = 20, VERSION_ZIP64 = 45;
+    private static final short FLAG_DATA_DESCRIPTOR = 1 << 3, FLAG_UTF8 = 1 << 11;
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+
+    private final List<Entry> entries = new ArrayList<>();
+    private final String comment;
+
+    private long written = 0;
+    private Entry current = null;
+    private boolean finished = false;
+
+    public StreamingZipOutputStream(OutputStream out, String comment) {
+        super(out);
+        this.comment = comment;
+    }
+
+    /**
+     * Writes a whole entry at once
+     */
+    public void writeEntry(String name, long time, int method, long crc, long size, byte[] data, int off, int len) throws IOException {
+        Entry entry = new Entry(name, time, method, written, false, size >= ZIP64_MAGIC || len >= ZIP64_MAGIC);
+        entry.crc = crc;
+        entry.size = size;
+        entry.compressedSize = len;
+
+        writeLocalHeader(entry);
+        writeRaw(data, off, len);
+        entries.add(entry);
+    }
+
+    /**
+     * Starts a streamed entry. Compressed data is then written with {@link #write(byte[], int, int)}
+     * @param sizeHint expected uncompressed size, decides whether the entry needs Zip64
+     */
+    public void putEntry(String name, long time, int method, long sizeHint) throws IOException {
+        if(current != null) throw new IOException("Previous entry has not been closed!");
+
+        //Compressed data may end up a bit larger than the input
+        current = new Entry(name, time, method, written, true, sizeHint + sizeHint / 100 >= ZIP64_MAGIC);
+        writeLocalHeader(current);
+    }
+
+    public void closeEntry(long crc, long size) throws IOException {
+        if(current == null) throw new IOException("No entry to close!");
+
+        current.crc = crc;
+        current.size = size;
+        current.compressedSize = written - current.dataOffset;
+
+        if(!current.zip64 && (current.size >= ZIP64_MAGIC || current.compressedSize >= ZIP64_MAGIC))
+            throw new IOException("Entry " + current.name + " requires Zip64, but it wasn't expected!");
+
+        ByteBuffer buffer = buffer(current.zip64 ? 24 : 16);
+        buffer.putInt(DATA_DESCRIPTOR).putInt((int) current.crc);
+        if(current.zip64) buffer.putLong(current.compressedSize).putLong(current.size);
+        else buffer.putInt((int) current.compressedSize).putInt((int) current.size);
+        writeRaw(buffer);
+
+        entries.add(current);
+        current = null;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{ (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte @NotNull [] b, int off, int len) throws IOException {
+        if(current == null) throw new IOException("No entry is open!");
+        writeRaw(b, off, len);
+    }
+
+    private void writeLocalHeader(Entry entry) throws IOException {
+        byte[] name = entry.name.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = buffer(30 + name.length + (entry.zip64 ? 20 : 0));
+
+        buffer.putInt(LOCAL_HEADER)
+                .putShort(entry.zip64 ? VERSION_ZIP64 : VERSION)
+                .putShort((short) (FLAG_UTF8 | (entry.streamed ? FLAG_DATA_DESCRIPTOR : 0)))
+                .putShort((short) entry.method)
+                .putInt(entry.dosTime);
+
+        if(entry.streamed) buffer.putInt(0).putInt(entry.zip64 ? -1 : 0).putInt(entry.zip64 ? -1 : 0);
+        else buffer.putInt((int) entry.crc).putInt(entry.zip64 ? -1 : (int) entry.compressedSize).putInt(entry.zip64 ? -1 : (int) entry.size);
+
+        buffer.putShort((short) name.length).putShort((short) (entry.zip64 ? 20 : 0)).put(name);
+
+        if(entry.zip64) {
+            buffer.putShort(ZIP64_EXTRA).putShort((short) 16);
+            if(entry.streamed) buffer.putLong(0).putLong(0);
+            else buffer.putLong(entry.size).putLong(entry.compressedSize);
+        }
+
+        writeRaw(buffer);
+        entry.dataOffset = written;
+    }
+
+    public void finish() throws IOException {
+        if(finished) return;
+        if(current != null) throw new IOException("Entry " + current.name + " has not been closed!");
+
+        final long centralDirectoryOffset = written;
+
+        for(Entry entry: entries) writeCentralHeader(entry);
+
+        final long centralDirectorySize = written - centralDirectoryOffset;
+        final boolean zip64 = entries.size() >= 0xFFFF || centralDirectoryOffset >= ZIP64_MAGIC || centralDirectorySize >= ZIP64_MAGIC;
+
+        if(zip64) {
+            final long zip64EndOffset = written;
+
+            writeRaw(buffer(56)
+                    .putInt(ZIP64_END_OF_CENTRAL_DIRECTORY)
+                    .putLong(44)
+                    .putShort(VERSION_ZIP64).putShort(VERSION_ZIP64)
+                    .putInt(0).putInt(0)
+                    .putLong(entries.size()).putLong(entries.size())
+                    .putLong(centralDirectorySize).putLong(centralDirectoryOffset));
+
+            writeRaw(buffer(20)
+                    .putInt(ZIP64_LOCATOR)
+                    .putInt(0)
+                    .putLong(zip64EndOffset)
+                    .putInt(1));
+        }
+
+        byte[] commentBytes = comment == null ? new byte[0] : comment.getBytes(StandardCharsets.UTF_8);
+
+        writeRaw(buffer(22 + commentBytes.length)
+                .putInt(END_OF_CENTRAL_DIRECTORY)
+                .putShort((short) 0).putShort((short) 0)
+                .putShort((short) Math.min(entries.size(), 0xFFFF)).putShort((short) Math.min(entries.size(), 0xFFFF))
+                .putInt((int) Math.min(centralDirectorySize, ZIP64_MAGIC))
+                .putInt((int) Math.min(centralDirectoryOffset, ZIP64_MAGIC))
+                .putShort((short) commentBytes.length)
+                .put(commentBytes));
+
+        out.flush();
+        finished = true;
+    }
+
+    private void writeCentralHeader(Entry entry) throws IOException {
+        byte[] name = entry.name.getBytes(StandardCharsets.UTF_8);
+
+        boolean sizeOverflow = entry.size >= ZIP64_MAGIC, compressedOverflow = entry.compressedSize >= ZIP64_MAGIC,
+                offsetOverflow = entry.headerOffset >= ZIP64_MAGIC;
+        int extraLength = (sizeOverflow ? 8 : 0) + (compressedOverflow ? 8 : 0) + (offsetOverflow ? 8 : 0);
+        if(extraLength > 0) extraLength += 4;
+
+        short version = extraLength > 0 || entry.zip64 ? VERSION_ZIP64 : VERSION;
+
+        ByteBuffer buffer = buffer(46 + name.length + extraLength);
+
+        buffer.putInt(CENTRAL_HEADER)
+                .putShort(version).putShort(version)
+                .putShort((short) (FLAG_UTF8 | (entry.streamed ? FLAG_DATA_DESCRIPTOR : 0)))
+                .putShort((short) entry.method)
+                .putInt(entry.dosTime)
+                .putInt((int) entry.crc)
+                .putInt((int) Math.min(entry.compressedSize, ZIP64_MAGIC))
+                .putInt((int) Math.min(entry.size, ZIP64_MAGIC))
+                .putShort((short) name.length)
+                .putShort((short) extraLength)
+                .putShort((short) 0) //comment
+                .putShort((short) 0) //disk
+                .putShort((short) 0) //internal attributes
+                .putInt(0) //external attributes
+                .putInt((int) Math.min(entry.headerOffset, ZIP64_MAGIC))
+                .put(name);
+
+        if(extraLength > 0) {
+            buffer.putShort(ZIP64_EXTRA).putShort((short) (extraLength - 4));
+            if(sizeOverflow) buffer.putLong(entry.size);
+            if(compressedOverflow) buffer.putLong(entry.compressedSize);
+            if(offsetOverflow) buffer.putLong(entry.headerOffset);
+        }
+
+        writeRaw(buffer);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            finish();
+        } finally {
+            out.close();
+        }
+    }
+
+    private static ByteBuffer buffer(int size) {
+        return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private void writeRaw(ByteBuffer buffer) throws IOException {
+        writeRaw(buffer.array(), 0, buffer.position());
+    }
+
+    private void writeRaw(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+        written += len;
+    }
+
+    private static int toDosTime(long time) {
+        LocalDateTime t = LocalDateTime.ofInstant(Instant.ofEpochMilli(time), ZoneId.systemDefault());
+        if(t.getYear() < 1980) return (1 << 21) | (1 << 16);
+
+        return (t.getYear() - 1980) << 25 | t.getMonthValue() << 21 | t.getDayOfMonth() << 16 |
+                t.getHour() << 11 | t.getMinute() << 5 | t.getSecond() >> 1;
+    }
+
+    private static class Entry {
+        final String name;
+        final int method, dosTime;
+        final long headerOffset;
+        final boolean streamed, zip64;
+
+        long crc, size, compressedSize, dataOffset;
+
+        Entry(String name, long time, int method, long headerOffset, boolean streamed, boolean zip64) {
+            this.name = name;
+            this.method = method;
+            this.dosTime = toDosTime(time);
+            this.headerOffset = headerOffset;
+            this.streamed = streamed;
+            this.zip64 = zip64;
+        }
+    }
+}
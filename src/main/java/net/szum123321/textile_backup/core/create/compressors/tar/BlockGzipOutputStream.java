@@ -0,0 +1,150 @@
+/*
+ * A simple backup mod for Fabric
+ * Copyright (C)  2022   Szum123321
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package net.szum123321.textile_backup.core.create.compressors.tar;
+
+import net.szum123321.textile_backup.core.create.compressors.ParallelBlockOutputStream;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes gzip the way BGZF does: every block of input becomes a separate gzip member, whose header holds the size of the whole member
+ * in an extra field. The blocks are followed by an index of their sizes, stored in the extra field of an empty member.
+ * <br>
+ * Any gzip decompressor reads it as a single stream, but as each member can be found without decompressing the previous one,
+ * {@link net.szum123321.textile_backup.core.restore.decompressors.BlockGzipInputStream} inflates them in parallel.
+ * <br>
+ * Member layout: gzip header with FEXTRA set, subfield {@link #BLOCK_SUBFIELD} holding the member size as a 32-bit LE integer,
+ * raw deflate data, CRC32 and uncompressed size. Index members hold {@link #INDEX_SUBFIELD} subfields, each of them a list of
+ * pairs of 32-bit LE integers: the member size and the uncompressed size of consecutive blocks.
+ */
+public class BlockGzipOutputStream extends ParallelBlockOutputStream {
+	public static final int BLOCK_SIZE = 1 << 20;
+	public static final byte[] BLOCK_SUBFIELD = { 'T', 'B' };
+	public static final byte[] INDEX_SUBFIELD = { 'T', 'I' };
+	//ID1, ID2, CM = deflate, FLG = FEXTRA, MTIME, XFL, OS = unknown
+	public static final byte[] GZIP_HEADER = { 0x1f, (byte) 0x8b, 8, 4, 0, 0, 0, 0, 0, (byte) 0xff };
+	//Gzip header, XLEN and a single subfield with the member size
+	public static final int BLOCK_HEADER_SIZE = GZIP_HEADER.length + 2 + 4 + 4;
+	//CRC32 and ISIZE
+	public static final int TRAILER_SIZE = 8;
+	public static final int INDEX_ENTRY_SIZE = 8;
+	//Extra field can be at most 65535 bytes long, and each subfield takes 4 more
+	public static final int INDEX_ENTRIES_PER_MEMBER = (0xFFFF - 4) / INDEX_ENTRY_SIZE;
+	//Deflate stream made of a single, empty, final block of fixed huffman codes
+	private static final byte[] EMPTY_DEFLATE = { 0x03, 0x00 };
+
+	private final ByteArrayOutputStream index = new ByteArrayOutputStream();
+	private int indexEntries = 0;
+	private boolean indexWritten = false;
+
+	public BlockGzipOutputStream(OutputStream out, int threads) {
+		super(out, BLOCK_SIZE, threads);
+	}
+
+	@Override
+	protected byte[] compressBlock(byte[] data, int len) {
+		CRC32 crc = new CRC32();
+		crc.update(data, 0, len);
+
+		Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+		byte[] block = new byte[BLOCK_HEADER_SIZE + len + len / 1000 + 64 + TRAILER_SIZE];
+		int size = BLOCK_HEADER_SIZE;
+
+		try {
+			deflater.setInput(data, 0, len);
+			deflater.finish();
+
+			while(!deflater.finished()) {
+				if(size == block.length - TRAILER_SIZE) block = Arrays.copyOf(block, block.length * 2);
+				size += deflater.deflate(block, size, block.length - TRAILER_SIZE - size);
+			}
+		} finally {
+			deflater.end();
+		}
+
+		size += TRAILER_SIZE;
+
+		System.arraycopy(GZIP_HEADER, 0, block, 0, GZIP_HEADER.length);
+		setShortLE(block, GZIP_HEADER.length, 8);
+		block[GZIP_HEADER.length + 2] = BLOCK_SUBFIELD[0];
+		block[GZIP_HEADER.length + 3] = BLOCK_SUBFIELD[1];
+		setShortLE(block, GZIP_HEADER.length + 4, 4);
+		setIntLE(block, GZIP_HEADER.length + 6, size);
+
+		setIntLE(block, size - TRAILER_SIZE, (int) crc.getValue());
+		setIntLE(block, size - 4, len);
+
+		return Arrays.copyOf(block, size);
+	}
+
+	@Override
+	protected void blockWritten(byte[] block) throws IOException {
+		byte[] entry = new byte[INDEX_ENTRY_SIZE];
+		setIntLE(entry, 0, block.length);
+		System.arraycopy(block, block.length - 4, entry, 4, 4);
+		index.write(entry);
+
+		if(++indexEntries == INDEX_ENTRIES_PER_MEMBER) writeIndex();
+	}
+
+	@Override
+	protected void writeTrailer() throws IOException {
+		//Even an empty index tells the decompressor that nothing is missing
+		if(indexEntries > 0 || !indexWritten) writeIndex();
+	}
+
+	private void writeIndex() throws IOException {
+		byte[] entries = index.toByteArray();
+		byte[] header = new byte[GZIP_HEADER.length + 2 + 4];
+
+		System.arraycopy(GZIP_HEADER, 0, header, 0, GZIP_HEADER.length);
+		setShortLE(header, GZIP_HEADER.length, 4 + entries.length);
+		header[GZIP_HEADER.length + 2] = INDEX_SUBFIELD[0];
+		header[GZIP_HEADER.length + 3] = INDEX_SUBFIELD[1];
+		setShortLE(header, GZIP_HEADER.length + 4, entries.length);
+
+		out.write(header);
+		out.write(entries);
+		out.write(EMPTY_DEFLATE);
+		//CRC32 and size of no data are both 0
+		out.write(new byte[TRAILER_SIZE]);
+
+		index.reset();
+		indexEntries = 0;
+		indexWritten = true;
+	}
+
+	private static void setShortLE(byte[] b, int off, int v) {
+		b[off] = (byte) v;
+		b[off + 1] = (byte) (v >>> 8);
+	}
+
+	private static void setIntLE(byte[] b, int off, int v) {
+		b[off] = (byte) v;
+		b[off + 1] = (byte) (v >>> 8);
+		b[off + 2] = (byte) (v >>> 16);
+		b[off + 3] = (byte) (v >>> 24);
+	}
+}
@@ -0,0 +1,105 @@
+/*
+ * A simple backup mod for Fabric
+ * Copyright (C)  2022   Szum123321
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package net.szum123321.textile_backup.core.create.compressors.tar;
+
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.xxhash.XXHashFactory;
+import net.szum123321.textile_backup.core.create.ExecutableBackup;
+import net.szum123321.textile_backup.core.create.compressors.ParallelBlockOutputStream;
+
+import java.io.*;
+import java.util.Arrays;
+
+/**
+ * Fastest of the formats, meant for frequent backups where the time world saving is disabled for matters more than size.
+ * Produces a standard LZ4 frame (readable by the lz4 cli and commons-compress) made of independent blocks, which are compressed in parallel
+ */
+public class Lz4Compressor extends AbstractTarArchiver {
+	public static Lz4Compressor getInstance() {
+		return new Lz4Compressor();
+	}
+
+	@Override
+	protected OutputStream getCompressorOutputStream(OutputStream stream, ExecutableBackup ctx, int coreLimit) throws IOException {
+		return new LZ4FrameOutputStream(stream, coreLimit);
+	}
+
+	private static class LZ4FrameOutputStream extends ParallelBlockOutputStream {
+		private static final int MAGIC = 0x184D2204;
+		//Version 01, independent blocks, no checksums nor content size
+		private static final byte FLG = 0b0110_0000;
+		//4 MiB max block size
+		private static final byte BD = 0b0111_0000;
+		private static final int BLOCK_SIZE = 4 << 20;
+		private static final int UNCOMPRESSED_FLAG = 0x80000000;
+
+		private final LZ4Compressor compressor = LZ4Factory.fastestInstance().fastCompressor();
+
+		LZ4FrameOutputStream(OutputStream out, int threads) {
+			super(out, BLOCK_SIZE, threads);
+		}
+
+		@Override
+		protected void writeHeader() throws IOException {
+			byte[] descriptor = { FLG, BD };
+			int hc = (XXHashFactory.fastestInstance().hash32().hash(descriptor, 0, descriptor.length, 0) >> 8) & 0xFF;
+
+			writeIntLE(MAGIC);
+			out.write(descriptor);
+			out.write(hc);
+		}
+
+		@Override
+		protected byte[] compressBlock(byte[] data, int len) {
+			byte[] block = new byte[4 + compressor.maxCompressedLength(len)];
+			int size = compressor.compress(data, 0, len, block, 4, block.length - 4);
+
+			//Incompressible blocks are stored as they are
+			if(size >= len) {
+				block = new byte[4 + len];
+				System.arraycopy(data, 0, block, 4, len);
+				setIntLE(block, len | UNCOMPRESSED_FLAG);
+				return block;
+			}
+
+			setIntLE(block, size);
+			return Arrays.copyOf(block, 4 + size);
+		}
+
+		@Override
+		protected void writeTrailer() throws IOException {
+			//End mark
+			writeIntLE(0);
+		}
+
+		private void writeIntLE(int v) throws IOException {
+			byte[] b = new byte[4];
+			setIntLE(b, v);
+			out.write(b);
+		}
+
+		private static void setIntLE(byte[] b, int v) {
+			b[0] = (byte) v;
+			b[1] = (byte) (v >>> 8);
+			b[2] = (byte) (v >>> 16);
+			b[3] = (byte) (v >>> 24);
+		}
+	}
+}
@@ -24,13 +24,23 @@ import org.at4j.comp.bzip2.BZip2OutputStreamSettings;
 
 import java.io.*;
 
+/**
+ * Every block is written as a bzip2 stream of its own. bzip2 and tar read it as usual, giving back exactly the tar,
+ * while {@link net.szum123321.textile_backup.core.restore.decompressors.ParallelBZip2InputStream} decompresses the streams in parallel.
+ * <br>
+ * A single block holds at most about 46 MB of input, so the streams stay small enough to be decompressed in memory.
+ */
 public class ParallelBZip2Compressor extends AbstractTarArchiver {
+	private static final int BLOCKS_PER_STREAM = 1;
+
 	public static ParallelBZip2Compressor getInstance() {
 		return new ParallelBZip2Compressor();
 	}
 
 	@Override
 	protected OutputStream getCompressorOutputStream(OutputStream stream, ExecutableBackup ctx, int coreLimit) throws IOException {
-		return new BZip2OutputStream(stream, new BZip2OutputStreamSettings().setNumberOfEncoderThreads(coreLimit));
+		return new BZip2OutputStream(stream, new BZip2OutputStreamSettings()
+				.setNumberOfEncoderThreads(coreLimit)
+				.setNumberOfBlocksPerStream(BLOCKS_PER_STREAM));
 	}
 }
\ No newline at end of file
@@ -18,6 +18,7 @@
 
 package net.szum123321.textile_backup.core.create.compressors.tar;
 
+import net.szum123321.textile_backup.config.ConfigHelper;
 import net.szum123321.textile_backup.core.create.ExecutableBackup;
 import org.anarres.parallelgzip.ParallelGZIPOutputStream;
 
@@ -25,7 +26,13 @@ import java.io.*;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
+/**
+ * Either a single gzip stream compressed in parallel, or, with <code>blockGzip</code> enabled, a series of independent members
+ * which can also be decompressed in parallel, see {@link BlockGzipOutputStream}
+ */
 public class ParallelGzipCompressor extends AbstractTarArchiver {
+	private final static ConfigHelper config = ConfigHelper.INSTANCE;
+
 	private ExecutorService executorService;
 
 	public static ParallelGzipCompressor getInstance() {
@@ -34,6 +41,8 @@ public class ParallelGzipCompressor extends AbstractTarArchiver {
 
 	@Override
 	protected OutputStream getCompressorOutputStream(OutputStream stream, ExecutableBackup ctx, int coreLimit) throws IOException {
+		if(config.get().blockGzip) return new BlockGzipOutputStream(stream, coreLimit);
+
 		executorService = Executors.newFixedThreadPool(coreLimit);
 
 		return new ParallelGZIPOutputStream(stream, executorService);
@@ -42,6 +51,6 @@ public class ParallelGzipCompressor extends AbstractTarArchiver {
 	@Override
 	protected void close() {
 		//it seems like ParallelGZIPOutputStream doesn't shut down its ExecutorService, so to not leave garbage I shut it down
-		executorService.shutdown();
+		if(executorService != null) executorService.shutdown();
 	}
 }
@@ -0,0 +1,243 @@
+/*
+ * A simple backup mod for Fabric
+ * Copyright (C)  2022   Szum123321
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package net.szum123321.textile_backup.core.create.compressors.tar;
+
+import net.szum123321.textile_backup.core.create.compressors.ParallelBlockOutputStream;
+import org.tukaani.xz.LZMA2Options;
+import org.tukaani.xz.XZ;
+import org.tukaani.xz.XZOutputStream;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * Writes a single xz stream made of independently compressed blocks, the same way <code>xz -T</code> does.
+ * <br>
+ * Every block is compressed on its own by {@link XZOutputStream}, after which its header is rewritten to also hold
+ * the compressed and uncompressed sizes. Those let multithreaded decompressors (xz 5.4 and newer) split the work,
+ * while the index at the end of the stream lets {@link net.szum123321.textile_backup.core.restore.decompressors.ParallelXzInputStream}
+ * find the blocks without reading the whole file.
+ */
+public class XzBlockOutputStream extends ParallelBlockOutputStream {
+	public static final byte[] HEADER_MAGIC = { (byte) 0xFD, '7', 'z', 'X', 'Z', 0 };
+	public static final byte[] FOOTER_MAGIC = { 'Y', 'Z' };
+	public static final int STREAM_HEADER_SIZE = 12;
+	public static final int STREAM_FOOTER_SIZE = 12;
+	public static final int CHECK_TYPE = XZ.CHECK_CRC64;
+	public static final int CHECK_SIZE = 8;
+	//Block flags
+	public static final int COMPRESSED_SIZE_PRESENT = 0x40, UNCOMPRESSED_SIZE_PRESENT = 0x80;
+
+	private final LZMA2Options options;
+	//Unpadded and uncompressed sizes of the blocks written so far
+	private long[] records = new long[64];
+	private int blocks = 0;
+
+	public XzBlockOutputStream(OutputStream out, int threads) {
+		this(out, threads, defaultOptions());
+	}
+
+	public XzBlockOutputStream(OutputStream out, int threads, LZMA2Options options) {
+		this(out, threads, threads * 2, options);
+	}
+
+	public XzBlockOutputStream(OutputStream out, int threads, int maxPending, LZMA2Options options) {
+		super(out, blockSize(options), threads, maxPending);
+		this.options = options;
+	}
+
+	//Blocks are made 3 times larger than the dictionary, same as xz does, so that little of the ratio is lost
+	public static int blockSize(LZMA2Options options) {
+		return 3 * options.getDictSize();
+	}
+
+	/**
+	 * @return how much memory, in bytes, the stream may take up at most. Every thread holds an encoder, while every block
+	 * in flight, as well as the one being filled, takes up to its size once more for the compressed data
+	 */
+	public static long memoryUsage(LZMA2Options options, int threads, int maxPending) {
+		return threads * options.getEncoderMemoryUsage() * 1024L + (maxPending + 1L) * 2 * blockSize(options);
+	}
+
+	public static LZMA2Options defaultOptions() {
+		try {
+			return new LZMA2Options(LZMA2Options.PRESET_DEFAULT);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	@Override
+	protected void writeHeader() throws IOException {
+		out.write(streamHeader(CHECK_TYPE));
+	}
+
+	@Override
+	protected byte[] compressBlock(byte[] data, int len) throws IOException {
+		ByteArrayOutputStream stream = new ByteArrayOutputStream(len / 4 + 1024);
+
+		try (XZOutputStream xz = new XZOutputStream(stream, options, CHECK_TYPE)) {
+			xz.write(data, 0, len);
+		}
+
+		//A complete, single block stream. All that's needed is the block itself, and its unpadded size from the index
+		byte[] s = stream.toByteArray();
+		int indexSize = (getIntLE(s, s.length - 8) + 1) * 4;
+		int blockEnd = s.length - STREAM_FOOTER_SIZE - indexSize;
+
+		int pos = blockEnd + 1;
+		if(s[blockEnd] != 0 || s[pos++] != 1) throw new IOException("Expected an index of a single block");
+
+		long unpaddedSize = readVli(s, pos);
+		long uncompressedSize = readVli(s, pos + vliLength(unpaddedSize));
+
+		int oldHeaderSize = ((s[STREAM_HEADER_SIZE] & 0xFF) + 1) * 4;
+		byte[] header = blockHeader(s, STREAM_HEADER_SIZE, unpaddedSize - oldHeaderSize - CHECK_SIZE, uncompressedSize);
+
+		byte[] block = new byte[header.length + blockEnd - STREAM_HEADER_SIZE - oldHeaderSize];
+		System.arraycopy(header, 0, block, 0, header.length);
+		System.arraycopy(s, STREAM_HEADER_SIZE + oldHeaderSize, block, header.length, block.length - header.length);
+
+		return block;
+	}
+
+	@Override
+	protected void blockWritten(byte[] block) {
+		long compressedSize = readVli(block, 2);
+		long uncompressedSize = readVli(block, 2 + vliLength(compressedSize));
+
+		if(blocks * 2 == records.length) records = Arrays.copyOf(records, records.length * 2);
+
+		records[blocks * 2] = ((block[0] & 0xFF) + 1) * 4L + compressedSize + CHECK_SIZE;
+		records[blocks * 2 + 1] = uncompressedSize;
+		blocks++;
+	}
+
+	@Override
+	protected void writeTrailer() throws IOException {
+		out.write(indexAndFooter(CHECK_TYPE, Arrays.copyOf(records, blocks * 2)));
+	}
+
+	public static byte[] streamHeader(int checkType) {
+		byte[] header = new byte[STREAM_HEADER_SIZE];
+		System.arraycopy(HEADER_MAGIC, 0, header, 0, HEADER_MAGIC.length);
+		header[7] = (byte) checkType;
+		setIntLE(header, 8, crc32(header, 6, 2));
+		return header;
+	}
+
+	/**
+	 * @param records unpadded and uncompressed sizes of consecutive blocks
+	 * @return index of a stream holding these blocks, followed by the stream footer
+	 */
+	public static byte[] indexAndFooter(int checkType, long[] records) {
+		ByteArrayOutputStream index = new ByteArrayOutputStream();
+		index.write(0);
+		writeVli(index, records.length / 2);
+		for(long v: records) writeVli(index, v);
+		while(index.size() % 4 != 0) index.write(0);
+
+		byte[] body = index.toByteArray();
+		byte[] result = new byte[body.length + 4 + STREAM_FOOTER_SIZE];
+		System.arraycopy(body, 0, result, 0, body.length);
+		setIntLE(result, body.length, crc32(body, 0, body.length));
+
+		int footer = body.length + 4;
+		setIntLE(result, footer + 4, (body.length + 4) / 4 - 1);
+		result[footer + 9] = (byte) checkType;
+		setIntLE(result, footer, crc32(result, footer + 4, 6));
+		System.arraycopy(FOOTER_MAGIC, 0, result, footer + 10, FOOTER_MAGIC.length);
+
+		return result;
+	}
+
+	//Copies the block header found at off, with the sizes added to it
+	private static byte[] blockHeader(byte[] s, int off, long compressedSize, long uncompressedSize) throws IOException {
+		int flags = s[off + 1] & 0xFF;
+		//XZOutputStream never writes the sizes itself
+		if((flags & (COMPRESSED_SIZE_PRESENT | UNCOMPRESSED_SIZE_PRESENT)) != 0) throw new IOException("Block header already holds its sizes");
+
+		int size = ((s[off] & 0xFF) + 1) * 4;
+		//Filter flags along with the padding, which is only zeroes, so it can be carried over as it is
+		int filters = size - 2 - 4;
+
+		ByteArrayOutputStream header = new ByteArrayOutputStream(size + 18);
+		header.write(0);
+		header.write(flags | COMPRESSED_SIZE_PRESENT | UNCOMPRESSED_SIZE_PRESENT);
+		writeVli(header, compressedSize);
+		writeVli(header, uncompressedSize);
+		header.write(s, off + 2, filters);
+		while(header.size() % 4 != 0) header.write(0);
+
+		byte[] result = Arrays.copyOf(header.toByteArray(), header.size() + 4);
+		result[0] = (byte) (result.length / 4 - 1);
+		setIntLE(result, result.length - 4, crc32(result, 0, result.length - 4));
+
+		return result;
+	}
+
+	private static void writeVli(ByteArrayOutputStream out, long v) {
+		while(v >= 0x80) {
+			out.write((int) (v | 0x80));
+			v >>>= 7;
+		}
+		out.write((int) v);
+	}
+
+	public static long readVli(byte[] b, int off) {
+		long v = 0;
+		int shift = 0;
+		byte c;
+
+		do {
+			c = b[off++];
+			v |= (long) (c & 0x7F) << shift;
+			shift += 7;
+		} while((c & 0x80) != 0);
+
+		return v;
+	}
+
+	public static int vliLength(long v) {
+		int n = 1;
+		while((v >>>= 7) != 0) n++;
+		return n;
+	}
+
+	private static int crc32(byte[] b, int off, int len) {
+		CRC32 crc = new CRC32();
+		crc.update(b, off, len);
+		return (int) crc.getValue();
+	}
+
+	private static int getIntLE(byte[] b, int off) {
+		return (b[off] & 0xFF) | (b[off + 1] & 0xFF) << 8 | (b[off + 2] & 0xFF) << 16 | (b[off + 3] & 0xFF) << 24;
+	}
+
+	private static void setIntLE(byte[] b, int off, int v) {
+		b[off] = (byte) v;
+		b[off + 1] = (byte) (v >>> 8);
+		b[off + 2] = (byte) (v >>> 16);
+		b[off + 3] = (byte) (v >>> 24);
+	}
+}
@@ -0,0 +1,67 @@
+/*
+ * A simple backup mod for Fabric
+ * Copyright (C)  2022   Szum123321
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package net.szum123321.textile_backup.core.create.compressors.tar;
+
+import net.szum123321.textile_backup.TextileBackup;
+import net.szum123321.textile_backup.TextileLogger;
+import net.szum123321.textile_backup.config.ConfigHelper;
+import net.szum123321.textile_backup.core.create.ExecutableBackup;
+import org.tukaani.xz.LZMA2Options;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Smallest, but also the slowest of the formats, meant for backups which are kept for long.
+ * The stream is split into blocks compressed in parallel, see {@link XzBlockOutputStream}
+ * <br>
+ * With the default preset every thread needs almost 100 MiB for its encoder, on top of the blocks, so all of it has to fit
+ * in <code>compressionMemoryBudget</code>. When it doesn't, fewer threads are used, as a smaller dictionary would cost
+ * the ratio this format is picked for. Only when a single thread doesn't fit, the dictionary gets smaller, down to {@link #MIN_DICT_SIZE}.
+ */
+public class XzCompressor extends AbstractTarArchiver {
+	private final static TextileLogger log = new TextileLogger(TextileBackup.MOD_NAME);
+	private final static ConfigHelper config = ConfigHelper.INSTANCE;
+	private final static int MIN_DICT_SIZE = 1 << 20;
+
+	public static XzCompressor getInstance() {
+		return new XzCompressor();
+	}
+
+	@Override
+	protected OutputStream getCompressorOutputStream(OutputStream stream, ExecutableBackup ctx, int coreLimit) throws IOException {
+		long budget = Math.max(1, config.get().compressionMemoryBudget) * 1024L * 1024L;
+		LZMA2Options options = XzBlockOutputStream.defaultOptions();
+		int threads = Math.max(1, coreLimit);
+
+		while(threads > 1 && XzBlockOutputStream.memoryUsage(options, threads, threads) > budget) threads--;
+
+		//A single thread is used even if it doesn't fit, there's no way to compress with less
+		while(options.getDictSize() > MIN_DICT_SIZE && XzBlockOutputStream.memoryUsage(options, threads, threads) > budget)
+			options.setDictSize(options.getDictSize() / 2);
+
+		int maxPending = threads;
+		while(maxPending < 2 * threads && XzBlockOutputStream.memoryUsage(options, threads, maxPending + 1) <= budget) maxPending++;
+
+		log.debug("Compressing with {} threads, {} blocks in flight and a {} KiB dictionary", threads, maxPending, options.getDictSize() >> 10);
+
+		return new XzBlockOutputStream(stream, threads, maxPending, options);
+	}
+}
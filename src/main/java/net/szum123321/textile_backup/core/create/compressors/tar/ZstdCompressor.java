@@ -0,0 +1,43 @@
+/*
+ * A simple backup mod for Fabric
+ * Copyright (C)  2022   Szum123321
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package net.szum123321.textile_backup.core.create.compressors.tar;
+
+import com.github.luben.zstd.ZstdOutputStream;
+import net.szum123321.textile_backup.config.ConfigHelper;
+import net.szum123321.textile_backup.core.create.ExecutableBackup;
+
+import java.io.*;
+
+public class ZstdCompressor extends AbstractTarArchiver {
+	private final static ConfigHelper config = ConfigHelper.INSTANCE;
+
+	public static ZstdCompressor getInstance() {
+		return new ZstdCompressor();
+	}
+
+	@Override
+	protected OutputStream getCompressorOutputStream(OutputStream stream, ExecutableBackup ctx, int coreLimit) throws IOException {
+		ZstdOutputStream zstd = new ZstdOutputStream(stream, config.get().zstdCompressionLevel);
+
+		//With workers set, zstd splits the input into jobs which are compressed in parallel by its own thread pool
+		if(coreLimit > 1) zstd.setWorkers(coreLimit);
+
+		return zstd;
+	}
+}
@@ -0,0 +1,50 @@
+/*
+ * A simple backup mod for Fabric
+ * Copyright (C)  2022   Szum123321
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package net.szum123321.textile_backup.core.dedup;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Contents of a deduplicated backup. Every entry is a list of chunk hashes, concatenated into a single array
+ */
+public record ChunkIndex(List<Entry> entries) implements Serializable {
+    public record Entry(String name, long size, byte[] chunks) implements Serializable {
+        public int chunkCount() { return chunks.length / ChunkStore.HASH_LENGTH; }
+    }
+
+    public static ChunkIndex readFromFile(Path file) throws IOException, ClassNotFoundException {
+        try(InputStream i = new InflaterInputStream(new BufferedInputStream(Files.newInputStream(file)));
+            ObjectInputStream obj = new ObjectInputStream(i)) {
+            return (ChunkIndex) obj.readObject();
+        }
+    }
+
+    public void write(OutputStream out) throws IOException {
+        DeflaterOutputStream deflater = new DeflaterOutputStream(out);
+        ObjectOutputStream o = new ObjectOutputStream(deflater);
+        o.writeObject(this);
+        o.flush();
+        deflater.finish();
+    }
+}
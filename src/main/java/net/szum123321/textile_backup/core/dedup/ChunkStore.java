@@ -0,0 +1,192 @@
+/*
+ * A simple backup mod for Fabric
+ * Copyright (C)  2022   Szum123321
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package net.szum123321.textile_backup.core.dedup;
+
+import net.szum123321.textile_backup.TextileBackup;
+import net.szum123321.textile_backup.TextileLogger;
+import net.szum123321.textile_backup.config.ConfigPOJO;
+import net.szum123321.textile_backup.core.RestoreableFile;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Content-addressed storage shared by all deduplicated backups of a world.
+ * <br>
+ * Every chunk is kept in a separate, deflate-compressed file named after SHA-256 of its uncompressed content. A chunk is written
+ * only once, no matter how many backups reference it. Because of that chunks can't be deleted along with a backup,
+ * instead {@link #collectGarbage(Path)} removes the ones which are no longer referenced by any index.
+ */
+public class ChunkStore {
+    private final static TextileLogger log = new TextileLogger(TextileBackup.MOD_NAME);
+
+    public static final String DIRECTORY_NAME = "chunk_store";
+    public static final int HASH_LENGTH = 32;
+    private static final String TMP_SUFFIX = ".tmp";
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private static final ThreadLocal<MessageDigest> DIGEST = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("SHA-256 is not available!", e);
+        }
+    });
+
+    private final Path root;
+
+    public ChunkStore(Path backupRoot) {
+        this.root = backupRoot.resolve(DIRECTORY_NAME);
+    }
+
+    public static byte[] hash(byte[] data, int len) {
+        MessageDigest digest = DIGEST.get();
+        digest.update(data, 0, len);
+        return digest.digest();
+    }
+
+    public boolean contains(byte[] hash, int offset) {
+        return Files.exists(resolve(hash, offset));
+    }
+
+    public void write(byte[] hash, byte[] data, int len, int level) throws IOException {
+        Path target = resolve(hash, 0);
+        if(Files.exists(target)) return;
+
+        Files.createDirectories(target.getParent());
+
+        Path tmp = target.resolveSibling(target.getFileName() + "." + Thread.currentThread().getId() + TMP_SUFFIX);
+
+        Deflater deflater = new Deflater(level);
+        try(OutputStream out = new DeflaterOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)), deflater)) {
+            out.write(data, 0, len);
+        } finally {
+            deflater.end();
+        }
+
+        try {
+            Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (FileAlreadyExistsException e) {
+            //Some other thread was quicker
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    public InputStream read(byte[] hash, int offset) throws IOException {
+        Path file = resolve(hash, offset);
+
+        try {
+            return new InflaterInputStream(Files.newInputStream(file));
+        } catch (NoSuchFileException e) {
+            throw new IOException("Chunk " + file.getFileName() + " is missing from the store!", e);
+        }
+    }
+
+    private Path resolve(byte[] hash, int offset) {
+        String name = toHex(hash, offset);
+        return root.resolve(name.substring(0, 2)).resolve(name);
+    }
+
+    /**
+     * Deletes every chunk which isn't referenced by any of the indexes in the backup root.
+     * If even one index can't be read (for example, because it's being written right now) nothing is deleted.
+     * @return number of removed chunks
+     */
+    public static int collectGarbage(Path backupRoot) {
+        Path store = backupRoot.resolve(DIRECTORY_NAME);
+        if(Files.notExists(store)) return 0;
+
+        Set<ByteBuffer> live = new HashSet<>();
+
+        List<Path> indexes = RestoreableFile.applyOnFiles(backupRoot, List.of(),
+                e -> log.error("An exception occurred while listing deduplicated backups!", e),
+                s -> s.filter(f -> f.getArchiveFormat() == ConfigPOJO.ArchiveFormat.DEDUP).map(RestoreableFile::getFile).toList());
+
+        for(Path index: indexes) {
+            try {
+                for(ChunkIndex.Entry entry: ChunkIndex.readFromFile(index).entries()) {
+                    for(int i = 0; i < entry.chunkCount(); i++)
+                        live.add(ByteBuffer.wrap(entry.chunks(), i * HASH_LENGTH, HASH_LENGTH).slice());
+                }
+            } catch (IOException | ClassNotFoundException e) {
+                log.warn("Couldn't read index: {}. Skipping chunk garbage collection.", index.getFileName());
+                return 0;
+            }
+        }
+
+        int deleted = 0;
+
+        try(Stream<Path> stream = Files.walk(store, 2)) {
+            for(Path file: stream.filter(Files::isRegularFile).toList()) {
+                String name = file.getFileName().toString();
+                if(name.length() != HASH_LENGTH * 2) continue; //Leftover temporary file or something unrelated
+
+                if(!live.contains(ByteBuffer.wrap(fromHex(name)))) {
+                    Files.delete(file);
+                    deleted++;
+                }
+            }
+        } catch (IOException e) {
+            log.error("An exception occurred while collecting unreferenced chunks!", e);
+        }
+
+        if(deleted > 0) log.info("Deleted {} unreferenced chunks.", deleted);
+
+        return deleted;
+    }
+
+    /**
+     * @return total size of the stored chunks in bytes
+     */
+    public static long size(Path backupRoot) {
+        Path store = backupRoot.resolve(DIRECTORY_NAME);
+        if(Files.notExists(store)) return 0;
+
+        try(Stream<Path> stream = Files.walk(store, 2)) {
+            return stream.filter(Files::isRegularFile).mapToLong(f -> f.toFile().length()).sum();
+        } catch (IOException e) {
+            log.error("An exception occurred while calculating the size of the chunk store!", e);
+            return 0;
+        }
+    }
+
+    private static String toHex(byte[] data, int offset) {
+        char[] chars = new char[HASH_LENGTH * 2];
+        for(int i = 0; i < HASH_LENGTH; i++) {
+            chars[2 * i] = HEX[(data[offset + i] >> 4) & 0xF];
+            chars[2 * i + 1] = HEX[data[offset + i] & 0xF];
+        }
+        return new String(chars);
+    }
+
+    private static byte[] fromHex(String s) {
+        byte[] data = new byte[HASH_LENGTH];
+        for(int i = 0; i < HASH_LENGTH; i++)
+            data[i] = (byte) ((Character.digit(s.charAt(2 * i), 16) << 4) | Character.digit(s.charAt(2 * i + 1), 16));
+        return data;
+    }
+}
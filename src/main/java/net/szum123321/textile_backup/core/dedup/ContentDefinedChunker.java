@@ -0,0 +1,108 @@
+/*
+ * A simple backup mod for Fabric
+ * Copyright (C)  2022   Szum123321
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package net.szum123321.textile_backup.core.dedup;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Splits a stream into chunks whose boundaries depend on the content rather than the offset, so that an insertion
+ * in the middle of a file only changes the chunks around it. It's a simplified version of
+ * <a href="https://www.usenix.org/conference/atc16/technical-sessions/presentation/xia">FastCDC</a>, that is, a gear
+ * rolling hash with normalized chunking.
+ * <br>
+ * Boundaries don't need to be stable between versions - chunks are addressed by their hash, so the worst thing that could
+ * happen is a one-off drop in deduplication.
+ */
+public class ContentDefinedChunker {
+    public static final int MIN_SIZE = 16 * 1024;
+    public static final int AVERAGE_SIZE = 64 * 1024;
+    public static final int MAX_SIZE = 256 * 1024;
+
+    //The stricter mask is used before reaching the average size, the looser one after. This pulls chunk sizes towards the average
+    private static final long MASK_STRICT = ((1L << 18) - 1) << (64 - 18);
+    private static final long MASK_LOOSE = ((1L << 14) - 1) << (64 - 14);
+
+    private static final long[] GEAR = new long[256];
+
+    static {
+        long s = 0x6A09E667F3BCC908L;
+        for(int i = 0; i < GEAR.length; i++) {
+            s ^= (s >>> 12);
+            s ^= (s << 25);
+            s ^= (s >>> 27);
+            GEAR[i] = s * 0x2545F4914F6CDD1DL;
+        }
+    }
+
+    private final byte[] buffer = new byte[MAX_SIZE];
+
+    /**
+     * Reads the whole stream, passing consecutive chunks to the consumer. The consumer may not hold on to the array
+     */
+    public long split(InputStream in, ChunkConsumer consumer) throws IOException {
+        int len = 0;
+        long total = 0;
+        boolean eof = false;
+
+        while(true) {
+            while(!eof && len < buffer.length) {
+                int r = in.read(buffer, len, buffer.length - len);
+                if(r == -1) eof = true;
+                else len += r;
+            }
+
+            if(len == 0) break;
+
+            int cut = findBoundary(buffer, len);
+            consumer.accept(buffer, cut);
+            total += cut;
+
+            System.arraycopy(buffer, cut, buffer, 0, len - cut);
+            len -= cut;
+        }
+
+        return total;
+    }
+
+    private static int findBoundary(byte[] data, int len) {
+        if(len <= MIN_SIZE) return len;
+
+        long h = 0;
+        int i = MIN_SIZE;
+        int normal = Math.min(AVERAGE_SIZE, len);
+
+        for(; i < normal; i++) {
+            h = (h << 1) + GEAR[data[i] & 0xFF];
+            if((h & MASK_STRICT) == 0) return i + 1;
+        }
+
+        for(; i < len; i++) {
+            h = (h << 1) + GEAR[data[i] & 0xFF];
+            if((h & MASK_LOOSE) == 0) return i + 1;
+        }
+
+        return len;
+    }
+
+    @FunctionalInterface
+    public interface ChunkConsumer {
+        void accept(byte[] data, int len) throws IOException;
+    }
+}
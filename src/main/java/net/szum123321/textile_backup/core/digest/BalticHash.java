@@ -29,6 +29,8 @@ import java.util.Arrays;
  * easier to implement with AVX. Java should soon ship its vector api by default.
  */
 public class BalticHash implements Hash {
+    //Whole blocks are hashed straight from the caller's array
+    private final static BalticRound BULK = BalticRound.get();
     //SeaHash IV
     protected final static long[] IV = { 0x16f11fe89b0d677cL, 0xb480a793d8e6c86cL, 0x6fe2e5aaf078ebc9L, 0x14f994a4c5259381L };
     private final long[] state = Arrays.copyOf(IV, IV.length);
@@ -52,14 +54,28 @@ public class BalticHash implements Hash {
 
     public void update(byte[] data, int off, int len) {
         int pos = 0;
-        while(pos < len) {
-            int n = Math.min(len - pos, buffer_limit - buffer.position());
-            System.arraycopy(data, off + pos, _byte_buffer, buffer.position(), n);
-            pos += n;
-            buffer.position(buffer.position() + n);
+
+        //Top up whatever was left over from the previous call
+        if(buffer.position() != 0) {
+            pos = Math.min(len, buffer_limit - buffer.position());
+            System.arraycopy(data, off, _byte_buffer, buffer.position(), pos);
+            buffer.position(buffer.position() + pos);
             if(buffer.position() >= buffer_limit) round();
         }
 
+        //Now either the buffer is empty or there's no data left
+        int blocks = (len - pos) / buffer_limit;
+        if(blocks > 0) {
+            BULK.apply(state, data, off + pos, blocks);
+            pos += blocks * buffer_limit;
+        }
+
+        //Only the tail has to be staged
+        if(pos < len) {
+            System.arraycopy(data, off + pos, _byte_buffer, buffer.position(), len - pos);
+            buffer.position(buffer.position() + len - pos);
+        }
+
         hashed_data_length += len;
     }
 
@@ -91,7 +107,7 @@ public class BalticHash implements Hash {
         } else buffer.rewind();
     }
 
-    long xorshift64star(long s) {
+    static long xorshift64star(long s) {
         s ^= (s >> 12);
         s ^= (s << 25);
         s ^= (s >> 27);
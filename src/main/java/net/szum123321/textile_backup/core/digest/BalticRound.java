@@ -0,0 +1,75 @@
+/*
+ * A simple backup mod for Fabric
+ * Copyright (C)  2022   Szum123321
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package net.szum123321.textile_backup.core.digest;
+
+import net.szum123321.textile_backup.TextileBackup;
+import net.szum123321.textile_backup.TextileLogger;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Runs full rounds of {@link BalticHash} directly on the source array, so that the data doesn't have to be copied into
+ * the hash's buffer first. Every implementation has to give exactly the same result as {@link BalticHash#round()}.
+ * <br>
+ * The Vector API variant is used when the jdk.incubator.vector module is present (that is when the server is started
+ * with --add-modules jdk.incubator.vector) and the CPU supports 256-bit vectors. Otherwise, we fall back to the scalar one.
+ */
+interface BalticRound {
+    int BLOCK_SIZE = 4 * Long.BYTES;
+
+    void apply(long[] state, byte[] data, int off, int blocks);
+
+    static BalticRound get() {
+        TextileLogger log = new TextileLogger(TextileBackup.MOD_NAME);
+        BalticRound scalar = new ScalarBalticRound();
+
+        try {
+            BalticRound vector = (BalticRound) Class.forName(BalticRound.class.getPackageName() + ".VectorBalticRound")
+                    .getDeclaredConstructor()
+                    .newInstance();
+
+            if(isEquivalent(vector, scalar)) {
+                log.debug("Using Vector API for hashing");
+                return vector;
+            }
+
+            log.warn("Vector API hash implementation gave a wrong result! Falling back to the scalar one");
+        } catch (Throwable e) {
+            //Either the module is missing or the CPU doesn't support it
+            log.debug("Vector API is unavailable for hashing. {}", e.toString());
+        }
+
+        return scalar;
+    }
+
+    private static boolean isEquivalent(BalticRound a, BalticRound b) {
+        byte[] data = new byte[BLOCK_SIZE * 17 + 3];
+        new Random(2137).nextBytes(data);
+
+        long[] stateA = Arrays.copyOf(BalticHash.IV, BalticHash.IV.length);
+        long[] stateB = Arrays.copyOf(BalticHash.IV, BalticHash.IV.length);
+
+        a.apply(stateA, data, 3, 17);
+        b.apply(stateB, data, 3, 17);
+
+        return Arrays.equals(stateA, stateB);
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * A simple backup mod for Fabric
+ * Copyright (C)  2022   Szum123321
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package net.szum123321.textile_backup.core.digest;
+
+import java.util.zip.CRC32C;
+
+/**
+ * Backed by {@link CRC32C}, which the JVM turns into the SSE4.2 (or ARMv8) crc instructions.
+ * <br>
+ * CRC is only 32 bits long, so the upper half holds the length of the data. That's fine for catching corruption,
+ * but don't expect it to be good at anything else.
+ */
+public class Crc32cHash implements Hash {
+    private final CRC32C crc = new CRC32C();
+    private final byte[] scratch = new byte[Long.BYTES];
+    private long length = 0;
+
+    @Override
+    public void update(int b) {
+        crc.update(b);
+        length++;
+    }
+
+    @Override
+    public void update(long b) {
+        //Same as BalticHash, longs are treated as little-endian bytes
+        for(int i = 0; i < Long.BYTES; i++) scratch[i] = (byte) (b >>> (i * 8));
+        update(scratch, 0, Long.BYTES);
+    }
+
+    @Override
+    public void update(byte[] b, int off, int len) {
+        crc.update(b, off, len);
+        length += len;
+    }
+
+    @Override
+    public long getValue() {
+        return crc.getValue() | (length << 32);
+    }
+}
@@ -18,40 +18,134 @@
 
 package net.szum123321.textile_backup.core.digest;
 
-import net.szum123321.textile_backup.Globals;
 import net.szum123321.textile_backup.TextileBackup;
 import net.szum123321.textile_backup.TextileLogger;
+import net.szum123321.textile_backup.core.BackupManifest;
 import net.szum123321.textile_backup.core.CompressionStatus;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
 
 /**
  * What this class does is it collects the hashed files and combines them into a single number,
  * thus we can verify file tree integrity
+ * <br>
+ * As the combination is a simple xor, a file which gets overwritten (which happens when restoring incremental backups)
+ * can be taken out of the tree and replaced with its newer version. It's only calculated at the end, so files
+ * can be added from many threads at once without any locking.
+ * <br>
+ * Hashes of the single files are kept as well, see {@link #getDigest(Path)}
+ * <br>
+ * Files are hashed with {@link SegmentedHash}, see {@link #newFileHash()}, using the selected {@link HashAlgorithm}
  */
 public class FileTreeHashBuilder {
     private final static TextileLogger log = new TextileLogger(TextileBackup.MOD_NAME);
-    private final Object lock = new Object();
-    private long hash = 0, filesProcessed = 0, filesTotalSize = 0;
+    private final Map<Path, FileHash> fileHashes = new ConcurrentHashMap<>();
+    private volatile int segmentSize;
+    private volatile HashAlgorithm algorithm;
+    private HashCache cache;
 
     private final CountDownLatch latch;
 
     public FileTreeHashBuilder(int filesToProcess) {
+        this(filesToProcess, SegmentedHash.SEGMENT_SIZE, HashAlgorithm.BALTIC);
+    }
+
+    public FileTreeHashBuilder(int filesToProcess, int segmentSize, HashAlgorithm algorithm) {
         latch = new CountDownLatch(filesToProcess);
+        this.segmentSize = segmentSize;
+        this.algorithm = algorithm;
     }
 
+    /**
+     * @return hash for a single file of this tree. With segment size of 0 files are hashed in one piece, as it used to be
+     */
+    public Hash newFileHash() {
+        return newFileHash(segmentSize, algorithm);
+    }
+
+    public int getSegmentSize() { return segmentSize; }
+
+    public HashAlgorithm getAlgorithm() { return algorithm; }
+
+    public Optional<HashCache> getCache() { return Optional.ofNullable(cache); }
+
+    public void setCache(HashCache cache) { this.cache = cache; }
+
     public void update(Path path, long newHash, long bytes) throws IOException {
-        if(path.getFileName().toString().equals(CompressionStatus.DATA_FILENAME)) return;
+        if(isMetadataFile(path)) return;
+
+        fileHashes.put(path, new FileHash(newHash, bytes));
 
+        //Only once the hash is in, otherwise getValue could miss it
         latch.countDown();
+    }
 
-        synchronized (lock) {
-            this.hash ^= newHash;
-            filesTotalSize += bytes;
-            filesProcessed++;
+    public void remove(Path path) {
+        fileHashes.remove(path);
+    }
+
+    public Optional<Long> getFileHash(Path path) {
+        return Optional.ofNullable(fileHashes.get(path)).map(FileHash::hash);
+    }
+
+    /**
+     * @param root directory which the paths of the files are relative to
+     */
+    public TreeDigest getDigest(Path root) {
+        SortedMap<String, Long> entries = new TreeMap<>();
+        fileHashes.forEach((path, hash) -> entries.put(TreeDigest.toEntryName(root, path), hash.hash()));
+        return new TreeDigest(entries);
+    }
+
+    /**
+     * Hashes again the files whose hash depends on the segment size, this time using <code>newSegmentSize</code>.
+     * If the algorithm changes, all the files have to be hashed again.
+     * It's needed to verify backups made with different settings than the ones used for restoring.
+     * Must not be called while files are still being hashed.
+     */
+    public void rehash(int newSegmentSize, HashAlgorithm newAlgorithm) throws IOException {
+        if(newSegmentSize == segmentSize && newAlgorithm == algorithm) return;
+
+        //Only files longer than the shorter of the two segments can differ
+        long threshold = newAlgorithm != algorithm ? -1 : Math.min(
+                segmentSize > 0 ? segmentSize : Long.MAX_VALUE,
+                newSegmentSize > 0 ? newSegmentSize : Long.MAX_VALUE
+        );
+
+        List<Path> files = fileHashes.entrySet().stream()
+                .filter(e -> e.getValue().size() + hashedName(e.getKey()).length > threshold)
+                .map(Map.Entry::getKey)
+                .toList();
+
+        log.debug("Rehashing {} files with segment size {} and {}", files.size(), newSegmentSize, newAlgorithm);
+
+        byte[] buffer = new byte[64 * 1024];
+
+        for(Path file: files) {
+            Hash h = newFileHash(newSegmentSize, newAlgorithm);
+            long size = 0;
+
+            try(InputStream in = Files.newInputStream(file)) {
+                int n;
+                while((n = in.read(buffer)) != -1) {
+                    h.update(buffer, 0, n);
+                    size += n;
+                }
+            }
+
+            h.update(hashedName(file));
+            fileHashes.put(file, new FileHash(h.getValue(), size));
         }
+
+        segmentSize = newSegmentSize;
+        algorithm = newAlgorithm;
     }
 
     public int getRemaining() { return (int) latch.getCount(); }
@@ -61,13 +155,37 @@ public class FileTreeHashBuilder {
         if(lock) latch.await();
         else if(leftover != 0) log.warn("Finishing with {} files unprocessed!", leftover);
 
-        var hasher = Globals.CHECKSUM_SUPPLIER.get();
+        long hash = 0, filesProcessed = 0, filesTotalSize = 0;
+
+        for(FileHash fileHash: fileHashes.values()) {
+            hash ^= fileHash.hash();
+            filesProcessed++;
+            filesTotalSize += fileHash.size();
+        }
 
         log.debug("Closing: files: {}, bytes {}, raw hash {}", filesProcessed, filesTotalSize, hash);
+
+        var hasher = algorithm.create();
         hasher.update(hash);
         hasher.update(filesProcessed);
         hasher.update(filesTotalSize);
 
         return hasher.getValue();
     }
+
+    private static Hash newFileHash(int segmentSize, HashAlgorithm algorithm) {
+        return segmentSize > 0 ? new SegmentedHash(segmentSize, algorithm) : algorithm.create();
+    }
+
+    //File name is the last thing hashed, see HashingInputStream
+    private static byte[] hashedName(Path path) {
+        return path.getFileName().toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static boolean isMetadataFile(Path path) {
+        String name = path.getFileName().toString();
+        return name.equals(CompressionStatus.DATA_FILENAME) || name.equals(BackupManifest.DATA_FILENAME);
+    }
+
+    private record FileHash(long hash, long size) { }
 }
@@ -0,0 +1,44 @@
+/*
+ * A simple backup mod for Fabric
+ * Copyright (C)  2022   Szum123321
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package net.szum123321.textile_backup.core.digest;
+
+import java.util.function.Supplier;
+
+/**
+ * Algorithms available for verifying backup integrity. The one used is stored in {@link net.szum123321.textile_backup.core.CompressionStatus},
+ * so a backup is always verified with the same algorithm it was made with.
+ * <br>
+ * Don't reorder, the ordinal is a part of the {@link HashCache} header.
+ */
+public enum HashAlgorithm {
+    BALTIC(BalticHash::new),
+    CRC32C(Crc32cHash::new),
+    XXH3(Xxh3Hash::new);
+
+    private final Supplier<Hash> supplier;
+
+    HashAlgorithm(Supplier<Hash> supplier) {
+        this.supplier = supplier;
+    }
+
+    public Hash create() {
+        return supplier.get();
+    }
+}
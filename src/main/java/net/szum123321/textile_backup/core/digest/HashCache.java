@@ -0,0 +1,238 @@
+/*
+ * A simple backup mod for Fabric
+ * Copyright (C)  2022   Szum123321
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package net.szum123321.textile_backup.core.digest;
+
+import net.szum123321.textile_backup.TextileBackup;
+import net.szum123321.textile_backup.TextileLogger;
+import net.szum123321.textile_backup.core.create.WorldSnapshot;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.OptionalLong;
+
+/**
+ * Remembers file hashes between backups, so that files which haven't changed since don't need to be hashed again.
+ * A file is considered unchanged if it has the same path, size and modification time. Paths are relative to the world directory,
+ * as with {@link WorldSnapshot} each backup reads the world from a new temporary directory. For the same reason the file key (inode)
+ * can't be used, since the snapshot copies get a new one each time. Their modification times are preserved, though.
+ * <br>
+ * It's an open-addressing hash table with linear probing, stored in a file in the backup directory.
+ * Each slot takes 32 bytes: key, size, modification time and the hash. Size is stored incremented by one,
+ * so that an empty slot is all zeroes. Lookups don't allocate anything, as even with hundreds of thousands of files
+ * we do one per file.
+ * <br>
+ * The table is read into memory when the cache is opened, and written back when it's closed, by replacing the file at once.
+ * It isn't memory mapped, as a mapped file can't be truncated or replaced on Windows until the mapping gets garbage collected.
+ * <br>
+ * Hashes depend on the algorithm and the segment size, see {@link SegmentedHash}, so the table is cleared whenever either changes.
+ */
+public class HashCache implements Closeable {
+    private final static TextileLogger log = new TextileLogger(TextileBackup.MOD_NAME);
+
+    public final static String FILENAME = "hash_cache.bin";
+
+    private final static int MAGIC = 0x54584843; //TXHC
+    //Version 1 keyed the files by their absolute path and file key
+    private final static int VERSION = 2;
+    private final static int HEADER_SIZE = 32;
+    private final static int SLOT_SIZE = 4 * Long.BYTES;
+    private final static int MIN_CAPACITY = 1 << 12;
+    //32 MiB, at this point it's cheaper to start over than to keep growing
+    private final static int MAX_CAPACITY = 1 << 20;
+
+    private final Path file;
+    //Paths of the files are relative to it
+    private final Path root;
+    private final long mode;
+    //Four longs per slot, in the same order as in the file
+    private long[] table;
+    private int capacity, count;
+    private boolean modified = false;
+
+    private HashCache(Path file, Path root, long mode) {
+        this.file = file;
+        this.root = root;
+        this.mode = mode;
+    }
+
+    /**
+     * @param backupRoot directory of the backups, where the cache is kept
+     * @param root directory whose files get hashed, e.g. the world or its snapshot
+     */
+    public static HashCache open(Path backupRoot, Path root, int segmentSize, HashAlgorithm algorithm) throws IOException {
+        HashCache cache = new HashCache(backupRoot.resolve(FILENAME), root, ((long) algorithm.ordinal() << 32) | segmentSize);
+        cache.load();
+        return cache;
+    }
+
+    /**
+     * @return hash of the file, if it's known and the file hasn't changed since
+     */
+    public synchronized OptionalLong get(Path file, BasicFileAttributes attrs) {
+        long key = key(file);
+        int slot = find(key);
+
+        if(slot < 0) return OptionalLong.empty();
+
+        int index = slot * 4;
+        if(table[index + 1] != attrs.size() + 1 || table[index + 2] != attrs.lastModifiedTime().toMillis())
+            return OptionalLong.empty();
+
+        return OptionalLong.of(table[index + 3]);
+    }
+
+    public synchronized void put(Path file, BasicFileAttributes attrs, long hash) {
+        long key = key(file);
+        int slot = find(key);
+
+        if(slot < 0) {
+            //Keep the load factor under 0.75
+            if((count + 1) * 4L > capacity * 3L) {
+                grow();
+                slot = find(key);
+            }
+
+            slot = -slot - 1;
+            count++;
+        }
+
+        int index = slot * 4;
+        table[index] = key;
+        table[index + 1] = attrs.size() + 1;
+        table[index + 2] = attrs.lastModifiedTime().toMillis();
+        table[index + 3] = hash;
+        modified = true;
+    }
+
+    public int size() { return count; }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if(!modified) return;
+
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + capacity * SLOT_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, VERSION);
+        buffer.putInt(8, capacity);
+        buffer.putInt(16, count);
+        buffer.putLong(24, mode);
+        buffer.position(HEADER_SIZE);
+        buffer.asLongBuffer().put(table);
+
+        Path tmp = file.resolveSibling(FILENAME + ".tmp");
+        Files.write(tmp, buffer.array());
+        //A half-written table would be thrown away anyway, but this way the old one is kept
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        modified = false;
+    }
+
+    /**
+     * @return index of the slot holding the key, or -(index of the empty slot where it would go) - 1
+     */
+    private int find(long key) {
+        int mask = capacity - 1;
+        int slot = (int) (mix(key) & mask);
+
+        while(true) {
+            long k = table[slot * 4];
+            if(k == key) return slot;
+            if(k == 0) return -slot - 1;
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private void load() throws IOException {
+        if(Files.exists(file)) {
+            long size = Files.size(file);
+
+            if(size >= HEADER_SIZE && size <= HEADER_SIZE + (long) MAX_CAPACITY * SLOT_SIZE) {
+                ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file)).order(ByteOrder.LITTLE_ENDIAN);
+
+                int cap = buffer.getInt(8);
+                if(buffer.getInt(0) == MAGIC && buffer.getInt(4) == VERSION && buffer.getLong(24) == mode
+                        && Integer.bitCount(cap) == 1 && cap >= MIN_CAPACITY && cap <= MAX_CAPACITY
+                        && buffer.capacity() == HEADER_SIZE + (long) cap * SLOT_SIZE) {
+                    capacity = cap;
+                    count = buffer.getInt(16);
+                    table = new long[capacity * 4];
+                    buffer.position(HEADER_SIZE);
+                    buffer.asLongBuffer().get(table);
+                    return;
+                }
+            }
+
+            log.info("Hash cache is outdated or damaged. Starting over");
+        }
+
+        reset(MIN_CAPACITY);
+    }
+
+    private void reset(int newCapacity) {
+        capacity = newCapacity;
+        count = 0;
+        table = new long[capacity * 4];
+        modified = true;
+    }
+
+    private void grow() {
+        if(capacity >= MAX_CAPACITY) {
+            log.info("Hash cache is full. Starting over");
+            reset(capacity);
+            return;
+        }
+
+        long[] old = table;
+        int n = count;
+
+        reset(capacity * 2);
+
+        for(int i = 0; i < old.length; i += 4) {
+            if(old[i] == 0) continue;
+            System.arraycopy(old, i, table, (-find(old[i]) - 1) * 4, 4);
+        }
+
+        count = n;
+    }
+
+    //FNV-1a of the path relative to the root. Zero marks an empty slot, so it can't be a key
+    private long key(Path file) {
+        String path = file.startsWith(root) ? TreeDigest.toEntryName(root, file) : file.toString();
+        long h = 0xcbf29ce484222325L;
+        for(int i = 0; i < path.length(); i++) {
+            h ^= path.charAt(i);
+            h *= 0x100000001b3L;
+        }
+
+        return h == 0 ? 1 : h;
+    }
+
+    private static long mix(long x) {
+        x ^= x >>> 33;
+        x *= 0xff51afd7ed558ccdL;
+        x ^= x >>> 33;
+        return x;
+    }
+}
@@ -18,14 +18,16 @@
 
 package net.szum123321.textile_backup.core.digest;
 
-import net.szum123321.textile_backup.Globals;
 import net.szum123321.textile_backup.core.DataLeftException;
 import net.szum123321.textile_backup.core.create.BrokenFileHandler;
 import org.jetbrains.annotations.NotNull;
 
 import java.io.*;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.OptionalLong;
 
 /**
  * This class calculates a hash of the file on the input stream, submits it to FileTreeHashBuilder.
@@ -37,17 +39,25 @@ import java.nio.file.Path;
  */
 public class HashingInputStream extends FilterInputStream {
     private final Path path;
-    private final Hash hash = Globals.CHECKSUM_SUPPLIER.get();
+    private final Hash hash;
     private final FileTreeHashBuilder hashBuilder;
     private final BrokenFileHandler brokenFileHandler;
 
+    //Attributes of the file at the time it was opened, null if there's no hash cache
+    private final BasicFileAttributes attributes;
+    //If the file hasn't changed since it was last hashed, there's no need to do it again
+    private final OptionalLong cachedHash;
+
     private long bytesWritten = 0;
 
     public HashingInputStream(InputStream in, Path path, FileTreeHashBuilder hashBuilder, BrokenFileHandler brokenFileHandler) {
         super(in);
         this.path = path;
         this.hashBuilder = hashBuilder;
+        this.hash = hashBuilder.newFileHash();
         this.brokenFileHandler = brokenFileHandler;
+        this.attributes = hashBuilder.getCache().map(c -> readAttributes(path)).orElse(null);
+        this.cachedHash = attributes != null ? hashBuilder.getCache().get().get(path, attributes) : OptionalLong.empty();
     }
 
     @Override
@@ -59,7 +69,7 @@ public class HashingInputStream extends FilterInputStream {
             throw new IOException("An exception occurred while trying to access: [" + path.toString() + "]", e);
         }
         if(i != -1) {
-            hash.update(b, off, i);
+            if(cachedHash.isEmpty()) hash.update(b, off, i);
             bytesWritten += i;
         }
         return i;
@@ -74,12 +84,25 @@ public class HashingInputStream extends FilterInputStream {
             throw new IOException("An exception occurred while trying to access: [" + path.toString() + "]", e);
         }
         if(i != -1) {
-            hash.update(i);
+            if(cachedHash.isEmpty()) hash.update(i);
             bytesWritten++;
         }
         return i;
     }
 
+    private static BasicFileAttributes readAttributes(Path path) {
+        try {
+            return Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static boolean isUnchanged(Path path, BasicFileAttributes attributes) {
+        BasicFileAttributes now = readAttributes(path);
+        return now != null && now.size() == attributes.size() && now.lastModifiedTime().equals(attributes.lastModifiedTime());
+    }
+
     @Override
     public boolean markSupported() {
         return false;
@@ -87,9 +110,21 @@ public class HashingInputStream extends FilterInputStream {
 
     @Override
     public void close() throws IOException {
-        hash.update(path.getFileName().toString().getBytes(StandardCharsets.UTF_8));
+        long value;
+
+        if(cachedHash.isPresent()) {
+            value = cachedHash.getAsLong();
+            //The file changed while it was being read, so the data doesn't match the cached hash anymore
+            if(bytesWritten != attributes.size()) brokenFileHandler.handle(path, new IOException("File changed while being read"));
+        } else {
+            hash.update(path.getFileName().toString().getBytes(StandardCharsets.UTF_8));
+            value = hash.getValue();
+
+            if(attributes != null && bytesWritten == attributes.size() && isUnchanged(path, attributes))
+                hashBuilder.getCache().get().put(path, attributes, value);
+        }
 
-        hashBuilder.update(path, hash.getValue(), bytesWritten);
+        hashBuilder.update(path, value, bytesWritten);
 
         if(in.available() != 0) brokenFileHandler.handle(path, new DataLeftException(in.available()));
 
@@ -0,0 +1,49 @@
+/*
+ * A simple backup mod for Fabric
+ * Copyright (C)  2022   Szum123321
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package net.szum123321.textile_backup.core.digest;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/**
+ * Reads the data as little-endian longs straight out of the byte array. The four lanes are independent of each other,
+ * so keeping them in locals lets the CPU work on all of them at once.
+ */
+final class ScalarBalticRound implements BalticRound {
+    private final static VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    @Override
+    public void apply(long[] state, byte[] data, int off, int blocks) {
+        long s0 = state[0], s1 = state[1], s2 = state[2], s3 = state[3];
+
+        for(int i = 0; i < blocks; i++, off += BLOCK_SIZE) {
+            s0 = BalticHash.xorshift64star(s0 ^ (long) LONGS.get(data, off));
+            s1 = BalticHash.xorshift64star(s1 ^ (long) LONGS.get(data, off + Long.BYTES));
+            s2 = BalticHash.xorshift64star(s2 ^ (long) LONGS.get(data, off + 2 * Long.BYTES));
+            s3 = BalticHash.xorshift64star(s3 ^ (long) LONGS.get(data, off + 3 * Long.BYTES));
+        }
+
+        state[0] = s0;
+        state[1] = s1;
+        state[2] = s2;
+        state[3] = s3;
+    }
+}
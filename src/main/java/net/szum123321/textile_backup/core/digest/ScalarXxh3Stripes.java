@@ -0,0 +1,60 @@
+/*
+ * A simple backup mod for Fabric
+ * Copyright (C)  2022   Szum123321
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package net.szum123321.textile_backup.core.digest;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/**
+ * Same as {@link ScalarBalticRound}, the eight accumulators are kept in locals, so that the CPU can work on all of them at once.
+ */
+final class ScalarXxh3Stripes implements Xxh3Stripes {
+    private final static VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    private final static byte[] SECRET = Xxh3Hash.SECRET;
+
+    @Override
+    public void accumulate(long[] a, byte[] data, int off, int secretOff, int stripes) {
+        long a0 = a[0], a1 = a[1], a2 = a[2], a3 = a[3], a4 = a[4], a5 = a[5], a6 = a[6], a7 = a[7];
+
+        for(int i = 0; i < stripes; i++, off += STRIPE_LEN, secretOff += SECRET_CONSUME_RATE) {
+            long v0 = (long) LONGS.get(data, off), v1 = (long) LONGS.get(data, off + 8);
+            long v2 = (long) LONGS.get(data, off + 16), v3 = (long) LONGS.get(data, off + 24);
+            long v4 = (long) LONGS.get(data, off + 32), v5 = (long) LONGS.get(data, off + 40);
+            long v6 = (long) LONGS.get(data, off + 48), v7 = (long) LONGS.get(data, off + 56);
+
+            long k0 = v0 ^ (long) LONGS.get(SECRET, secretOff), k1 = v1 ^ (long) LONGS.get(SECRET, secretOff + 8);
+            long k2 = v2 ^ (long) LONGS.get(SECRET, secretOff + 16), k3 = v3 ^ (long) LONGS.get(SECRET, secretOff + 24);
+            long k4 = v4 ^ (long) LONGS.get(SECRET, secretOff + 32), k5 = v5 ^ (long) LONGS.get(SECRET, secretOff + 40);
+            long k6 = v6 ^ (long) LONGS.get(SECRET, secretOff + 48), k7 = v7 ^ (long) LONGS.get(SECRET, secretOff + 56);
+
+            a0 += v1 + (k0 & 0xFFFFFFFFL) * (k0 >>> 32);
+            a1 += v0 + (k1 & 0xFFFFFFFFL) * (k1 >>> 32);
+            a2 += v3 + (k2 & 0xFFFFFFFFL) * (k2 >>> 32);
+            a3 += v2 + (k3 & 0xFFFFFFFFL) * (k3 >>> 32);
+            a4 += v5 + (k4 & 0xFFFFFFFFL) * (k4 >>> 32);
+            a5 += v4 + (k5 & 0xFFFFFFFFL) * (k5 >>> 32);
+            a6 += v7 + (k6 & 0xFFFFFFFFL) * (k6 >>> 32);
+            a7 += v6 + (k7 & 0xFFFFFFFFL) * (k7 >>> 32);
+        }
+
+        a[0] = a0; a[1] = a1; a[2] = a2; a[3] = a3; a[4] = a4; a[5] = a5; a[6] = a6; a[7] = a7;
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * A simple backup mod for Fabric
+ * Copyright (C)  2022   Szum123321
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package net.szum123321.textile_backup.core.digest;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * File hash which can use more than one core. The data is split into fixed size segments, which get hashed concurrently
+ * on the common pool, and their hashes are combined with a Merkle tree. Each segment is hashed on its own, so the result
+ * doesn't depend on how many threads there are.
+ * <br>
+ * Files which fit into a single segment are hashed inline, and their hash is exactly the same as the one of the underlying
+ * {@link Hash}. Thus, the segment size only matters for the large files. It is stored in {@link net.szum123321.textile_backup.core.CompressionStatus},
+ * so that the backup can be verified the same way it was hashed.
+ */
+public class SegmentedHash implements Hash {
+    public final static int SEGMENT_SIZE = 4 * 1024 * 1024;
+    //With only a single core segments are hashed inline, which gives the same result without the copying
+    private final static boolean PARALLEL = ForkJoinPool.getCommonPoolParallelism() > 1;
+    //Bounds the memory used by a single file
+    private final static int MAX_IN_FLIGHT = Math.max(2, Math.min(4, ForkJoinPool.getCommonPoolParallelism()));
+
+    private final int segmentSize;
+    private final HashAlgorithm algorithm;
+    //First segment is always hashed inline, so that small files don't have to be copied
+    private final Hash head;
+    private final List<Long> leaves = new ArrayList<>();
+    //Tasks keep their segments alive, so they're dropped as soon as they are done
+    private final Queue<ForkJoinTask<Long>> pending = new ArrayDeque<>();
+    private final Queue<byte[]> freeSegments = new ConcurrentLinkedQueue<>();
+
+    private byte[] segment;
+    private Hash current;
+    private int segmentPosition = 0;
+    private long length = 0;
+    //Tail segment is consumed by the first getValue, so the root has to be kept for the next ones
+    private Long value = null;
+
+    public SegmentedHash(int segmentSize, HashAlgorithm algorithm) {
+        this.segmentSize = segmentSize;
+        this.algorithm = algorithm;
+        this.head = algorithm.create();
+    }
+
+    /**
+     * @return whether data of given length gets split into segments. Otherwise, its hash is identical to the plain one
+     */
+    public static boolean isSegmented(long length, long segmentSize) {
+        return segmentSize > 0 && length > segmentSize;
+    }
+
+    @Override
+    public void update(int b) {
+        if(length < segmentSize) head.update(b);
+        else if(PARALLEL) {
+            if(segment == null) segment = newSegment();
+            segment[segmentPosition++] = (byte) b;
+            if(segmentPosition == segmentSize) submit();
+        } else {
+            if(current == null) current = algorithm.create();
+            current.update(b);
+            if(++segmentPosition == segmentSize) closeCurrent();
+        }
+
+        length++;
+    }
+
+    @Override
+    public void update(long b) {
+        //Same as BalticHash, longs are treated as little-endian bytes
+        for(int i = 0; i < Long.BYTES; i++) update((int) (b >>> (i * 8)));
+    }
+
+    @Override
+    public void update(byte[] b, int off, int len) {
+        while(len > 0) {
+            int n;
+
+            if(length < segmentSize) {
+                n = (int) Math.min(len, segmentSize - length);
+                head.update(b, off, n);
+            } else if(PARALLEL) {
+                if(segment == null) segment = newSegment();
+                n = Math.min(len, segmentSize - segmentPosition);
+                System.arraycopy(b, off, segment, segmentPosition, n);
+                segmentPosition += n;
+                if(segmentPosition == segmentSize) submit();
+            } else {
+                if(current == null) current = algorithm.create();
+                n = Math.min(len, segmentSize - segmentPosition);
+                current.update(b, off, n);
+                segmentPosition += n;
+                if(segmentPosition == segmentSize) closeCurrent();
+            }
+
+            off += n;
+            len -= n;
+            length += n;
+        }
+    }
+
+    @Override
+    public long getValue() {
+        if(!isSegmented(length, segmentSize)) return head.getValue();
+        if(value != null) return value;
+
+        //Leaves have to stay in order, so the tail goes in last
+        while(!pending.isEmpty()) leaves.add(pending.poll().join());
+        if(segmentPosition > 0) {
+            if(PARALLEL) leaves.add(hashSegment(segment, segmentPosition));
+            else leaves.add(current.getValue());
+            segment = null;
+            current = null;
+            segmentPosition = 0;
+        }
+
+        long[] level = new long[leaves.size() + 1];
+        int n = 0;
+
+        level[n++] = head.getValue();
+        for(long leaf: leaves) level[n++] = leaf;
+
+        //Pairs are combined level by level, the odd one out is moved up as is
+        while(n > 1) {
+            int m = 0;
+            for(int i = 0; i + 1 < n; i += 2) level[m++] = combine(level[i], level[i + 1]);
+            if((n & 1) == 1) level[m++] = level[n - 1];
+            n = m;
+        }
+
+        value = combine(level[0], length);
+        return value;
+    }
+
+    private void submit() {
+        final byte[] data = segment;
+        pending.add(ForkJoinPool.commonPool().submit(() -> {
+            long h = hashSegment(data, data.length);
+            freeSegments.add(data);
+            return h;
+        }));
+
+        segment = null;
+        segmentPosition = 0;
+
+        //Wait for the oldest one to finish, so that we don't run out of memory when the reader is faster than the hashing
+        while(pending.size() > MAX_IN_FLIGHT) leaves.add(pending.poll().join());
+    }
+
+    private void closeCurrent() {
+        leaves.add(current.getValue());
+        current = null;
+        segmentPosition = 0;
+    }
+
+    private byte[] newSegment() {
+        byte[] s = freeSegments.poll();
+        return s != null ? s : new byte[segmentSize];
+    }
+
+    private long hashSegment(byte[] data, int len) {
+        Hash h = algorithm.create();
+        h.update(data, 0, len);
+        return h.getValue();
+    }
+
+    private long combine(long a, long b) {
+        Hash h = algorithm.create();
+        h.update(a);
+        h.update(b);
+        return h.getValue();
+    }
+}
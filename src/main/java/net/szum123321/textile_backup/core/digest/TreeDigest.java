@@ -0,0 +1,201 @@
+/*
+ * A simple backup mod for Fabric
+ * Copyright (C)  2022   Szum123321
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package net.szum123321.textile_backup.core.digest;
+
+import net.szum123321.textile_backup.core.Utilities;
+import net.szum123321.textile_backup.core.create.BrokenFileHandler;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Hashes of all the files of a backup, keyed by their path relative to the world root, with '/' as the separator.
+ * It is stored in {@link net.szum123321.textile_backup.core.CompressionStatus}, so that on a mismatch we can tell
+ * exactly which files are damaged, rather than just that something is.
+ * <br>
+ * Directories form a Merkle tree. Hash of a directory is calculated from the names and hashes of its children, in order,
+ * thus a part of the world (i.e. a single dimension) can be verified on its own.
+ */
+public record TreeDigest(SortedMap<String, Long> entries) implements Serializable {
+    public static String toEntryName(Path root, Path file) {
+        StringJoiner joiner = new StringJoiner("/");
+        for(Path p: root.relativize(file)) joiner.add(p.toString());
+        return joiner.toString();
+    }
+
+    /**
+     * @param directory relative path of the directory, empty for the whole tree
+     */
+    public TreeDigest subtree(String directory) {
+        if(directory.isEmpty()) return this;
+
+        String prefix = directory.endsWith("/") ? directory : directory + "/";
+        //Every path starting with the prefix sorts between these two
+        return new TreeDigest(new TreeMap<>(entries.subMap(prefix, prefix + Character.MAX_VALUE)));
+    }
+
+    public long subtreeHash(String directory) {
+        var list = List.copyOf(subtree(directory).entries().entrySet());
+        String prefix = directory.isEmpty() || directory.endsWith("/") ? directory : directory + "/";
+        return hashDirectory(list, 0, list.size(), prefix.length());
+    }
+
+    /**
+     * @param actual digest of the files that were actually found
+     */
+    public Difference compare(TreeDigest actual) {
+        List<String> damaged = new ArrayList<>(), missing = new ArrayList<>(), unexpected = new ArrayList<>();
+
+        entries.forEach((name, hash) -> {
+            Long other = actual.entries().get(name);
+            if(other == null) missing.add(name);
+            else if(other.longValue() != hash) damaged.add(name);
+        });
+
+        actual.entries().keySet().stream().filter(name -> !entries.containsKey(name)).forEach(unexpected::add);
+
+        return new Difference(damaged, missing, unexpected);
+    }
+
+    /**
+     * Hashes the files of <code>directory</code> found in <code>root</code> on <code>threads</code> threads and compares
+     * them against this digest. Only the files of the directory are read.
+     *
+     * @param segmentSize as stored in the {@link net.szum123321.textile_backup.core.CompressionStatus}
+     * @param algorithm as stored in the {@link net.szum123321.textile_backup.core.CompressionStatus}
+     * @param cache files it knows to be unchanged aren't read at all. Null to hash everything
+     */
+    public Difference verify(Path root, String directory, int segmentSize, HashAlgorithm algorithm, int threads, HashCache cache) throws IOException, InterruptedException {
+        TreeDigest expected = subtree(directory);
+        Path start = directory.isEmpty() ? root : root.resolve(directory);
+
+        List<Path> files;
+        if(Files.isDirectory(start)) {
+            try(var stream = Files.walk(start)) {
+                files = stream.filter(Files::isRegularFile)
+                        .filter(f -> !Utilities.isBlacklisted(root.relativize(f)))
+                        .toList();
+            }
+        } else files = List.of();
+
+        FileTreeHashBuilder builder = new FileTreeHashBuilder(files.size(), segmentSize, algorithm);
+        builder.setCache(cache);
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads));
+
+        try {
+            List<Future<Void>> futures = new ArrayList<>();
+            for(Path file: files) futures.add(executor.submit(() -> {
+                hashFile(file, builder);
+                return null;
+            }));
+
+            for(Future<Void> f: futures) f.get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException io ? io : new IOException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        TreeDigest actual = builder.getDigest(root);
+
+        //Quick path, no need to go file by file if the trees match
+        if(expected.subtreeHash(directory) == actual.subtreeHash(directory)) return new Difference(List.of(), List.of(), List.of());
+
+        return expected.compare(actual);
+    }
+
+    public record Difference(List<String> damaged, List<String> missing, List<String> unexpected) {
+        private final static int MAX_LISTED = 10;
+
+        public boolean isEmpty() { return damaged.isEmpty() && missing.isEmpty() && unexpected.isEmpty(); }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder();
+            append(builder, "Damaged", damaged);
+            append(builder, "Missing", missing);
+            append(builder, "Unexpected", unexpected);
+            return builder.toString();
+        }
+
+        private static void append(StringBuilder builder, String what, List<String> files) {
+            if(files.isEmpty()) return;
+
+            builder.append("\n  ").append(what).append(" files (").append(files.size()).append("): ");
+            builder.append(String.join(", ", files.subList(0, Math.min(MAX_LISTED, files.size()))));
+            if(files.size() > MAX_LISTED) builder.append(", ...");
+        }
+    }
+
+    private static void hashFile(Path file, FileTreeHashBuilder builder) throws IOException {
+        if(builder.getCache().isPresent()) {
+            BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+            OptionalLong cached = builder.getCache().get().get(file, attrs);
+            if(cached.isPresent()) {
+                builder.update(file, cached.getAsLong(), attrs.size());
+                return;
+            }
+        }
+
+        byte[] buffer = new byte[64 * 1024];
+
+        //HashingInputStream submits the hash to the builder once closed
+        try(InputStream in = new HashingInputStream(Files.newInputStream(file), file, builder, new BrokenFileHandler())) {
+            while(in.read(buffer) != -1);
+        }
+    }
+
+    private static long hashDirectory(List<Map.Entry<String, Long>> list, int from, int to, int prefixLength) {
+        //Directory hashes are never stored, so they don't have to match the algorithm of the backup
+        Hash hash = HashAlgorithm.BALTIC.create();
+
+        int i = from;
+        while(i < to) {
+            String name = list.get(i).getKey();
+            int slash = name.indexOf('/', prefixLength);
+
+            if(slash < 0) {
+                hash.update(name.substring(prefixLength).getBytes(StandardCharsets.UTF_8));
+                hash.update(list.get(i).getValue());
+                i++;
+            } else {
+                //All the files of a subdirectory are next to each other, as the entries are sorted
+                String directory = name.substring(0, slash + 1);
+                int j = i;
+                while(j < to && list.get(j).getKey().startsWith(directory)) j++;
+
+                hash.update(directory.substring(prefixLength).getBytes(StandardCharsets.UTF_8));
+                hash.update(hashDirectory(list, i, j, slash + 1));
+                i = j;
+            }
+        }
+
+        hash.update((long) (to - from));
+
+        return hash.getValue();
+    }
+}
@@ -0,0 +1,282 @@
+/*
+ * A simple backup mod for Fabric
+ * Copyright (C)  2022   Szum123321
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package net.szum123321.textile_backup.core.digest;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/**
+ * Streaming <a href="https://github.com/Cyan4973/xxHash">XXH3-64</a> with the default secret and seed 0.
+ * Gives the same values as XXH3_64bits of the reference implementation.
+ * <br>
+ * Data is buffered in 256-byte pieces, which are consumed as 4 stripes at a time. Just like in the reference
+ * implementation, the last stripe is only processed once we know it's the last one.
+ */
+public class Xxh3Hash implements Hash {
+    private final static VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    private final static VarHandle INTS = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private final static long PRIME32_1 = 0x9E3779B1L, PRIME32_2 = 0x85EBCA77L, PRIME32_3 = 0xC2B2AE3DL;
+    private final static long PRIME64_1 = 0x9E3779B185EBCA87L, PRIME64_2 = 0xC2B2AE3D27D4EB4FL, PRIME64_3 = 0x165667B19E3779F9L,
+            PRIME64_4 = 0x85EBCA77C2B2AE63L, PRIME64_5 = 0x27D4EB2F165667C5L;
+    private final static long PRIME_MX1 = 0x165667919E3779F9L, PRIME_MX2 = 0x9FB21C651E98DF25L;
+
+    //Default secret of the reference implementation
+    final static byte[] SECRET = {
+            (byte) 0xb8, (byte) 0xfe, (byte) 0x6c, (byte) 0x39, (byte) 0x23, (byte) 0xa4, (byte) 0x4b, (byte) 0xbe, (byte) 0x7c, (byte) 0x01, (byte) 0x81, (byte) 0x2c, (byte) 0xf7, (byte) 0x21, (byte) 0xad, (byte) 0x1c,
+            (byte) 0xde, (byte) 0xd4, (byte) 0x6d, (byte) 0xe9, (byte) 0x83, (byte) 0x90, (byte) 0x97, (byte) 0xdb, (byte) 0x72, (byte) 0x40, (byte) 0xa4, (byte) 0xa4, (byte) 0xb7, (byte) 0xb3, (byte) 0x67, (byte) 0x1f,
+            (byte) 0xcb, (byte) 0x79, (byte) 0xe6, (byte) 0x4e, (byte) 0xcc, (byte) 0xc0, (byte) 0xe5, (byte) 0x78, (byte) 0x82, (byte) 0x5a, (byte) 0xd0, (byte) 0x7d, (byte) 0xcc, (byte) 0xff, (byte) 0x72, (byte) 0x21,
+            (byte) 0xb8, (byte) 0x08, (byte) 0x46, (byte) 0x74, (byte) 0xf7, (byte) 0x43, (byte) 0x24, (byte) 0x8e, (byte) 0xe0, (byte) 0x35, (byte) 0x90, (byte) 0xe6, (byte) 0x81, (byte) 0x3a, (byte) 0x26, (byte) 0x4c,
+            (byte) 0x3c, (byte) 0x28, (byte) 0x52, (byte) 0xbb, (byte) 0x91, (byte) 0xc3, (byte) 0x00, (byte) 0xcb, (byte) 0x88, (byte) 0xd0, (byte) 0x65, (byte) 0x8b, (byte) 0x1b, (byte) 0x53, (byte) 0x2e, (byte) 0xa3,
+            (byte) 0x71, (byte) 0x64, (byte) 0x48, (byte) 0x97, (byte) 0xa2, (byte) 0x0d, (byte) 0xf9, (byte) 0x4e, (byte) 0x38, (byte) 0x19, (byte) 0xef, (byte) 0x46, (byte) 0xa9, (byte) 0xde, (byte) 0xac, (byte) 0xd8,
+            (byte) 0xa8, (byte) 0xfa, (byte) 0x76, (byte) 0x3f, (byte) 0xe3, (byte) 0x9c, (byte) 0x34, (byte) 0x3f, (byte) 0xf9, (byte) 0xdc, (byte) 0xbb, (byte) 0xc7, (byte) 0xc7, (byte) 0x0b, (byte) 0x4f, (byte) 0x1d,
+            (byte) 0x8a, (byte) 0x51, (byte) 0xe0, (byte) 0x4b, (byte) 0xcd, (byte) 0xb4, (byte) 0x59, (byte) 0x31, (byte) 0xc8, (byte) 0x9f, (byte) 0x7e, (byte) 0xc9, (byte) 0xd9, (byte) 0x78, (byte) 0x73, (byte) 0x64,
+            (byte) 0xea, (byte) 0xc5, (byte) 0xac, (byte) 0x83, (byte) 0x34, (byte) 0xd3, (byte) 0xeb, (byte) 0xc3, (byte) 0xc5, (byte) 0x81, (byte) 0xa0, (byte) 0xff, (byte) 0xfa, (byte) 0x13, (byte) 0x63, (byte) 0xeb,
+            (byte) 0x17, (byte) 0x0d, (byte) 0xdd, (byte) 0x51, (byte) 0xb7, (byte) 0xf0, (byte) 0xda, (byte) 0x49, (byte) 0xd3, (byte) 0x16, (byte) 0x55, (byte) 0x26, (byte) 0x29, (byte) 0xd4, (byte) 0x68, (byte) 0x9e,
+            (byte) 0x2b, (byte) 0x16, (byte) 0xbe, (byte) 0x58, (byte) 0x7d, (byte) 0x47, (byte) 0xa1, (byte) 0xfc, (byte) 0x8f, (byte) 0xf8, (byte) 0xb8, (byte) 0xd1, (byte) 0x7a, (byte) 0xd0, (byte) 0x31, (byte) 0xce,
+            (byte) 0x45, (byte) 0xcb, (byte) 0x3a, (byte) 0x8f, (byte) 0x95, (byte) 0x16, (byte) 0x04, (byte) 0x28, (byte) 0xaf, (byte) 0xd7, (byte) 0xfb, (byte) 0xca, (byte) 0xbb, (byte) 0x4b, (byte) 0x40, (byte) 0x7e,
+    };
+
+    final static int STRIPE_LEN = 64;
+    final static int SECRET_CONSUME_RATE = 8;
+    private final static int STRIPES_PER_BLOCK = (SECRET.length - STRIPE_LEN) / SECRET_CONSUME_RATE;
+    private final static int BUFFER_SIZE = 256;
+    private final static int STRIPES_PER_BUFFER = BUFFER_SIZE / STRIPE_LEN;
+    private final static int MIDSIZE_MAX = 240;
+    //Stripes are accumulated straight from the caller's array. Must come after the secret, as it's needed to pick one
+    private final static Xxh3Stripes STRIPES = Xxh3Stripes.get();
+
+    private final long[] acc = initialAccumulators();
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private final byte[] scratch = new byte[Long.BYTES];
+    private int bufferedSize = 0;
+    private int stripesSoFar = 0;
+    private long totalLength = 0;
+
+    @Override
+    public void update(int b) {
+        scratch[0] = (byte) b;
+        update(scratch, 0, 1);
+    }
+
+    @Override
+    public void update(long b) {
+        LONGS.set(scratch, 0, b);
+        update(scratch, 0, Long.BYTES);
+    }
+
+    @Override
+    public void update(byte[] data, int off, int len) {
+        totalLength += len;
+
+        if(len <= BUFFER_SIZE - bufferedSize) {
+            System.arraycopy(data, off, buffer, bufferedSize, len);
+            bufferedSize += len;
+            return;
+        }
+
+        //There's more data coming, so the buffer can be consumed
+        if(bufferedSize > 0) {
+            int n = BUFFER_SIZE - bufferedSize;
+            System.arraycopy(data, off, buffer, bufferedSize, n);
+            off += n;
+            len -= n;
+            consumeStripes(acc, buffer, 0, STRIPES_PER_BUFFER);
+            bufferedSize = 0;
+        }
+
+        if(len > BUFFER_SIZE) {
+            do {
+                consumeStripes(acc, data, off, STRIPES_PER_BUFFER);
+                off += BUFFER_SIZE;
+                len -= BUFFER_SIZE;
+            } while(len > BUFFER_SIZE);
+
+            //The last stripe might be needed to form the final one, see getValue
+            System.arraycopy(data, off - STRIPE_LEN, buffer, BUFFER_SIZE - STRIPE_LEN, STRIPE_LEN);
+        }
+
+        System.arraycopy(data, off, buffer, 0, len);
+        bufferedSize = len;
+    }
+
+    @Override
+    public long getValue() {
+        if(totalLength <= MIDSIZE_MAX) return hashShort(buffer, (int) totalLength);
+
+        long[] a = acc.clone();
+        int savedStripes = stripesSoFar;
+        byte[] lastStripe;
+        int lastOff;
+
+        if(bufferedSize >= STRIPE_LEN) {
+            consumeStripes(a, buffer, 0, (bufferedSize - 1) / STRIPE_LEN);
+            lastStripe = buffer;
+            lastOff = bufferedSize - STRIPE_LEN;
+        } else {
+            //Last stripe is made from the end of the previous buffer and what's in there now
+            lastStripe = new byte[STRIPE_LEN];
+            int catchup = STRIPE_LEN - bufferedSize;
+            System.arraycopy(buffer, BUFFER_SIZE - catchup, lastStripe, 0, catchup);
+            System.arraycopy(buffer, 0, lastStripe, catchup, bufferedSize);
+            lastOff = 0;
+        }
+        stripesSoFar = savedStripes;
+
+        accumulate512(a, lastStripe, lastOff, SECRET.length - STRIPE_LEN - 7);
+
+        return mergeAccumulators(a, 11, totalLength * PRIME64_1);
+    }
+
+    private void consumeStripes(long[] a, byte[] data, int off, int stripes) {
+        if(STRIPES_PER_BLOCK - stripesSoFar <= stripes) {
+            int toEnd = STRIPES_PER_BLOCK - stripesSoFar;
+            STRIPES.accumulate(a, data, off, stripesSoFar * SECRET_CONSUME_RATE, toEnd);
+            scramble(a);
+            STRIPES.accumulate(a, data, off + toEnd * STRIPE_LEN, 0, stripes - toEnd);
+            stripesSoFar = stripes - toEnd;
+        } else {
+            STRIPES.accumulate(a, data, off, stripesSoFar * SECRET_CONSUME_RATE, stripes);
+            stripesSoFar += stripes;
+        }
+    }
+
+    private static void accumulate512(long[] a, byte[] data, int off, int secretOff) {
+        for(int i = 0; i < 8; i++) {
+            long value = (long) LONGS.get(data, off + 8 * i);
+            long key = value ^ (long) LONGS.get(SECRET, secretOff + 8 * i);
+            a[i ^ 1] += value;
+            a[i] += (key & 0xFFFFFFFFL) * (key >>> 32);
+        }
+    }
+
+    private static void scramble(long[] a) {
+        int secretOff = SECRET.length - STRIPE_LEN;
+        for(int i = 0; i < 8; i++) {
+            long x = a[i];
+            x ^= x >>> 47;
+            x ^= (long) LONGS.get(SECRET, secretOff + 8 * i);
+            a[i] = x * PRIME32_1;
+        }
+    }
+
+    private static long mergeAccumulators(long[] a, int secretOff, long start) {
+        long result = start;
+        for(int i = 0; i < 4; i++)
+            result += mul128Fold64(
+                    a[2 * i] ^ (long) LONGS.get(SECRET, secretOff + 16 * i),
+                    a[2 * i + 1] ^ (long) LONGS.get(SECRET, secretOff + 16 * i + 8)
+            );
+        return avalanche(result);
+    }
+
+    //Inputs of up to 240 bytes are hashed in one go
+    private static long hashShort(byte[] data, int len) {
+        if(len == 0) return avalanche64((long) LONGS.get(SECRET, 56) ^ (long) LONGS.get(SECRET, 64));
+
+        if(len <= 3) {
+            int c1 = data[0] & 0xFF, c2 = data[len >> 1] & 0xFF, c3 = data[len - 1] & 0xFF;
+            long combined = ((c1 << 16) | (c2 << 24) | c3 | (len << 8)) & 0xFFFFFFFFL;
+            long bitflip = ((int) INTS.get(SECRET, 0) ^ (int) INTS.get(SECRET, 4)) & 0xFFFFFFFFL;
+            return avalanche64(combined ^ bitflip);
+        }
+
+        if(len <= 8) {
+            long input1 = (int) INTS.get(data, 0) & 0xFFFFFFFFL, input2 = (int) INTS.get(data, len - 4) & 0xFFFFFFFFL;
+            long bitflip = (long) LONGS.get(SECRET, 8) ^ (long) LONGS.get(SECRET, 16);
+            long keyed = (input2 + (input1 << 32)) ^ bitflip;
+            return rrmxmx(keyed, len);
+        }
+
+        if(len <= 16) {
+            long bitflip1 = (long) LONGS.get(SECRET, 24) ^ (long) LONGS.get(SECRET, 32);
+            long bitflip2 = (long) LONGS.get(SECRET, 40) ^ (long) LONGS.get(SECRET, 48);
+            long lo = (long) LONGS.get(data, 0) ^ bitflip1;
+            long hi = (long) LONGS.get(data, len - 8) ^ bitflip2;
+            return avalanche(len + Long.reverseBytes(lo) + hi + mul128Fold64(lo, hi));
+        }
+
+        long acc = len * PRIME64_1;
+
+        if(len <= 128) {
+            if(len > 32) {
+                if(len > 64) {
+                    if(len > 96) {
+                        acc += mix16(data, 48, 96);
+                        acc += mix16(data, len - 64, 112);
+                    }
+                    acc += mix16(data, 32, 64);
+                    acc += mix16(data, len - 48, 80);
+                }
+                acc += mix16(data, 16, 32);
+                acc += mix16(data, len - 32, 48);
+            }
+            acc += mix16(data, 0, 0);
+            acc += mix16(data, len - 16, 16);
+            return avalanche(acc);
+        }
+
+        for(int i = 0; i < 8; i++) acc += mix16(data, 16 * i, 16 * i);
+        long accEnd = mix16(data, len - 16, 136 - 17);
+        acc = avalanche(acc);
+        for(int i = 8; i < len / 16; i++) accEnd += mix16(data, 16 * i, 16 * (i - 8) + 3);
+        return avalanche(acc + accEnd);
+    }
+
+    private static long mix16(byte[] data, int off, int secretOff) {
+        return mul128Fold64(
+                (long) LONGS.get(data, off) ^ (long) LONGS.get(SECRET, secretOff),
+                (long) LONGS.get(data, off + 8) ^ (long) LONGS.get(SECRET, secretOff + 8)
+        );
+    }
+
+    //Low and high halves of the unsigned 128-bit product, xored together
+    private static long mul128Fold64(long a, long b) {
+        long high = Math.multiplyHigh(a, b) + ((a >> 63) & b) + ((b >> 63) & a);
+        return (a * b) ^ high;
+    }
+
+    private static long avalanche(long h) {
+        h ^= h >>> 37;
+        h *= PRIME_MX1;
+        return h ^ (h >>> 32);
+    }
+
+    private static long avalanche64(long h) {
+        h ^= h >>> 33;
+        h *= PRIME64_2;
+        h ^= h >>> 29;
+        h *= PRIME64_3;
+        return h ^ (h >>> 32);
+    }
+
+    private static long rrmxmx(long h, long len) {
+        h ^= Long.rotateLeft(h, 49) ^ Long.rotateLeft(h, 24);
+        h *= PRIME_MX2;
+        h ^= (h >>> 35) + len;
+        h *= PRIME_MX2;
+        return h ^ (h >>> 28);
+    }
+
+    static long[] initialAccumulators() {
+        return new long[] { PRIME32_3, PRIME64_1, PRIME64_2, PRIME64_3, PRIME64_4, PRIME32_2, PRIME64_5, PRIME32_1 };
+    }
+}
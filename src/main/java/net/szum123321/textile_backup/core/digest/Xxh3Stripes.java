@@ -0,0 +1,75 @@
+/*
+ * A simple backup mod for Fabric
+ * Copyright (C)  2022   Szum123321
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package net.szum123321.textile_backup.core.digest;
+
+import net.szum123321.textile_backup.TextileBackup;
+import net.szum123321.textile_backup.TextileLogger;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Accumulates whole 64-byte stripes of {@link Xxh3Hash}, which is where nearly all the time goes for longer inputs.
+ * Picked the same way as {@link BalticRound}: the Vector API variant if it's available, the scalar one otherwise.
+ */
+interface Xxh3Stripes {
+    int STRIPE_LEN = Xxh3Hash.STRIPE_LEN;
+    int SECRET_CONSUME_RATE = Xxh3Hash.SECRET_CONSUME_RATE;
+
+    /**
+     * @param secretOff offset into the secret of the first stripe, each next one moves it by {@link #SECRET_CONSUME_RATE}
+     */
+    void accumulate(long[] acc, byte[] data, int off, int secretOff, int stripes);
+
+    static Xxh3Stripes get() {
+        TextileLogger log = new TextileLogger(TextileBackup.MOD_NAME);
+        Xxh3Stripes scalar = new ScalarXxh3Stripes();
+
+        try {
+            Xxh3Stripes vector = (Xxh3Stripes) Class.forName(Xxh3Stripes.class.getPackageName() + ".VectorXxh3Stripes")
+                    .getDeclaredConstructor()
+                    .newInstance();
+
+            if(isEquivalent(vector, scalar)) {
+                log.debug("Using Vector API for XXH3");
+                return vector;
+            }
+
+            log.warn("Vector API XXH3 implementation gave a wrong result! Falling back to the scalar one");
+        } catch (Throwable e) {
+            log.debug("Vector API is unavailable for XXH3. {}", e.toString());
+        }
+
+        return scalar;
+    }
+
+    private static boolean isEquivalent(Xxh3Stripes a, Xxh3Stripes b) {
+        byte[] data = new byte[STRIPE_LEN * 13 + 5];
+        new Random(2137).nextBytes(data);
+
+        long[] accA = Xxh3Hash.initialAccumulators();
+        long[] accB = Xxh3Hash.initialAccumulators();
+
+        a.accumulate(accA, data, 5, 3 * SECRET_CONSUME_RATE, 13);
+        b.accumulate(accB, data, 5, 3 * SECRET_CONSUME_RATE, 13);
+
+        return Arrays.equals(accA, accB);
+    }
+}
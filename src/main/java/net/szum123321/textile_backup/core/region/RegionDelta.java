@@ -0,0 +1,181 @@
+/*
+ * A simple backup mod for Fabric
+ * Copyright (C)  2022   Szum123321
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package net.szum123321.textile_backup.core.region;
+
+import net.szum123321.textile_backup.core.digest.FileTreeHashBuilder;
+import net.szum123321.textile_backup.core.digest.HashingOutputStream;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Chunk-level delta of an Anvil region (.mca) file.
+ * <br>
+ * Region file starts with an 8 KiB header: 1024 big-endian ints describing location of every chunk
+ * (3 bytes of sector offset and 1 byte of sector count, sector being 4 KiB), followed by 1024 timestamps.
+ * Each chunk occupies a continuous span of sectors. We hash every span separately, so that the next incremental backup
+ * can store only the spans which have changed, and reference the rest from the region file restored from its parent.
+ * <br>
+ * Delta is a list of operations which rebuild the new file byte for byte: either copy the span of chunk <i>n</i> from
+ * the old file, or insert literal bytes (header, changed chunks, unused sectors).
+ */
+public class RegionDelta {
+    public static final String REGION_EXTENSION = ".mca";
+    public static final String DELTA_EXTENSION = ".delta";
+
+    private static final int MAGIC = 0x54585244; //TXRD
+    private static final int SECTOR_SIZE = 4096;
+    static final int CHUNK_COUNT = 1024;
+    static final int HEADER_SIZE = 2 * SECTOR_SIZE;
+
+    private static final byte OP_END = 0, OP_LITERAL = 1, OP_COPY = 2;
+
+    public static boolean isRegionFile(String name) {
+        return name.endsWith(REGION_EXTENSION);
+    }
+
+    static int spanStart(int location) { return (location >>> 8) * SECTOR_SIZE; }
+
+    static int spanLength(int location) { return (location & 0xFF) * SECTOR_SIZE; }
+
+    /**
+     * @param file contents of the new region file
+     * @param hashes span hashes of the new file, as calculated by {@link RegionHashingInputStream}. Null if the file is not a valid region file
+     * @param baseHashes span hashes of the file from the previous backup
+     */
+    public static byte[] create(byte[] file, long[] hashes, long[] baseHashes) throws IOException {
+        //Spans which can be copied from the old file, sorted by their position in the new one
+        List<int[]> copies = new ArrayList<>();
+
+        if(hashes != null) {
+            ByteBuffer header = ByteBuffer.wrap(file, 0, HEADER_SIZE);
+
+            for(int i = 0; i < CHUNK_COUNT; i++) {
+                if(hashes[i] != 0 && hashes[i] == baseHashes[i]) {
+                    int location = header.getInt(i * 4);
+                    copies.add(new int[]{ spanStart(location), spanLength(location), i });
+                }
+            }
+        }
+
+        copies.sort((a, b) -> Integer.compare(a[0], b[0]));
+
+        ByteArrayOutputStream bo = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bo);
+
+        out.writeInt(MAGIC);
+        out.writeLong(file.length);
+
+        int pos = 0;
+        for(int[] copy: copies) {
+            if(copy[0] > pos) writeLiteral(out, file, pos, copy[0] - pos);
+            out.writeByte(OP_COPY);
+            out.writeShort(copy[2]);
+            out.writeInt(copy[1]);
+            pos = copy[0] + copy[1];
+        }
+
+        if(pos < file.length) writeLiteral(out, file, pos, file.length - pos);
+        out.writeByte(OP_END);
+        out.flush();
+
+        return bo.toByteArray();
+    }
+
+    private static void writeLiteral(DataOutputStream out, byte[] file, int off, int len) throws IOException {
+        out.writeByte(OP_LITERAL);
+        out.writeInt(len);
+        out.write(file, off, len);
+    }
+
+    /**
+     * Rebuilds region files from all the deltas present in the directory. The old versions of these files have to be there already.
+     * Hashes of the rebuilt files replace the hashes of deltas in the <code>hashBuilder</code>
+     */
+    public static void applyAll(Path root, FileTreeHashBuilder hashBuilder) throws IOException {
+        List<Path> deltas;
+
+        try(Stream<Path> stream = Files.walk(root)) {
+            deltas = stream.filter(Files::isRegularFile)
+                    .filter(f -> f.getFileName().toString().endsWith(REGION_EXTENSION + DELTA_EXTENSION))
+                    .toList();
+        }
+
+        for(Path delta: deltas) {
+            String name = delta.getFileName().toString();
+            Path target = delta.resolveSibling(name.substring(0, name.length() - DELTA_EXTENSION.length()));
+
+            apply(delta, target, hashBuilder);
+
+            Files.delete(delta);
+            hashBuilder.remove(delta);
+        }
+    }
+
+    private static void apply(Path delta, Path target, FileTreeHashBuilder hashBuilder) throws IOException {
+        if(Files.notExists(target)) throw new FileNotFoundException("Region file " + target + " is missing, can't apply the delta!");
+
+        byte[] base = Files.readAllBytes(target);
+        ByteBuffer baseHeader = ByteBuffer.wrap(base, 0, Math.min(base.length, HEADER_SIZE));
+        Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+
+        try(DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(delta)));
+            HashingOutputStream out = new HashingOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)), target, hashBuilder)) {
+            if(in.readInt() != MAGIC) throw new IOException("Not a region delta: " + delta);
+
+            final long length = in.readLong();
+            long written = 0;
+
+            byte op;
+            while((op = in.readByte()) != OP_END) {
+                switch (op) {
+                    case OP_LITERAL -> {
+                        int len = in.readInt();
+                        byte[] buf = new byte[len];
+                        in.readFully(buf);
+                        out.write(buf);
+                        written += len;
+                    }
+                    case OP_COPY -> {
+                        int index = in.readUnsignedShort(), len = in.readInt();
+                        if(base.length < HEADER_SIZE) throw new IOException("Region file " + target + " is corrupted!");
+
+                        int location = baseHeader.getInt(index * 4), start = spanStart(location);
+                        if(spanLength(location) != len || (long) start + len > base.length)
+                            throw new IOException("Region file " + target + " doesn't match the delta!");
+
+                        out.write(base, start, len);
+                        written += len;
+                    }
+                    default -> throw new IOException("Unknown delta operation: " + op);
+                }
+            }
+
+            if(written != length) throw new IOException("Region file " + target + " has wrong length after applying the delta!");
+        }
+
+        Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+    }
+}
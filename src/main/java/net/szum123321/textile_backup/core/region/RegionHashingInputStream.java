@@ -0,0 +1,165 @@
+/*
+ * A simple backup mod for Fabric
+ * Copyright (C)  2022   Szum123321
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package net.szum123321.textile_backup.core.region;
+
+import net.szum123321.textile_backup.core.digest.Hash;
+import net.szum123321.textile_backup.core.digest.HashAlgorithm;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.function.Consumer;
+
+/**
+ * Calculates hashes of all the chunk spans of a region file as it's being read. See {@link RegionDelta}
+ * <br>
+ * Once closed, passes the hashes to the consumer. If the file turns out not to be a valid region file, null is passed instead.
+ */
+public class RegionHashingInputStream extends FilterInputStream {
+    private final Consumer<long[]> consumer;
+    private final HashAlgorithm algorithm;
+    private final byte[] header = new byte[RegionDelta.HEADER_SIZE];
+    private final Hash[] hashes = new Hash[RegionDelta.CHUNK_COUNT];
+
+    //Spans sorted by their position, as {start, end, chunk index}
+    private int[][] spans;
+    private int current = 0;
+    private long position = 0;
+    private boolean valid = true;
+
+    public RegionHashingInputStream(InputStream in, HashAlgorithm algorithm, Consumer<long[]> consumer) {
+        super(in);
+        this.algorithm = algorithm;
+        this.consumer = consumer;
+    }
+
+    @Override
+    public int read(byte @NotNull [] b, int off, int len) throws IOException {
+        int i = in.read(b, off, len);
+        if(i > 0) update(b, off, i);
+        return i;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int i = in.read();
+        if(i != -1) update(new byte[]{ (byte) i }, 0, 1);
+        return i;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    private void update(byte[] b, int off, int len) {
+        if(!valid) return;
+
+        if(position < header.length) {
+            int n = (int) Math.min(len, header.length - position);
+            System.arraycopy(b, off, header, (int) position, n);
+            position += n;
+            off += n;
+            len -= n;
+
+            if(position == header.length) parseHeader();
+        }
+
+        while(len > 0 && valid && current < spans.length) {
+            int[] span = spans[current];
+
+            if(position >= span[1]) {
+                current++;
+                continue;
+            }
+
+            if(position < span[0]) {
+                //Unused sectors
+                int n = (int) Math.min(len, span[0] - position);
+                position += n;
+                off += n;
+                len -= n;
+                continue;
+            }
+
+            int n = (int) Math.min(len, span[1] - position);
+            hashes[span[2]].update(b, off, n);
+            position += n;
+            off += n;
+            len -= n;
+        }
+
+        position += len;
+    }
+
+    private void parseHeader() {
+        ByteBuffer buffer = ByteBuffer.wrap(header);
+
+        spans = new int[RegionDelta.CHUNK_COUNT][];
+        int count = 0;
+
+        for(int i = 0; i < RegionDelta.CHUNK_COUNT; i++) {
+            int location = buffer.getInt(i * 4);
+            if(location == 0) continue;
+
+            int start = RegionDelta.spanStart(location), length = RegionDelta.spanLength(location);
+            if(start < RegionDelta.HEADER_SIZE || length == 0) {
+                valid = false;
+                return;
+            }
+
+            spans[count++] = new int[]{ start, start + length, i };
+            hashes[i] = algorithm.create();
+        }
+
+        spans = Arrays.copyOf(spans, count);
+        Arrays.sort(spans, Comparator.comparingInt(s -> s[0]));
+
+        for(int i = 1; i < spans.length; i++) {
+            if(spans[i][0] < spans[i - 1][1]) {
+                valid = false;
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        //The file must have been read completely, and all the spans must fit in it
+        if(valid && spans != null && in.available() == 0 && (spans.length == 0 || spans[spans.length - 1][1] <= position)) {
+            long[] result = new long[RegionDelta.CHUNK_COUNT];
+
+            for(int i = 0; i < result.length; i++) {
+                if(hashes[i] == null) continue;
+                //0 is reserved for absent chunks
+                result[i] = hashes[i].getValue() == 0 ? 1 : hashes[i].getValue();
+            }
+
+            consumer.accept(result);
+        } else {
+            consumer.accept(null);
+        }
+
+        super.close();
+    }
+}
@@ -24,9 +24,17 @@ import net.szum123321.textile_backup.TextileLogger;
 import net.szum123321.textile_backup.config.ConfigHelper;
 import net.szum123321.textile_backup.config.ConfigPOJO;
 import net.szum123321.textile_backup.core.ActionInitiator;
+import net.szum123321.textile_backup.core.BackupManifest;
 import net.szum123321.textile_backup.core.CompressionStatus;
+import net.szum123321.textile_backup.core.RestoreableFile;
 import net.szum123321.textile_backup.core.Utilities;
 import net.szum123321.textile_backup.core.create.ExecutableBackup;
+import net.szum123321.textile_backup.core.dedup.ChunkStore;
+import net.szum123321.textile_backup.core.region.RegionDelta;
+import net.szum123321.textile_backup.core.digest.FileTreeHashBuilder;
+import net.szum123321.textile_backup.core.digest.SegmentedHash;
+import net.szum123321.textile_backup.core.restore.decompressors.ChunkStoreDecompressor;
+import net.szum123321.textile_backup.core.restore.decompressors.ExtractionTarget;
 import net.szum123321.textile_backup.core.restore.decompressors.GenericTarDecompressor;
 import net.szum123321.textile_backup.core.restore.decompressors.ZipDecompressor;
 import net.szum123321.textile_backup.mixin.MinecraftServerSessionAccessor;
@@ -34,8 +42,10 @@ import net.szum123321.textile_backup.mixin.MinecraftServerSessionAccessor;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.FutureTask;
+import java.util.stream.Stream;
 
 /**
  * This class restores a file provided by RestoreContext.
@@ -95,12 +105,30 @@ public class RestoreBackupRunnable implements Runnable {
         try {
             log.info("Starting decompression...");
 
-            long hash;
+            List<RestoreableFile> chain = BackupManifest.resolveChain(ctx.restoreableFile());
+            //Hash the files the way the backup was made, if we know it up front. Otherwise, they get rehashed later
+            FileTreeHashBuilder hashBuilder = BackupManifest.readSidecar(ctx.restoreableFile().getFile())
+                    .map(m -> new FileTreeHashBuilder(0, m.hashSegmentSize(), m.hashAlgorithm()))
+                    .orElseGet(() -> new FileTreeHashBuilder(0, SegmentedHash.SEGMENT_SIZE, config.get().hashAlgorithm));
 
-            if (ctx.restoreableFile().getArchiveFormat() == ConfigPOJO.ArchiveFormat.ZIP)
-                hash = ZipDecompressor.decompress(ctx.restoreableFile().getFile(), tmp);
-            else
-                hash = GenericTarDecompressor.decompress(ctx.restoreableFile().getFile(), tmp);
+            //Incremental backups are replayed starting from the full one, so that newer files overwrite the older ones
+            for(RestoreableFile file: chain) {
+                if(chain.size() > 1) log.info("Unpacking: {}", file.getFile().getFileName());
+
+                switch (file.getArchiveFormat()) {
+                    case ZIP -> ZipDecompressor.decompress(file.getFile(), ExtractionTarget.directory(tmp), hashBuilder, Utilities.getCoreCount());
+                    case DEDUP -> ChunkStoreDecompressor.decompress(file.getFile(), tmp, hashBuilder);
+                    default -> GenericTarDecompressor.decompress(file.getFile(), ExtractionTarget.directory(tmp), hashBuilder, Utilities.getCoreCount());
+                }
+
+                //Region files stored as deltas are rebuilt on top of the ones from the previous backups
+                if(file != chain.get(0)) RegionDelta.applyAll(tmp, hashBuilder);
+            }
+
+            if(Files.exists(BackupManifest.resolveManifestFilename(tmp))) {
+                removeDeletedFiles(BackupManifest.readFromFile(tmp), tmp, hashBuilder);
+                Files.delete(BackupManifest.resolveManifestFilename(tmp));
+            }
 
             log.info("Waiting for server to fully terminate...");
 
@@ -118,7 +146,14 @@ public class RestoreBackupRunnable implements Runnable {
 
                 Files.delete(tmp.resolve(CompressionStatus.DATA_FILENAME));
 
-                errorMsg = status.validate(hash, ctx);
+                //Files have to be hashed the same way they were when the backup was made
+                hashBuilder.rehash(status.hashSegmentSize(), status.hashAlgorithm());
+                long hash = hashBuilder.getValue(false);
+
+                if(status.isIncremental() && chain.size() < 2)
+                    errorMsg = Optional.of("Incremental backup is missing its parent: " + status.parentBackup() + "!");
+                else
+                    errorMsg = status.validate(hash, hashBuilder.getDigest(tmp), ctx);
             }
 
             if(errorMsg.isEmpty() || !config.get().integrityVerificationMode.verify()) {
@@ -132,8 +167,16 @@ public class RestoreBackupRunnable implements Runnable {
                 Files.move(tmp, worldFile);
 
                 if (config.get().deleteOldBackupAfterRestore) {
-                    log.info("Deleting restored backup file");
-                    Files.delete(ctx.restoreableFile().getFile());
+                    Path backupFile = ctx.restoreableFile().getFile();
+                    if(BackupManifest.getReferencedBackups(backupFile.getParent()).contains(backupFile)) {
+                        log.info("Restored backup is a parent of another incremental backup. Keeping it");
+                    } else {
+                        log.info("Deleting restored backup file");
+                        Files.delete(backupFile);
+                        BackupManifest.deleteSidecar(backupFile);
+                        if(ctx.restoreableFile().getArchiveFormat() == ConfigPOJO.ArchiveFormat.DEDUP)
+                            ChunkStore.collectGarbage(backupFile.getParent());
+                    }
                 }
             } else {
                 log.error(errorMsg.get());
@@ -155,4 +198,19 @@ public class RestoreBackupRunnable implements Runnable {
 
         log.info("Done!");
     }
+
+    //Files removed from the world in between incremental backups are still present in the older archives
+    private static void removeDeletedFiles(BackupManifest manifest, Path root, FileTreeHashBuilder hashBuilder) throws IOException {
+        try(Stream<Path> stream = Files.walk(root)) {
+            var toDelete = stream.filter(Files::isRegularFile)
+                    .filter(f -> !Utilities.isBlacklisted(root.relativize(f)))
+                    .filter(f -> !manifest.files().containsKey(root.relativize(f).toString()))
+                    .toList();
+
+            for(Path f: toDelete) {
+                Files.delete(f);
+                hashBuilder.remove(f);
+            }
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,214 @@
+/*
+ * A simple backup mod for Fabric
+ * Copyright (C)  2022   Szum123321
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package net.szum123321.textile_backup.core.restore.decompressors;
+
+import net.szum123321.textile_backup.core.create.compressors.tar.BlockGzipOutputStream;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+import static net.szum123321.textile_backup.core.create.compressors.tar.BlockGzipOutputStream.*;
+
+/**
+ * Reads gzip written by {@link BlockGzipOutputStream}. Members are read one after another, but inflated on a thread pool,
+ * and handed out in the original order. At most <code>2 * threads</code> blocks are kept in memory at once.
+ * <br>
+ * Sizes of the blocks are checked against the index at the end, so a truncated archive doesn't go unnoticed.
+ */
+public class BlockGzipInputStream extends InputStream {
+    private final InputStream in;
+    private final ExecutorService executorService;
+    private final Queue<Future<byte[]>> pending = new ArrayDeque<>();
+    private final int maxPending;
+    //Sizes of the blocks read so far, in the same format as the index
+    private final ByteArrayOutputStream blocks = new ByteArrayOutputStream();
+    private final ByteArrayOutputStream index = new ByteArrayOutputStream();
+
+    private byte[] current = new byte[0];
+    private int position = 0;
+    private boolean endOfInput = false;
+
+    public BlockGzipInputStream(InputStream in, int threads) {
+        this.in = in;
+        this.maxPending = Math.max(1, threads) * 2;
+        this.executorService = Executors.newFixedThreadPool(Math.max(1, threads));
+    }
+
+    /**
+     * @return true if <code>header</code> is the beginning of a member written by {@link BlockGzipOutputStream}
+     */
+    public static boolean matches(byte[] header, int length) {
+        if(length < BLOCK_HEADER_SIZE) return false;
+        if(header[0] != GZIP_HEADER[0] || header[1] != GZIP_HEADER[1] || header[2] != GZIP_HEADER[2]) return false;
+        if((header[3] & 4) == 0) return false;
+
+        int extra = GZIP_HEADER.length + 2;
+        return header[extra] == BLOCK_SUBFIELD[0] && header[extra + 1] == BLOCK_SUBFIELD[1] && getShortLE(header, extra + 2) == 4;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte @NotNull [] b, int off, int len) throws IOException {
+        if(len == 0) return 0;
+
+        while(position == current.length) {
+            fill();
+            if(pending.isEmpty()) return -1;
+            current = take();
+            position = 0;
+        }
+
+        int n = Math.min(len, current.length - position);
+        System.arraycopy(current, position, b, off, n);
+        position += n;
+
+        return n;
+    }
+
+    @Override
+    public void close() throws IOException {
+        executorService.shutdownNow();
+        in.close();
+    }
+
+    //Reads members until there are enough blocks being inflated
+    private void fill() throws IOException {
+        while(!endOfInput && pending.size() < maxPending) {
+            byte[] header = in.readNBytes(GZIP_HEADER.length + 2);
+
+            if(header.length == 0) {
+                endOfInput = true;
+                if(!Arrays.equals(blocks.toByteArray(), index.toByteArray()))
+                    throw new ZipException("Archive doesn't match its index, it might be truncated!");
+                return;
+            }
+
+            if(header.length < GZIP_HEADER.length + 2 || header[0] != GZIP_HEADER[0] || header[1] != GZIP_HEADER[1] || (header[3] & 4) == 0)
+                throw new ZipException("Not a block gzip member!");
+
+            byte[] extra = readFully(getShortLE(header, GZIP_HEADER.length));
+
+            if(extra.length == 8 && extra[0] == BLOCK_SUBFIELD[0] && extra[1] == BLOCK_SUBFIELD[1]) {
+                int size = getIntLE(extra, 4);
+                if(size < BLOCK_HEADER_SIZE + TRAILER_SIZE) throw new ZipException("Invalid block size!");
+
+                byte[] member = readFully(size - BLOCK_HEADER_SIZE);
+
+                blocks.write(extra, 4, 4);
+                blocks.write(member, member.length - 4, 4);
+
+                pending.add(executorService.submit(() -> inflate(member)));
+            } else {
+                readIndex(extra);
+            }
+        }
+    }
+
+    private void readIndex(byte[] extra) throws IOException {
+        for(int i = 0; i + 4 <= extra.length; ) {
+            int length = getShortLE(extra, i + 2);
+            if(i + 4 + length > extra.length) throw new ZipException("Invalid extra field!");
+
+            if(extra[i] == INDEX_SUBFIELD[0] && extra[i + 1] == INDEX_SUBFIELD[1]) index.write(extra, i + 4, length);
+
+            i += 4 + length;
+        }
+
+        //Empty deflate stream, CRC32 and size
+        readFully(2 + TRAILER_SIZE);
+    }
+
+    //Member without its header
+    private static byte[] inflate(byte[] member) throws IOException {
+        int size = getIntLE(member, member.length - 4);
+        byte[] out = new byte[size];
+
+        Inflater inflater = new Inflater(true);
+
+        try {
+            inflater.setInput(member, 0, member.length - TRAILER_SIZE);
+            int len = 0;
+
+            while(len < size && !inflater.finished()) {
+                int n = inflater.inflate(out, len, size - len);
+                if(n == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+                len += n;
+            }
+
+            if(len != size || !inflater.finished() && inflater.inflate(new byte[1]) != 0)
+                throw new ZipException("Block size doesn't match!");
+        } catch (DataFormatException e) {
+            throw new ZipException("Invalid deflate data! " + e.getMessage());
+        } finally {
+            inflater.end();
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(out);
+
+        if((int) crc.getValue() != getIntLE(member, member.length - TRAILER_SIZE)) throw new ZipException("Block CRC mismatch!");
+
+        return out;
+    }
+
+    private byte[] take() throws IOException {
+        try {
+            return pending.remove().get();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Interrupted while waiting for a block to be inflated");
+        } catch (ExecutionException e) {
+            if(e.getCause() instanceof IOException io) throw io;
+            throw new IOException("An exception occurred while inflating a block!", e.getCause());
+        }
+    }
+
+    private byte[] readFully(int length) throws IOException {
+        byte[] b = in.readNBytes(length);
+        if(b.length != length) throw new ZipException("Unexpected end of the archive!");
+        return b;
+    }
+
+    private static int getShortLE(byte[] b, int off) {
+        return (b[off] & 0xFF) | (b[off + 1] & 0xFF) << 8;
+    }
+
+    private static int getIntLE(byte[] b, int off) {
+        return (b[off] & 0xFF) | (b[off + 1] & 0xFF) << 8 | (b[off + 2] & 0xFF) << 16 | (b[off + 3] & 0xFF) << 24;
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * A simple backup mod for Fabric
+ * Copyright (C)  2022   Szum123321
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package net.szum123321.textile_backup.core.restore.decompressors;
+
+import net.szum123321.textile_backup.TextileBackup;
+import net.szum123321.textile_backup.TextileLogger;
+import net.szum123321.textile_backup.core.Utilities;
+import net.szum123321.textile_backup.core.dedup.ChunkIndex;
+import net.szum123321.textile_backup.core.dedup.ChunkStore;
+import net.szum123321.textile_backup.core.digest.FileTreeHashBuilder;
+import net.szum123321.textile_backup.core.digest.HashingOutputStream;
+import org.apache.commons.compress.utils.IOUtils;
+
+import java.io.*;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+
+public class ChunkStoreDecompressor {
+    private final static TextileLogger log = new TextileLogger(TextileBackup.MOD_NAME);
+
+    public static void decompress(Path inputFile, Path target, FileTreeHashBuilder hashBuilder) throws IOException {
+        decompress(inputFile, ExtractionTarget.directory(target), hashBuilder);
+    }
+
+    public static void decompress(Path inputFile, ExtractionTarget target, FileTreeHashBuilder hashBuilder) throws IOException {
+        Instant start = Instant.now();
+
+        ChunkStore store = new ChunkStore(inputFile.getParent());
+        ChunkIndex index;
+
+        try {
+            index = ChunkIndex.readFromFile(inputFile);
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Couldn't read the chunk index!", e);
+        }
+
+        for(ChunkIndex.Entry entry: index.entries()) {
+            Path file = target.resolve(entry.name());
+            target.createDirectories(file.getParent());
+
+            try (OutputStream outputStream = target.newOutputStream(file);
+                 HashingOutputStream out = new HashingOutputStream(outputStream, file, hashBuilder)) {
+                for(int i = 0; i < entry.chunkCount(); i++) {
+                    try (InputStream in = store.read(entry.chunks(), i * ChunkStore.HASH_LENGTH)) {
+                        IOUtils.copy(in, out);
+                    }
+                }
+            }
+        }
+
+        log.info("Decompression took: {} seconds.", Utilities.formatDuration(Duration.between(start, Instant.now())));
+    }
+}
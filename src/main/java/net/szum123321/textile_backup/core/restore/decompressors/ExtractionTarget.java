@@ -0,0 +1,54 @@
+/*
+ * A simple backup mod for Fabric
+ * Copyright (C)  2022   Szum123321
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package net.szum123321.textile_backup.core.restore.decompressors;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Where the decompressors put the files. Restoring writes them to the disk, while verification only needs their hashes.
+ * <br>
+ * Implementations have to be thread-safe, as entries might get extracted concurrently.
+ */
+public interface ExtractionTarget {
+    /**
+     * @return path the entry is hashed as. With verification, it doesn't have to exist
+     */
+    Path resolve(String entryName);
+
+    void createDirectories(Path directory) throws IOException;
+
+    OutputStream newOutputStream(Path file) throws IOException;
+
+    static ExtractionTarget directory(Path root) {
+        return new ExtractionTarget() {
+            @Override
+            public Path resolve(String entryName) { return root.resolve(entryName); }
+
+            @Override
+            public void createDirectories(Path directory) throws IOException { Files.createDirectories(directory); }
+
+            @Override
+            public OutputStream newOutputStream(Path file) throws IOException { return Files.newOutputStream(file); }
+        };
+    }
+}
@@ -20,6 +20,9 @@ package net.szum123321.textile_backup.core.restore.decompressors;
 
 import net.szum123321.textile_backup.TextileBackup;
 import net.szum123321.textile_backup.TextileLogger;
+import net.szum123321.textile_backup.config.ConfigHelper;
+import net.szum123321.textile_backup.core.create.compressors.tar.BlockGzipOutputStream;
+import net.szum123321.textile_backup.core.create.compressors.tar.XzBlockOutputStream;
 import net.szum123321.textile_backup.core.digest.FileTreeHashBuilder;
 import net.szum123321.textile_backup.core.Utilities;
 import net.szum123321.textile_backup.core.digest.HashingOutputStream;
@@ -34,20 +37,67 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Optional;
+import java.util.Set;
 
 public class GenericTarDecompressor {
     private final static TextileLogger log = new TextileLogger(TextileBackup.MOD_NAME);
+    private final static ConfigHelper config = ConfigHelper.INSTANCE;
 
-    public static long decompress(Path input, Path target) throws IOException {
+    public static void decompress(Path input, Path target, FileTreeHashBuilder treeBuilder) throws IOException {
+        decompress(input, ExtractionTarget.directory(target), treeBuilder, 1);
+    }
+
+    /**
+     * With <code>threads</code> > 1 the archive is still read by the calling thread, but the files are hashed and written
+     * by a pool of <code>threads</code> writers, see {@link ParallelEntryWriter}
+     */
+    public static void decompress(Path input, ExtractionTarget target, FileTreeHashBuilder treeBuilder, int threads) throws IOException {
         Instant start = Instant.now();
-        FileTreeHashBuilder treeBuilder = new FileTreeHashBuilder(0);
 
         try (InputStream fileInputStream = Files.newInputStream(input);
              InputStream bufferedInputStream = new BufferedInputStream(fileInputStream);
-             InputStream compressorInputStream = getCompressorInputStream(bufferedInputStream);
+             InputStream compressorInputStream = getCompressorInputStream(input, bufferedInputStream, threads);
              TarArchiveInputStream archiveInputStream = new TarArchiveInputStream(compressorInputStream)) {
-            TarArchiveEntry entry;
+            if(threads <= 1) extract(archiveInputStream, target, treeBuilder);
+            else extractInParallel(archiveInputStream, target, treeBuilder, threads);
+        } catch (CompressorException e) {
+            throw new IOException(e);
+        }
+
+        log.info("Decompression took {} seconds.", Utilities.formatDuration(Duration.between(start, Instant.now())));
+    }
+
+    private static void extract(TarArchiveInputStream archiveInputStream, ExtractionTarget target, FileTreeHashBuilder treeBuilder) throws IOException {
+        TarArchiveEntry entry;
+
+        while ((entry = archiveInputStream.getNextTarEntry()) != null) {
+            if(!archiveInputStream.canReadEntryData(entry))
+                throw new IOException("Couldn't read archive entry! " + entry.getName());
+
+            Path file = target.resolve(entry.getName());
+
+            if(entry.isDirectory()) {
+                target.createDirectories(file);
+            } else {
+                target.createDirectories(file.getParent());
+                try (OutputStream outputStream = target.newOutputStream(file);
+                     HashingOutputStream out = new HashingOutputStream(outputStream, file, treeBuilder)) {
+                    IOUtils.copy(archiveInputStream, out);
+                }
+            }
+        }
+    }
+
+    private static void extractInParallel(TarArchiveInputStream archiveInputStream, ExtractionTarget target, FileTreeHashBuilder treeBuilder, int threads) throws IOException {
+        long budget = memoryBudget();
+        //Most files share their parent, so there's no need to ask the file system every time
+        Set<Path> directories = new HashSet<>();
+        TarArchiveEntry entry;
 
+        try (ParallelEntryWriter writer = new ParallelEntryWriter(threads, budget)) {
             while ((entry = archiveInputStream.getNextTarEntry()) != null) {
                 if(!archiveInputStream.canReadEntryData(entry))
                     throw new IOException("Couldn't read archive entry! " + entry.getName());
@@ -55,31 +105,40 @@ public class GenericTarDecompressor {
                 Path file = target.resolve(entry.getName());
 
                 if(entry.isDirectory()) {
-                    Files.createDirectories(file);
+                    if(directories.add(file)) target.createDirectories(file);
                 } else {
-                    Files.createDirectories(file.getParent());
-                    try (OutputStream outputStream = Files.newOutputStream(file);
-                         HashingOutputStream out = new HashingOutputStream(outputStream, file, treeBuilder)) {
-                        IOUtils.copy(archiveInputStream, out);
-                    }
+                    if(directories.add(file.getParent())) target.createDirectories(file.getParent());
+                    writer.write(archiveInputStream, target, file, treeBuilder);
                 }
             }
-        } catch (CompressorException e) {
-            throw new IOException(e);
-        }
-
-        log.info("Decompression took {} seconds.", Utilities.formatDuration(Duration.between(start, Instant.now())));
 
-        try {
-            return treeBuilder.getValue(false);
-        } catch (InterruptedException ignored) {
-            return 0;
+            writer.finish();
         }
     }
 
-    private static InputStream getCompressorInputStream(InputStream inputStream) throws CompressorException {
+    private static long memoryBudget() {
+        return Math.max(1, config.get().compressionMemoryBudget) * 1024L * 1024L;
+    }
+
+    private static InputStream getCompressorInputStream(Path input, InputStream inputStream, int threads) throws CompressorException {
         try {
-            return new CompressorStreamFactory().createCompressorInputStream(inputStream);
+            //Block gzip is still gzip, so it has to be checked for first
+            if(isBlockGzip(inputStream)) return new BlockGzipInputStream(inputStream, threads);
+
+            //Multi-block xz is read straight from the file, as its index is at the very end
+            if(threads > 1 && isXz(inputStream)) {
+                Optional<InputStream> xz = ParallelXzInputStream.open(input, threads, memoryBudget());
+                if(xz.isPresent()) return xz.get();
+            }
+
+            //So is bzip2 with multiple streams, as their starts are found by scanning the file
+            if(threads > 1 && isBZip2(inputStream)) {
+                Optional<InputStream> bzip2 = ParallelBZip2InputStream.open(input, threads, memoryBudget());
+                if(bzip2.isPresent()) return bzip2.get();
+            }
+
+            //Gzip and bzip2 files can be made of multiple concatenated streams
+            return new CompressorStreamFactory(true).createCompressorInputStream(inputStream);
         } catch (CompressorException e) {
             final byte[] tarHeader = new byte[512];
             int signatureLength;
@@ -96,6 +155,50 @@ public class GenericTarDecompressor {
             if(TarArchiveInputStream.matches(tarHeader, signatureLength)) return inputStream;
 
             throw e;
+        } catch (IOException e) {
+            throw new CompressorException("IOException while reading the index", e);
+        }
+    }
+
+    private static boolean isBlockGzip(InputStream inputStream) throws CompressorException {
+        byte[] header = new byte[BlockGzipOutputStream.BLOCK_HEADER_SIZE];
+
+        inputStream.mark(header.length);
+
+        try {
+            int length = IOUtils.readFully(inputStream, header);
+            inputStream.reset();
+            return BlockGzipInputStream.matches(header, length);
+        } catch (IOException e) {
+            throw new CompressorException("IOException while reading gzip header", e);
+        }
+    }
+
+    private static boolean isXz(InputStream inputStream) throws CompressorException {
+        byte[] header = new byte[XzBlockOutputStream.HEADER_MAGIC.length];
+
+        inputStream.mark(header.length);
+
+        try {
+            IOUtils.readFully(inputStream, header);
+            inputStream.reset();
+            return Arrays.equals(header, XzBlockOutputStream.HEADER_MAGIC);
+        } catch (IOException e) {
+            throw new CompressorException("IOException while reading xz header", e);
+        }
+    }
+
+    private static boolean isBZip2(InputStream inputStream) throws CompressorException {
+        byte[] header = new byte[4];
+
+        inputStream.mark(header.length);
+
+        try {
+            int length = IOUtils.readFully(inputStream, header);
+            inputStream.reset();
+            return ParallelBZip2InputStream.matches(header, length);
+        } catch (IOException e) {
+            throw new CompressorException("IOException while reading bzip2 header", e);
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,246 @@
+/*
+ * A simple backup mod for Fabric
+ * Copyright (C)  2022   Szum123321
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package net.szum123321.textile_backup.core.restore.decompressors;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+import org.at4j.comp.bzip2.BZip2OutputStreamSettings;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Decompresses the streams of a bzip2 file written with {@link BZip2OutputStreamSettings#setNumberOfBlocksPerStream(int)}
+ * (or by pbzip2 and lbzip2, which do the same) on a thread pool, and hands them out in the original order.
+ * At most <code>2 * threads</code> streams are kept in memory at once, fewer if they don't fit in <code>memoryBudget</code>.
+ * Every stream in flight holds its compressed data and a part of its output, whatever is left of it is decompressed
+ * by the reading thread.
+ * <br>
+ * Every stream starts at a byte boundary with its header followed by the magic of its first block, so the streams are
+ * found by scanning the file for these bytes. Compressed data could in theory hold them too, but the stream they would cut
+ * in two then fails to decompress, rather than giving wrong data. Each stream is decoded by {@link BZip2CompressorInputStream},
+ * which also checks its CRCs.
+ * <br>
+ * There's no index, so the whole file is read once by the scan before the decompression starts. Thus, the archive gets
+ * read from the disk twice, compared to once by a sequential restore.
+ */
+public class ParallelBZip2InputStream extends InputStream {
+    private static final byte[] HEADER_MAGIC = { 'B', 'Z', 'h' };
+    //bzip2 stream header followed by the magic of the first block
+    private static final byte[] BLOCK_MAGIC = { 0x31, 0x41, 0x59, 0x26, 0x53, 0x59 };
+    private static final int STREAM_START_SIZE = HEADER_MAGIC.length + 1 + BLOCK_MAGIC.length;
+    private static final int SCAN_WINDOW = 1 << 20;
+    //Larger streams are better off being decompressed the usual way
+    private static final int MAX_STREAM_SIZE = 64 << 20;
+    //Least output of a stream decompressed in parallel
+    private static final int MIN_STREAM_LIMIT = 1 << 20;
+
+    private final FileChannel channel;
+    //Offsets of the streams, followed by the size of the file
+    private final long[] streams;
+    private final ExecutorService executorService;
+    private final Queue<Future<InputStream>> pending = new ArrayDeque<>();
+    private final int maxPending;
+    //How much of its output a stream may hold, the rest is decompressed as it's being read
+    private final int streamLimit;
+
+    private int nextStream = 0;
+    private InputStream current = null;
+
+    private ParallelBZip2InputStream(FileChannel channel, long[] streams, int threads, long memoryBudget) {
+        long largest = 0;
+        for(int i = 0; i + 1 < streams.length; i++) largest = Math.max(largest, streams[i + 1] - streams[i]);
+
+        this.channel = channel;
+        this.streams = streams;
+        this.maxPending = (int) Math.max(1, Math.min(threads * 2L, memoryBudget / (largest + MIN_STREAM_LIMIT)));
+        this.streamLimit = (int) Math.max(MIN_STREAM_LIMIT, Math.min(MAX_STREAM_SIZE, memoryBudget / maxPending - largest));
+        this.executorService = Executors.newFixedThreadPool(Math.min(threads, maxPending));
+    }
+
+    /**
+     * @return true if <code>header</code> is the beginning of a bzip2 stream
+     */
+    public static boolean matches(byte[] header, int length) {
+        return length >= HEADER_MAGIC.length + 1
+                && header[0] == HEADER_MAGIC[0] && header[1] == HEADER_MAGIC[1] && header[2] == HEADER_MAGIC[2]
+                && header[3] >= '1' && header[3] <= '9';
+    }
+
+    /**
+     * @return empty if the file doesn't benefit from parallel decompression, e.g. it's a single stream, as plain bzip2 makes it
+     */
+    public static Optional<InputStream> open(Path file, int threads, long memoryBudget) throws IOException {
+        if(threads < 2) return Optional.empty();
+
+        FileChannel channel = FileChannel.open(file);
+
+        try {
+            Optional<long[]> streams = findStreams(channel);
+
+            if(streams.isEmpty()) {
+                channel.close();
+                return Optional.empty();
+            }
+
+            return Optional.of(new ParallelBZip2InputStream(channel, streams.get(), threads, memoryBudget));
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private static Optional<long[]> findStreams(FileChannel channel) throws IOException {
+        long size = channel.size();
+        if(size < STREAM_START_SIZE) return Optional.empty();
+
+        byte[] first = read(channel, 0, STREAM_START_SIZE);
+        if(!isStreamStart(first, 0, first[3])) return Optional.empty();
+
+        //All the streams of a file are written with the same block size
+        final byte level = first[3];
+        long[] starts = new long[64];
+        int count = 0;
+        long position = 0;
+
+        while(true) {
+            byte[] window = read(channel, position, (int) Math.min(SCAN_WINDOW, size - position));
+
+            for(int i = 0; i + STREAM_START_SIZE <= window.length; i++) {
+                if(!isStreamStart(window, i, level)) continue;
+
+                if(count + 1 == starts.length) starts = Arrays.copyOf(starts, starts.length * 2);
+                starts[count++] = position + i;
+            }
+
+            //There's no point in looking any further once a stream turns out too large to be decompressed in memory
+            if(position + window.length - starts[count - 1] > MAX_STREAM_SIZE) return Optional.empty();
+
+            if(position + window.length == size) break;
+
+            //The next window overlaps this one, so that a header on the boundary isn't missed
+            position += window.length - STREAM_START_SIZE + 1;
+        }
+
+        if(count < 2) return Optional.empty();
+
+        starts[count] = size;
+        return Optional.of(Arrays.copyOf(starts, count + 1));
+    }
+
+    private static boolean isStreamStart(byte[] b, int off, byte level) {
+        if(b[off] != HEADER_MAGIC[0] || b[off + 1] != HEADER_MAGIC[1] || b[off + 2] != HEADER_MAGIC[2]) return false;
+        if(b[off + 3] != level || level < '1' || level > '9') return false;
+
+        for(int i = 0; i < BLOCK_MAGIC.length; i++)
+            if(b[off + 4 + i] != BLOCK_MAGIC[i]) return false;
+
+        return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte @NotNull [] b, int off, int len) throws IOException {
+        if(len == 0) return 0;
+
+        while(true) {
+            if(current == null) {
+                while(nextStream < streams.length - 1 && pending.size() < maxPending) {
+                    final int stream = nextStream++;
+                    pending.add(executorService.submit(() -> decompress(stream)));
+                }
+
+                if(pending.isEmpty()) return -1;
+
+                current = take();
+            }
+
+            int n = current.read(b, off, len);
+            if(n != -1) return n;
+
+            current.close();
+            current = null;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        executorService.shutdownNow();
+        if(current != null) current.close();
+        channel.close();
+    }
+
+    private InputStream decompress(int stream) throws IOException {
+        byte[] compressed = read(channel, streams[stream], (int) (streams[stream + 1] - streams[stream]));
+        InputStream in = new BZip2CompressorInputStream(new ByteArrayInputStream(compressed), false);
+
+        //Reaching the end is what makes the stream CRC verified
+        byte[] out = in.readNBytes(streamLimit);
+        if(out.length < streamLimit) {
+            in.close();
+            return new ByteArrayInputStream(out);
+        }
+
+        //The rest of a large stream is decompressed while it's being read
+        return new SequenceInputStream(new ByteArrayInputStream(out), in);
+    }
+
+    private static byte[] read(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+
+        while(buffer.hasRemaining()) {
+            int n = channel.read(buffer, position + buffer.position());
+            if(n < 0) throw new EOFException("Unexpected end of a bzip2 file");
+        }
+
+        return buffer.array();
+    }
+
+    private InputStream take() throws IOException {
+        try {
+            return pending.remove().get();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Interrupted while waiting for a stream to be decompressed");
+        } catch (ExecutionException e) {
+            if(e.getCause() instanceof IOException io) throw io;
+            throw new IOException("An exception occurred while decompressing a stream!", e.getCause());
+        }
+    }
+}
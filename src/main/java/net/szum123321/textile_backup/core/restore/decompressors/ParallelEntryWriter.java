@@ -0,0 +1,176 @@
+/*
+ * A simple backup mod for Fabric
+ * Copyright (C)  2022   Szum123321
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package net.szum123321.textile_backup.core.restore.decompressors;
+
+import net.szum123321.textile_backup.core.digest.FileTreeHashBuilder;
+import net.szum123321.textile_backup.core.digest.HashingOutputStream;
+import org.apache.commons.compress.utils.IOUtils;
+
+import java.io.*;
+import java.nio.file.Path;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Stream archives have to be read by a single thread, but the files don't have to be written by it.
+ * <br>
+ * The reading thread hands the data of each entry over in chunks to one of the writer threads, which hashes it and writes it out.
+ * Thus, decompression goes on while the files are being created and written. The chunks come from a pool limited by <code>memoryBudget</code>,
+ * so the reader can't get further ahead of the writers than that.
+ */
+class ParallelEntryWriter implements Closeable {
+    private final static int CHUNK_SIZE = 256 * 1024;
+    private final static Chunk END = new Chunk(new byte[0], 0);
+
+    private final ExecutorService executorService;
+    private final BlockingQueue<byte[]> freeChunks = new LinkedBlockingQueue<>();
+    private final AtomicReference<IOException> failure = new AtomicReference<>();
+    private final int maxChunks;
+    //Chunks are only ever allocated by the reading thread
+    private int allocatedChunks = 0;
+
+    ParallelEntryWriter(int threads, long memoryBudget) {
+        this.executorService = Executors.newFixedThreadPool(threads);
+        this.maxChunks = (int) Math.max(threads * 2L, memoryBudget / CHUNK_SIZE);
+    }
+
+    /**
+     * Reads the entry from <code>in</code> until its end and queues it to be written to <code>file</code>.
+     * Returns as soon as all of it has been read.
+     */
+    void write(InputStream in, ExtractionTarget target, Path file, FileTreeHashBuilder hashBuilder) throws IOException {
+        checkFailure();
+
+        BlockingQueue<Chunk> chunks = new LinkedBlockingQueue<>();
+        executorService.submit(() -> writeOut(chunks, target, file, hashBuilder));
+
+        try {
+            while(true) {
+                if(Thread.currentThread().isInterrupted()) throw new InterruptedIOException("Interrupted while reading " + file);
+
+                byte[] buffer = takeChunk();
+                int len = IOUtils.readFully(in, buffer);
+
+                if(len > 0) chunks.add(new Chunk(buffer, len));
+                else freeChunks.add(buffer);
+
+                if(len < buffer.length) break;
+            }
+        } finally {
+            //Even if reading fails, the writer has to be let go
+            chunks.add(END);
+        }
+    }
+
+    /**
+     * Waits for all the queued files to be written
+     */
+    void finish() throws IOException {
+        executorService.shutdown();
+
+        try {
+            while(!executorService.awaitTermination(1, TimeUnit.MINUTES));
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Interrupted while waiting for the files to be written");
+        }
+
+        checkFailure();
+    }
+
+    @Override
+    public void close() {
+        executorService.shutdownNow();
+    }
+
+    private byte[] takeChunk() throws IOException {
+        byte[] chunk = freeChunks.poll();
+        if(chunk != null) return chunk;
+
+        if(allocatedChunks < maxChunks) {
+            allocatedChunks++;
+            return new byte[CHUNK_SIZE];
+        }
+
+        try {
+            //A failed writer would never give the chunks back, so we have to keep an eye on it
+            while((chunk = freeChunks.poll(100, TimeUnit.MILLISECONDS)) == null) checkFailure();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Interrupted while waiting for a free buffer");
+        }
+
+        return chunk;
+    }
+
+    private void writeOut(BlockingQueue<Chunk> chunks, ExtractionTarget target, Path file, FileTreeHashBuilder hashBuilder) {
+        OutputStream out = null;
+
+        try {
+            out = new HashingOutputStream(target.newOutputStream(file), file, hashBuilder);
+        } catch (IOException e) {
+            fail(e);
+        }
+
+        try {
+            //Chunks have to be taken even if writing fails, so that they get back to the pool
+            for(Chunk chunk; (chunk = chunks.take()) != END; ) {
+                if(out != null) {
+                    try {
+                        out.write(chunk.data(), 0, chunk.length());
+                    } catch (IOException e) {
+                        fail(e);
+                        closeQuietly(out);
+                        out = null;
+                    }
+                }
+
+                freeChunks.add(chunk.data());
+            }
+        } catch (InterruptedException e) {
+            //Extraction was aborted
+            if(out != null) closeQuietly(out);
+            return;
+        }
+
+        if(out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+    }
+
+    private void fail(IOException e) {
+        if(!failure.compareAndSet(null, e)) failure.get().addSuppressed(e);
+    }
+
+    private void checkFailure() throws IOException {
+        IOException e = failure.get();
+        if(e != null) throw new IOException("Couldn't write an extracted file!", e);
+    }
+
+    private static void closeQuietly(OutputStream out) {
+        try {
+            out.close();
+        } catch (IOException ignored) {}
+    }
+
+    private record Chunk(byte[] data, int length) { }
+}
@@ -0,0 +1,209 @@
+/*
+ * A simple backup mod for Fabric
+ * Copyright (C)  2022   Szum123321
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package net.szum123321.textile_backup.core.restore.decompressors;
+
+import net.szum123321.textile_backup.core.create.compressors.tar.XzBlockOutputStream;
+import org.jetbrains.annotations.NotNull;
+import org.tukaani.xz.CorruptedInputException;
+import org.tukaani.xz.SeekableFileInputStream;
+import org.tukaani.xz.SeekableXZInputStream;
+import org.tukaani.xz.XZInputStream;
+import org.tukaani.xz.check.Check;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static net.szum123321.textile_backup.core.create.compressors.tar.XzBlockOutputStream.COMPRESSED_SIZE_PRESENT;
+import static net.szum123321.textile_backup.core.create.compressors.tar.XzBlockOutputStream.STREAM_HEADER_SIZE;
+
+/**
+ * Decompresses the blocks of an xz file on a thread pool, and hands them out in the original order.
+ * At most <code>2 * threads</code> blocks are kept in memory at once, fewer if they don't fit in <code>memoryBudget</code>.
+ * <br>
+ * Blocks are located using the index at the end of the file, so it works with any multi-block xz which has
+ * the sizes stored in block headers (e.g. <code>xz -T</code>), not only the ones written by {@link XzBlockOutputStream}. Each block is wrapped in a stream of its own
+ * and decoded by {@link XZInputStream}, which also checks its integrity.
+ */
+public class ParallelXzInputStream extends InputStream {
+    //Larger blocks are better off being decompressed the usual way
+    private static final long MAX_BLOCK_SIZE = 64L << 20;
+
+    private final FileChannel channel;
+    private final ExecutorService executorService;
+    private final Queue<Future<byte[]>> pending = new ArrayDeque<>();
+    private final int maxPending;
+    //Position, unpadded size, uncompressed size and check type of every block
+    private final long[] blocks;
+
+    private int nextBlock = 0;
+    private byte[] current = new byte[0];
+    private int position = 0;
+
+    private ParallelXzInputStream(FileChannel channel, long[] blocks, int threads, int maxPending) {
+        this.channel = channel;
+        this.blocks = blocks;
+        this.maxPending = maxPending;
+        this.executorService = Executors.newFixedThreadPool(Math.min(threads, maxPending));
+    }
+
+    /**
+     * @return empty if the file doesn't benefit from parallel decompression, e.g. it's a single block, as plain xz makes it
+     */
+    public static Optional<InputStream> open(Path file, int threads, long memoryBudget) throws IOException {
+        FileChannel channel = FileChannel.open(file);
+
+        try (SeekableXZInputStream xz = new SeekableXZInputStream(new SeekableFileInputStream(file.toFile()))) {
+            if(threads < 2 || xz.getBlockCount() < 2 || xz.getLargestBlockSize() > MAX_BLOCK_SIZE) {
+                channel.close();
+                return Optional.empty();
+            }
+
+            long[] blocks = new long[xz.getBlockCount() * 4];
+
+            for(int i = 0; i < xz.getBlockCount(); i++) {
+                //Index holds the exact size of a block, but it only gives out the size with padding
+                long unpaddedSize = getUnpaddedSize(channel, xz.getBlockCompPos(i), xz.getBlockCheckType(i));
+
+                if(unpaddedSize < 0) {
+                    channel.close();
+                    return Optional.empty();
+                }
+
+                blocks[i * 4] = xz.getBlockCompPos(i);
+                blocks[i * 4 + 1] = unpaddedSize;
+                blocks[i * 4 + 2] = xz.getBlockSize(i);
+                blocks[i * 4 + 3] = xz.getBlockCheckType(i);
+            }
+
+            //Every block in flight holds both its compressed and decompressed data
+            int maxPending = (int) Math.max(1, Math.min(threads * 2L, memoryBudget / Math.max(1, 2 * xz.getLargestBlockSize())));
+
+            return Optional.of(new ParallelXzInputStream(channel, blocks, threads, maxPending));
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    //Works only if the compressed size is stored in the block header, as is the case with xz -T and XzBlockOutputStream
+    private static long getUnpaddedSize(FileChannel channel, long position, int checkType) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(2 + 9);
+        while(header.hasRemaining()) {
+            if(channel.read(header, position + header.position()) < 0) break;
+        }
+
+        byte[] b = header.array();
+        if(header.position() < header.capacity() || (b[1] & COMPRESSED_SIZE_PRESENT) == 0) return -1;
+
+        return ((b[0] & 0xFF) + 1) * 4L + XzBlockOutputStream.readVli(b, 2) + Check.getInstance(checkType).getSize();
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte @NotNull [] b, int off, int len) throws IOException {
+        if(len == 0) return 0;
+
+        while(position == current.length) {
+            while(nextBlock < blocks.length / 4 && pending.size() < maxPending) {
+                final int block = nextBlock++;
+                pending.add(executorService.submit(() -> decompress(block)));
+            }
+
+            if(pending.isEmpty()) return -1;
+
+            current = take();
+            position = 0;
+        }
+
+        int n = Math.min(len, current.length - position);
+        System.arraycopy(current, position, b, off, n);
+        position += n;
+
+        return n;
+    }
+
+    @Override
+    public void close() throws IOException {
+        executorService.shutdownNow();
+        channel.close();
+    }
+
+    private byte[] decompress(int block) throws IOException {
+        long unpaddedSize = blocks[block * 4 + 1];
+        int size = (int) blocks[block * 4 + 2];
+        int checkType = (int) blocks[block * 4 + 3];
+
+        byte[] header = XzBlockOutputStream.streamHeader(checkType);
+        byte[] trailer = XzBlockOutputStream.indexAndFooter(checkType, new long[]{ unpaddedSize, size });
+        int paddedSize = (int) ((unpaddedSize + 3) & ~3);
+
+        //The block along with a stream header and an index of its own
+        byte[] stream = new byte[header.length + paddedSize + trailer.length];
+        System.arraycopy(header, 0, stream, 0, header.length);
+        System.arraycopy(trailer, 0, stream, STREAM_HEADER_SIZE + paddedSize, trailer.length);
+
+        ByteBuffer buffer = ByteBuffer.wrap(stream, STREAM_HEADER_SIZE, paddedSize);
+        long pos = blocks[block * 4];
+
+        while(buffer.hasRemaining()) {
+            int n = channel.read(buffer, pos);
+            if(n < 0) throw new EOFException("Unexpected end of an xz file");
+            pos += n;
+        }
+
+        try (XZInputStream xz = new XZInputStream(new ByteArrayInputStream(stream))) {
+            byte[] out = xz.readNBytes(size);
+
+            //Reaching the end is what makes the check and the index verified
+            if(out.length != size || xz.read() != -1) throw new CorruptedInputException("Block size doesn't match the index");
+
+            return out;
+        }
+    }
+
+    private byte[] take() throws IOException {
+        try {
+            return pending.remove().get();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Interrupted while waiting for a block to be decompressed");
+        } catch (ExecutionException e) {
+            if(e.getCause() instanceof IOException io) throw io;
+            throw new IOException("An exception occurred while decompressing a block!", e.getCause());
+        }
+    }
+}
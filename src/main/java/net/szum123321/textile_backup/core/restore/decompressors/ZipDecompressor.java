@@ -28,45 +28,79 @@ import org.apache.commons.compress.archivers.zip.ZipFile;
 import org.apache.commons.compress.utils.IOUtils;
 
 import java.io.*;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.time.Duration;
 import java.time.Instant;
-import java.util.Iterator;
+import java.util.*;
+import java.util.concurrent.*;
 
 public class ZipDecompressor {
     private final static TextileLogger log = new TextileLogger(TextileBackup.MOD_NAME);
 
-    public static long decompress(Path inputFile, Path target) throws IOException {
-        Instant start = Instant.now();
+    public static void decompress(Path inputFile, Path target, FileTreeHashBuilder hashBuilder) throws IOException {
+        decompress(inputFile, ExtractionTarget.directory(target), hashBuilder, 1);
+    }
 
-        FileTreeHashBuilder hashBuilder = new FileTreeHashBuilder(0);
+    /**
+     * Unlike the other formats, zip entries can be read independently of each other, so with <code>threads</code> > 1
+     * they are extracted concurrently
+     */
+    public static void decompress(Path inputFile, ExtractionTarget target, FileTreeHashBuilder hashBuilder, int threads) throws IOException {
+        Instant start = Instant.now();
 
         try(ZipFile zipFile = new ZipFile(inputFile.toFile())) {
-            for (Iterator<ZipArchiveEntry> it = zipFile.getEntries().asIterator(); it.hasNext(); ) {
-                ZipArchiveEntry entry = it.next();
+            List<ZipArchiveEntry> entries = Collections.list(zipFile.getEntries());
+
+            //The whole directory tree is created up front, so that it doesn't have to be done for each file
+            Set<Path> directories = new HashSet<>();
+            for(ZipArchiveEntry entry: entries) {
                 Path file = target.resolve(entry.getName());
+                directories.add(entry.isDirectory() ? file : file.getParent());
+            }
+            for(Path directory: directories) target.createDirectories(directory);
+
+            List<ZipArchiveEntry> files = entries.stream().filter(e -> !e.isDirectory()).toList();
 
-                if(entry.isDirectory()) {
-                    Files.createDirectories(file);
-                } else {
-                    Files.createDirectories(file.getParent());
-                    try (OutputStream outputStream = Files.newOutputStream(file);
-                         HashingOutputStream out = new HashingOutputStream(outputStream, file, hashBuilder);
-                         InputStream in = zipFile.getInputStream(entry)) {
+            if(threads <= 1 || files.size() <= 1) {
+                for(ZipArchiveEntry entry: files) extract(zipFile, entry, target, hashBuilder);
+            } else {
+                log.trace("Extracting {} files on {} threads", files.size(), threads);
 
-                        IOUtils.copy(in, out);
+                ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, files.size()));
+
+                try {
+                    List<Future<Void>> futures = new ArrayList<>(files.size());
+
+                    //Largest files go first, otherwise one of them could be left to a single thread at the very end
+                    for(ZipArchiveEntry entry: files.stream().sorted(Comparator.comparingLong(ZipArchiveEntry::getSize).reversed()).toList()) {
+                        futures.add(executor.submit(() -> {
+                            extract(zipFile, entry, target, hashBuilder);
+                            return null;
+                        }));
                     }
+
+                    for(Future<Void> f: futures) f.get();
+                } catch (ExecutionException e) {
+                    throw e.getCause() instanceof IOException io ? io : new IOException(e.getCause());
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException("Interrupted while extracting " + inputFile);
+                } finally {
+                    executor.shutdownNow();
                 }
             }
         }
 
         log.info("Decompression took: {} seconds.", Utilities.formatDuration(Duration.between(start, Instant.now())));
+    }
+
+    private static void extract(ZipFile zipFile, ZipArchiveEntry entry, ExtractionTarget target, FileTreeHashBuilder hashBuilder) throws IOException {
+        Path file = target.resolve(entry.getName());
+
+        try (OutputStream outputStream = target.newOutputStream(file);
+             HashingOutputStream out = new HashingOutputStream(outputStream, file, hashBuilder);
+             InputStream in = zipFile.getInputStream(entry)) {
 
-        try {
-            return hashBuilder.getValue(false);
-        } catch (InterruptedException ignored) {
-            return 0;
+            IOUtils.copy(in, out);
         }
     }
 }
@@ -0,0 +1,302 @@
+/*
+ * A simple backup mod for Fabric
+ * Copyright (C)  2022   Szum123321
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package net.szum123321.textile_backup.core.verify;
+
+import net.minecraft.server.command.ServerCommandSource;
+import net.szum123321.textile_backup.Globals;
+import net.szum123321.textile_backup.TextileBackup;
+import net.szum123321.textile_backup.TextileLogger;
+import net.szum123321.textile_backup.config.ConfigHelper;
+import net.szum123321.textile_backup.core.BackupManifest;
+import net.szum123321.textile_backup.core.CompressionStatus;
+import net.szum123321.textile_backup.core.RestoreableFile;
+import net.szum123321.textile_backup.core.Utilities;
+import net.szum123321.textile_backup.core.digest.FileTreeHashBuilder;
+import net.szum123321.textile_backup.core.digest.HashAlgorithm;
+import net.szum123321.textile_backup.core.digest.HashCache;
+import net.szum123321.textile_backup.core.digest.SegmentedHash;
+import net.szum123321.textile_backup.core.digest.TreeDigest;
+import net.szum123321.textile_backup.core.region.RegionDelta;
+import net.szum123321.textile_backup.core.restore.decompressors.ChunkStoreDecompressor;
+import net.szum123321.textile_backup.core.restore.decompressors.ExtractionTarget;
+import net.szum123321.textile_backup.core.restore.decompressors.GenericTarDecompressor;
+import net.szum123321.textile_backup.core.restore.decompressors.ZipDecompressor;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.*;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Checks a backup without restoring it. The archive is streamed through the same decompressors the restore uses,
+ * but the files only get hashed, nothing is written to the disk. Thus, it can run with the server up.
+ * <br>
+ * Full backups are checked against the tree hash, just like on restore. Incremental backups can't be checked that way
+ * without their parents, so instead every file stored in the archive is compared with the digest. Region deltas are skipped,
+ * as they can only be rebuilt on top of the previous backup.
+ */
+public class BackupVerifier {
+    private final static TextileLogger log = new TextileLogger(TextileBackup.MOD_NAME);
+    private final static ConfigHelper config = ConfigHelper.INSTANCE;
+
+    //Entries are hashed as if they were extracted here
+    private final static Path VIRTUAL_ROOT = Path.of("verify");
+
+    public record Result(RestoreableFile backup, Optional<String> error, int files, long bytes, Duration duration) {
+        public boolean isValid() { return error.isEmpty(); }
+    }
+
+    /**
+     * Verifies the backup on the verification executor. Outcome is reported to the <code>source</code>, or just logged if it's null
+     */
+    public static void submit(RestoreableFile backup, ServerCommandSource source) {
+        try {
+            Globals.INSTANCE.getVerificationExecutor().submit(() -> {
+                try {
+                    Result result = verify(backup);
+                    VerificationLog.record(backup.getFile(), Instant.now(), result.error().orElse(null));
+
+                    if(result.isValid())
+                        log.sendInfoAL(source, "Backup {} is valid. Checked {} files ({} MiB) in {} seconds",
+                                backup.getFile().getFileName(), result.files(), result.bytes() >> 20,
+                                Utilities.formatDuration(result.duration()));
+                    else
+                        log.sendErrorAL(source, "Backup {} is damaged! {}", backup.getFile().getFileName(), result.error().get());
+                } catch (InterruptedIOException e) {
+                    log.info("Verification of {} was interrupted", backup.getFile().getFileName());
+                } catch (IOException | RuntimeException e) {
+                    log.error("An exception occurred while verifying {}!", backup.getFile().getFileName(), e);
+                    if(e instanceof IOException) VerificationLog.record(backup.getFile(), Instant.now(), "Couldn't read the archive! " + e);
+                    log.sendError(source, "Couldn't verify {}! {}", backup.getFile().getFileName(), e.getMessage());
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            log.sendError(source, "Backup verification is unavailable, as the server is shutting down");
+        }
+    }
+
+    /**
+     * Checks on the verification executor whether the files of <code>directory</code> in the <code>world</code> are the same
+     * as in the backup, see {@link #verifyWorld(RestoreableFile, Path, String, int)}. Outcome is reported to the <code>source</code>
+     */
+    public static void submit(RestoreableFile backup, Path world, String directory, ServerCommandSource source) {
+        String name = directory.isEmpty() ? "World" : "Directory " + directory;
+
+        try {
+            Globals.INSTANCE.getVerificationExecutor().submit(() -> {
+                try {
+                    TreeDigest.Difference difference = verifyWorld(backup, world, directory, Utilities.getCoreCount());
+
+                    if(difference.isEmpty()) log.sendInfoAL(source, "{} matches backup {}", name, backup.getFile().getFileName());
+                    else log.sendErrorAL(source, "{} doesn't match backup {}!{}", name, backup.getFile().getFileName(), difference);
+                } catch (InterruptedIOException e) {
+                    log.info("Verification of {} was interrupted", backup.getFile().getFileName());
+                } catch (IOException | RuntimeException e) {
+                    log.error("An exception occurred while verifying {} against {}!", name, backup.getFile().getFileName(), e);
+                    log.sendError(source, "Couldn't verify {}! {}", name, e.getMessage());
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            log.sendError(source, "Backup verification is unavailable, as the server is shutting down");
+        }
+    }
+
+    /**
+     * Compares the files of <code>directory</code> found in the <code>world</code> with their hashes from the backup's digest,
+     * e.g. to check a single dimension after it has been restored. Only the files of the directory are hashed, and files which
+     * the {@link HashCache} knows to be unchanged aren't read at all. The archive itself still has to be read to get to the status.
+     *
+     * @param directory path relative to the world, with '/' as the separator. Empty for the whole world
+     */
+    public static TreeDigest.Difference verifyWorld(RestoreableFile backup, Path world, String directory, int threads) throws IOException {
+        //Hashes of the archive aren't needed, so they're done whichever way is the cheapest
+        CompressionStatus status = run(backup, 0, HashAlgorithm.BALTIC, threads, null).target().readStatus();
+
+        if(status == null) throw new IOException("Status file not found!");
+        if(status.digest() == null) throw new IOException("Backups made by older versions don't have hashes of single files!");
+
+        //Opening the cache with different settings would clear it
+        HashCache cache = null;
+        if(config.get().useHashCache && status.hashSegmentSize() == SegmentedHash.SEGMENT_SIZE && status.hashAlgorithm() == config.get().hashAlgorithm) {
+            try {
+                cache = HashCache.open(backup.getFile().getParent(), world, status.hashSegmentSize(), status.hashAlgorithm());
+            } catch (IOException e) {
+                log.error("An exception occurred while trying to open the hash cache!", e);
+            }
+        }
+
+        try {
+            return status.digest().verify(world, directory, status.hashSegmentSize(), status.hashAlgorithm(), threads, cache);
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        } finally {
+            if(cache != null) cache.close();
+        }
+    }
+
+    public static Result verify(RestoreableFile backup) throws IOException {
+        return verify(backup, Utilities.getCoreCount(), null);
+    }
+
+    /**
+     * @param throttle limits the rate at which the contents of the archive are read. Null for no limit
+     */
+    public static Result verify(RestoreableFile backup, int threads, Throttle throttle) throws IOException {
+        Instant start = Instant.now();
+
+        //Try to guess how the files were hashed, so that in most cases a single pass is enough
+        Optional<BackupManifest> manifest = BackupManifest.readSidecar(backup.getFile());
+        int segmentSize = manifest.map(BackupManifest::hashSegmentSize).orElse(SegmentedHash.SEGMENT_SIZE);
+        HashAlgorithm algorithm = manifest.map(BackupManifest::hashAlgorithm).orElse(config.get().hashAlgorithm);
+
+        Pass pass = run(backup, segmentSize, algorithm, threads, throttle);
+        CompressionStatus status = pass.target().readStatus();
+
+        if(status == null) return pass.result(backup, Optional.of("Status file not found!"), start);
+
+        //Status comes last, so only now do we know for sure
+        if(status.hashSegmentSize() != segmentSize || status.hashAlgorithm() != algorithm) {
+            log.debug("Backup {} was hashed differently than expected, reading it again", backup.getFile().getFileName());
+            pass = run(backup, status.hashSegmentSize(), status.hashAlgorithm(), threads, throttle);
+        }
+
+        TreeDigest actual = pass.hashBuilder().getDigest(VIRTUAL_ROOT);
+        Optional<String> error;
+
+        if(!status.isIncremental()) {
+            try {
+                error = status.validateHash(pass.hashBuilder().getValue(false), actual);
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            }
+        } else if(status.digest() == null) {
+            error = Optional.of("Incremental backups made by older versions can't be verified without restoring!");
+        } else {
+            error = compareStoredFiles(status, actual);
+        }
+
+        return pass.result(backup, error, start);
+    }
+
+    private static Pass run(RestoreableFile backup, int segmentSize, HashAlgorithm algorithm, int threads, Throttle throttle) throws IOException {
+        FileTreeHashBuilder hashBuilder = new FileTreeHashBuilder(0, segmentSize, algorithm);
+        VerificationTarget target = new VerificationTarget(throttle);
+
+        switch (backup.getArchiveFormat()) {
+            case ZIP -> ZipDecompressor.decompress(backup.getFile(), target, hashBuilder, threads);
+            case DEDUP -> ChunkStoreDecompressor.decompress(backup.getFile(), target, hashBuilder);
+            default -> GenericTarDecompressor.decompress(backup.getFile(), target, hashBuilder, threads);
+        }
+
+        return new Pass(hashBuilder, target);
+    }
+
+    //Incremental backup only holds the files which have changed, each of them has to match its hash from the digest
+    private static Optional<String> compareStoredFiles(CompressionStatus status, TreeDigest actual) {
+        List<String> damaged = new ArrayList<>(), unexpected = new ArrayList<>();
+
+        actual.entries().forEach((name, hash) -> {
+            if(name.endsWith(RegionDelta.REGION_EXTENSION + RegionDelta.DELTA_EXTENSION)) return;
+
+            Long expected = status.digest().entries().get(name);
+            if(expected == null) unexpected.add(name);
+            else if(expected.longValue() != hash) damaged.add(name);
+        });
+
+        TreeDigest.Difference difference = new TreeDigest.Difference(damaged, List.of(), unexpected);
+
+        if(!difference.isEmpty()) return Optional.of("Files don't match their hashes!" + difference);
+        if(!status.brokenFiles().isEmpty()) return Optional.of("Damaged files present! ^");
+
+        return Optional.empty();
+    }
+
+    private record Pass(FileTreeHashBuilder hashBuilder, VerificationTarget target) {
+        Result result(RestoreableFile backup, Optional<String> error, Instant start) {
+            return new Result(backup, error, target.files.get(), target.bytes.sum(), Duration.between(start, Instant.now()));
+        }
+    }
+
+    /**
+     * Files are only counted and dropped, with exception of the status file, which we need to read
+     */
+    private static class VerificationTarget implements ExtractionTarget {
+        private final Map<String, ByteArrayOutputStream> metadata = new ConcurrentHashMap<>();
+        private final AtomicInteger files = new AtomicInteger();
+        private final LongAdder bytes = new LongAdder();
+        private final Throttle throttle;
+
+        VerificationTarget(Throttle throttle) {
+            this.throttle = throttle;
+        }
+
+        @Override
+        public Path resolve(String entryName) { return VIRTUAL_ROOT.resolve(entryName); }
+
+        @Override
+        public void createDirectories(Path directory) { }
+
+        @Override
+        public OutputStream newOutputStream(Path file) {
+            if(VIRTUAL_ROOT.equals(file.getParent()) && file.getFileName().toString().equals(CompressionStatus.DATA_FILENAME)) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                metadata.put(CompressionStatus.DATA_FILENAME, out);
+                return out;
+            }
+
+            files.incrementAndGet();
+
+            return new OutputStream() {
+                @Override
+                public void write(int b) throws IOException {
+                    write(new byte[] { (byte) b }, 0, 1);
+                }
+
+                @Override
+                public void write(byte @NotNull [] b, int off, int len) throws IOException {
+                    //Lets the server stop without waiting for the verification to finish
+                    if(Thread.currentThread().isInterrupted()) throw new InterruptedIOException();
+                    if(throttle != null) throttle.acquire(len);
+                    bytes.add(len);
+                }
+            };
+        }
+
+        CompressionStatus readStatus() throws IOException {
+            ByteArrayOutputStream out = metadata.get(CompressionStatus.DATA_FILENAME);
+            if(out == null) return null;
+
+            try {
+                return CompressionStatus.deserialize(out.toByteArray());
+            } catch (ClassNotFoundException e) {
+                throw new IOException("Couldn't read the status file!", e);
+            }
+        }
+    }
+}
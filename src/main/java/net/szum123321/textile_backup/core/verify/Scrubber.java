@@ -0,0 +1,113 @@
+/*
+ * A simple backup mod for Fabric
+ * Copyright (C)  2022   Szum123321
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package net.szum123321.textile_backup.core.verify;
+
+import net.szum123321.textile_backup.Globals;
+import net.szum123321.textile_backup.TextileBackup;
+import net.szum123321.textile_backup.TextileLogger;
+import net.szum123321.textile_backup.config.ConfigHelper;
+import net.szum123321.textile_backup.core.RestoreableFile;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.Optional;
+
+/**
+ * Goes through the backup directory in the background and verifies each backup every {@link net.szum123321.textile_backup.config.ConfigPOJO#scrubbingInterval} seconds,
+ * so that a damaged backup is noticed before someone tries to restore it. Reads are limited to {@link net.szum123321.textile_backup.config.ConfigPOJO#scrubbingSpeed}
+ * MiB/s and stop completely while a backup or restore is in progress. Results end up in the {@link VerificationLog}.
+ */
+public class Scrubber implements Runnable {
+    private final static TextileLogger log = new TextileLogger(TextileBackup.MOD_NAME);
+    private final static ConfigHelper config = ConfigHelper.INSTANCE;
+
+    //How often do we check if there's something to do
+    private final static long IDLE_SLEEP = 60_000;
+
+    private final Path root;
+
+    public Scrubber(Path root) {
+        this.root = root;
+    }
+
+    @Override
+    public void run() {
+        log.debug("Scrubber started in {}", root);
+
+        try {
+            while(!Thread.currentThread().isInterrupted()) {
+                Optional<RestoreableFile> next = config.get().scrubbingSpeed > 0 && !Globals.INSTANCE.isBusy() ? findNext() : Optional.empty();
+
+                if(next.isPresent()) scrub(next.get());
+                else Thread.sleep(IDLE_SLEEP);
+            }
+        } catch (InterruptedException | InterruptedIOException ignored) {
+        }
+
+        log.debug("Scrubber stopped");
+    }
+
+    private void scrub(RestoreableFile backup) throws InterruptedIOException {
+        Instant start = Instant.now();
+        Throttle throttle = new Throttle((long) config.get().scrubbingSpeed << 20, Globals.INSTANCE::isBusy);
+        String error;
+
+        log.debug("Scrubbing {}", backup.getFile().getFileName());
+
+        try {
+            //Reading is what's limited here, so there's no point in more threads
+            error = BackupVerifier.verify(backup, 1, throttle).error().orElse(null);
+        } catch (InterruptedIOException e) {
+            throw e;
+        } catch (IOException | RuntimeException e) {
+            //Cleanup might have deleted it in the meantime
+            if(Files.notExists(backup.getFile())) return;
+            log.error("An exception occurred while scrubbing {}!", backup.getFile().getFileName(), e);
+            error = "Couldn't read the archive! " + e;
+        }
+
+        if(error != null) log.error("Backup {} is damaged! {}", backup.getFile().getFileName(), error);
+
+        VerificationLog.record(backup.getFile(), start, error);
+    }
+
+    //Backups which were never checked go first, newest of them first, then the ones checked the longest time ago
+    private Optional<RestoreableFile> findNext() {
+        if(Files.notExists(root)) return Optional.empty();
+
+        VerificationLog verificationLog = VerificationLog.load(root);
+        Instant due = Instant.now().minus(Duration.ofSeconds(config.get().scrubbingInterval));
+
+        Comparator<RestoreableFile> order = Comparator.comparing(
+                (RestoreableFile f) -> verificationLog.get(f.getFile()).map(VerificationLog.Entry::getCheckTime).orElse(Instant.MIN)
+        ).thenComparing(Comparator.<RestoreableFile>naturalOrder().reversed());
+
+        return RestoreableFile.applyOnFiles(root, Optional.empty(),
+                e -> log.error("An exception occurred while listing backups to scrub!", e),
+                s -> s.filter(f -> verificationLog.get(f.getFile()).map(e -> e.getCheckTime().isBefore(due)).orElse(true))
+                        .min(order)
+        );
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * A simple backup mod for Fabric
+ * Copyright (C)  2022   Szum123321
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package net.szum123321.textile_backup.core.verify;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Limits how fast data can flow, and stops it altogether while <code>paused</code> says so.
+ * Callers block in {@link #acquire(long)} until they're allowed to continue.
+ */
+public class Throttle {
+    private final static long PAUSE_CHECK_INTERVAL = 1000;
+    //How much unused allowance can pile up, so that a short stall doesn't get followed by a burst
+    private final static long MAX_CREDIT = TimeUnit.MILLISECONDS.toNanos(250);
+
+    private final long bytesPerSecond;
+    private final BooleanSupplier paused;
+    private long deadline = System.nanoTime();
+
+    /**
+     * @param bytesPerSecond 0 means no limit
+     */
+    public Throttle(long bytesPerSecond, BooleanSupplier paused) {
+        this.bytesPerSecond = bytesPerSecond;
+        this.paused = paused;
+    }
+
+    public synchronized void acquire(long bytes) throws InterruptedIOException {
+        try {
+            if(paused.getAsBoolean()) {
+                do {
+                    Thread.sleep(PAUSE_CHECK_INTERVAL);
+                } while(paused.getAsBoolean());
+
+                deadline = System.nanoTime();
+            }
+
+            if(bytesPerSecond <= 0) return;
+
+            long now = System.nanoTime();
+            deadline = Math.max(deadline, now - MAX_CREDIT) + bytes * TimeUnit.SECONDS.toNanos(1) / bytesPerSecond;
+
+            if(deadline > now) TimeUnit.NANOSECONDS.sleep(deadline - now);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * A simple backup mod for Fabric
+ * Copyright (C)  2022   Szum123321
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package net.szum123321.textile_backup.core.verify;
+
+import net.szum123321.textile_backup.TextileBackup;
+import net.szum123321.textile_backup.TextileLogger;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Remembers the outcome of the last verification of every backup in the directory.
+ * An entry only counts as long as the file still has the same size and modification time as when it was checked.
+ */
+public class VerificationLog {
+    private final static TextileLogger log = new TextileLogger(TextileBackup.MOD_NAME);
+    private final static Object lock = new Object();
+
+    public static final String FILENAME = "textile_verification.data";
+
+    /**
+     * @param error null if the backup was fine
+     */
+    public record Entry(long checkedAt, long size, long lastModified, String error) implements Serializable {
+        public boolean isValid() { return error == null; }
+
+        public Instant getCheckTime() { return Instant.ofEpochMilli(checkedAt); }
+    }
+
+    private final Map<String, Entry> entries;
+
+    private VerificationLog(Map<String, Entry> entries) {
+        this.entries = entries;
+    }
+
+    public Optional<Entry> get(Path backupFile) {
+        Entry entry = entries.get(backupFile.getFileName().toString());
+        if(entry == null) return Optional.empty();
+
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(backupFile, BasicFileAttributes.class);
+            if(attrs.size() != entry.size() || attrs.lastModifiedTime().toMillis() != entry.lastModified()) return Optional.empty();
+        } catch (IOException e) {
+            return Optional.empty();
+        }
+
+        return Optional.of(entry);
+    }
+
+    public boolean isDamaged(Path backupFile) {
+        return get(backupFile).filter(e -> !e.isValid()).isPresent();
+    }
+
+    public static VerificationLog load(Path root) {
+        synchronized (lock) {
+            return new VerificationLog(read(root.resolve(FILENAME)));
+        }
+    }
+
+    /**
+     * @param error null if the backup was fine
+     */
+    public static void record(Path backupFile, Instant checkedAt, String error) {
+        synchronized (lock) {
+            Path file = backupFile.resolveSibling(FILENAME);
+            Map<String, Entry> entries = read(file);
+
+            try {
+                BasicFileAttributes attrs = Files.readAttributes(backupFile, BasicFileAttributes.class);
+                entries.put(backupFile.getFileName().toString(),
+                        new Entry(checkedAt.toEpochMilli(), attrs.size(), attrs.lastModifiedTime().toMillis(), error));
+            } catch (NoSuchFileException ignored) {
+                //Deleted in the meantime
+            } catch (IOException e) {
+                log.error("Couldn't read attributes of {}", backupFile, e);
+                return;
+            }
+
+            //Forget the backups which were deleted
+            entries.keySet().removeIf(name -> Files.notExists(backupFile.resolveSibling(name)));
+
+            write(file, entries);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Entry> read(Path file) {
+        if(Files.notExists(file)) return new HashMap<>();
+
+        try(ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            return (HashMap<String, Entry>) in.readObject();
+        } catch (IOException | ClassNotFoundException | ClassCastException e) {
+            log.error("Couldn't read the verification log {}", file, e);
+            return new HashMap<>();
+        }
+    }
+
+    private static void write(Path file, Map<String, Entry> entries) {
+        Path tmp = file.resolveSibling(FILENAME + ".tmp");
+
+        try {
+            try(ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                out.writeObject(entries);
+            }
+
+            //Half-written log would lose all the results
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.error("Couldn't save the verification log {}", file, e);
+        }
+    }
+}
@@ -22,6 +22,9 @@ import net.minecraft.util.math.random.Random;
 import net.szum123321.textile_backup.TextileBackup;
 import net.szum123321.textile_backup.TextileLogger;
 import net.szum123321.textile_backup.core.digest.BalticHash;
+import net.szum123321.textile_backup.core.digest.Hash;
+import net.szum123321.textile_backup.core.digest.HashAlgorithm;
+import net.szum123321.textile_backup.core.digest.Xxh3Hash;
 
 public class BalticHashTest {
     private final static TextileLogger log = new TextileLogger(TextileBackup.MOD_NAME);
@@ -36,16 +39,37 @@ public class BalticHashTest {
         for(int i = 0; i < TEST_LEN; i++) data[i] = (byte)r.nextInt();
 
         //Test block mode
-        for(int i = 0; i < 5*2; i++) x ^= randomHash(data, r);
-        if(x != 0) throw new RuntimeException("Hash mismatch!");
+        for(HashAlgorithm algorithm: HashAlgorithm.values()) {
+            for(int i = 0; i < 5*2; i++) x ^= randomHash(data, r, algorithm);
+            if(x != 0) throw new RuntimeException("Hash mismatch! " + algorithm);
+        }
+
+        //Bulk path has to match the byte-by-byte one
+        BalticHash h = new BalticHash();
+        for(byte b: data) h.update(b);
+        if(h.getValue() != wholeHash(data)) throw new RuntimeException("Bulk hash mismatch!");
+
+        //XXH3 has to give the same values as the reference implementation
+        byte[] pattern = new byte[2137];
+        for(int i = 0; i < pattern.length; i++) pattern[i] = (byte) (i * 31 % 251);
+        Xxh3Hash xxh = new Xxh3Hash();
+        xxh.update(pattern);
+        if(new Xxh3Hash().getValue() != 0x2D06800538D394C2L || xxh.getValue() != 0x9EDD0648684B5E84L)
+            throw new RuntimeException("XXH3 mismatch!");
 
         log.info("Test passed");
     }
 
-    static long randomHash(byte[] data, Random r) {
+    static long wholeHash(byte[] data) {
+        BalticHash h = new BalticHash();
+        h.update(data, 0, data.length);
+        return h.getValue();
+    }
+
+    static long randomHash(byte[] data, Random r, HashAlgorithm algorithm) {
         int n = data.length;
 
-        BalticHash h = new BalticHash();
+        Hash h = algorithm.create();
 
         int m = r.nextBetween(1, n);
 
@@ -0,0 +1,55 @@
+/*
+ * A simple backup mod for Fabric
+ * Copyright (C)  2022   Szum123321
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package net.szum123321.textile_backup.test;
+
+import net.minecraft.util.math.random.Random;
+import net.szum123321.textile_backup.TextileBackup;
+import net.szum123321.textile_backup.TextileLogger;
+import net.szum123321.textile_backup.core.digest.HashAlgorithm;
+import net.szum123321.textile_backup.core.digest.SegmentedHash;
+
+public class SegmentedHashTest {
+    private final static TextileLogger log = new TextileLogger(TextileBackup.MOD_NAME);
+    final static int TEST_LEN = 21377; //simple prime
+    final static int SEGMENT_SIZE = 1000; //so that there's a partial tail segment
+    public static void run() throws RuntimeException {
+        log.info("Running segmented hash test");
+        Random r = Random.create(2137);
+
+        byte[] data = new byte[TEST_LEN];
+
+        for(int i = 0; i < TEST_LEN; i++) data[i] = (byte)r.nextInt();
+
+        for(HashAlgorithm algorithm: HashAlgorithm.values()) {
+            SegmentedHash h = new SegmentedHash(SEGMENT_SIZE, algorithm);
+            h.update(data, 0, data.length);
+
+            //getValue has to be repeatable, same as with every other hash
+            long first = h.getValue();
+            if(h.getValue() != first) throw new RuntimeException("Repeated getValue mismatch! " + algorithm);
+
+            //Result can't depend on how the data was fed in
+            SegmentedHash b = new SegmentedHash(SEGMENT_SIZE, algorithm);
+            for(byte x: data) b.update(x);
+            if(b.getValue() != first) throw new RuntimeException("Segmented hash mismatch! " + algorithm);
+        }
+
+        log.info("Test passed");
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * A simple backup mod for Fabric
+ * Copyright (C)  2022   Szum123321
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package net.szum123321.textile_backup.test;
+
+import net.minecraft.util.math.random.Random;
+import net.szum123321.textile_backup.TextileBackup;
+import net.szum123321.textile_backup.TextileLogger;
+import net.szum123321.textile_backup.core.digest.BalticHash;
+import net.szum123321.textile_backup.core.digest.Xxh3Hash;
+
+/**
+ * Bulk hashing goes through the Vector API when jdk.incubator.vector is present, so it has to keep giving the scalar
+ * results once C2 has compiled it. Only the scalar code is checked when the module is missing.
+ */
+public class VectorHashTest {
+    private final static TextileLogger log = new TextileLogger(TextileBackup.MOD_NAME);
+    //Well past the point where the hot loops get compiled by C2
+    final static int ITERATIONS = 50_000;
+    final static int TEST_LEN = 2137;
+    public static void run() throws RuntimeException {
+        log.info("Running vector hash test");
+        Random r = Random.create(2137);
+
+        byte[] data = new byte[TEST_LEN];
+        for(int i = 0; i < TEST_LEN; i++) data[i] = (byte)r.nextInt();
+
+        byte[] pattern = new byte[TEST_LEN];
+        for(int i = 0; i < pattern.length; i++) pattern[i] = (byte) (i * 31 % 251);
+
+        for(int i = 0; i < ITERATIONS; i++) {
+            int off = r.nextInt(64), len = r.nextBetween(1, TEST_LEN - off);
+
+            //Byte by byte updates only use the scalar round
+            BalticHash bulk = new BalticHash(), bytes = new BalticHash();
+            bulk.update(data, off, len);
+            for(int j = off; j < off + len; j++) bytes.update(data[j]);
+            if(bulk.getValue() != bytes.getValue()) throw new RuntimeException("Vector BalticHash mismatch after " + i + " iterations!");
+
+            //There's no scalar path to compare XXH3 with, so it's checked against the reference implementation
+            Xxh3Hash xxh = new Xxh3Hash();
+            int split = r.nextInt(TEST_LEN);
+            xxh.update(pattern, 0, split);
+            xxh.update(pattern, split, TEST_LEN - split);
+            if(xxh.getValue() != 0x9EDD0648684B5E84L) throw new RuntimeException("Vector XXH3 mismatch after " + i + " iterations!");
+        }
+
+        log.info("Test passed");
+    }
+}
@@ -24,8 +24,9 @@ package org.at4j.comp.bzip2;
  * bzip2 encoding.
  * <p>
  * The executor service spreads the work over all threads available to it. If a
- * {@link BZip2OutputStream} submits more work when all threads are busy, the
- * call blocks until the next thread becomes available.
+ * {@link BZip2OutputStream} has as many blocks in flight as it is allowed to
+ * (see {@link BZip2OutputStreamSettings#setNumberOfBlocksInFlight(int)}), the
+ * thread writing to it blocks until the oldest block has been written.
  * <p>
  * When the client is done using the executor, it must call {@link #shutdown()}
  * to release all of its resources.
@@ -18,9 +18,7 @@
  */
 package org.at4j.comp.bzip2;
 
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
@@ -33,42 +31,22 @@ import java.util.concurrent.TimeUnit;
  */
 final class BZip2EncoderExecutorServiceImpl implements BZip2EncoderExecutorService
 {
-	/**
-	 * This rejected execution handler shoehorns in a job in an
-	 * {@link ExecutorService}'s job queue if it is rejected by the service.
-	 * This requires that the service's job queue has an upper bound and that it
-	 * blocks when trying to insert more elements than the bound.
-	 * @author Karl Gustafsson
-	 * @since 1.1
-	 */
-	private static class ShoehornInJobRejectedExecutionHandler implements RejectedExecutionHandler
-	{
-		private static final ShoehornInJobRejectedExecutionHandler INSTANCE = new ShoehornInJobRejectedExecutionHandler();
-
-		public void rejectedExecution(Runnable r, ThreadPoolExecutor executor)
-		{
-			//			System.out.print("Shoehorning... ");
-			try
-			{
-				executor.getQueue().put(r);
-			}
-			catch (InterruptedException e)
-			{
-				throw new RuntimeException(e);
-			}
-			//			System.out.println("done");
-		}
-	}
-
 	private final ThreadPoolExecutor m_executor;
 	private final ErrorState m_errorState;
 
 	BZip2EncoderExecutorServiceImpl(int noThreads, ErrorState es)
 	{
-		m_executor = new ThreadPoolExecutor(noThreads, noThreads, 100, TimeUnit.SECONDS, new ArrayBlockingQueue<>(1), new EncodingThreadFactory(es), ShoehornInJobRejectedExecutionHandler.INSTANCE);
+		// The queue does not have to be bounded. Each stream can only have as
+		// many blocks in flight as it has buffers in its BlockBufferPool.
+		m_executor = new ThreadPoolExecutor(noThreads, noThreads, 100, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), new EncodingThreadFactory(es));
 		m_errorState = es;
 	}
 
+	int getNumberOfThreads()
+	{
+		return m_executor.getMaximumPoolSize();
+	}
+
 	ErrorState getErrorState()
 	{
 		return m_errorState;
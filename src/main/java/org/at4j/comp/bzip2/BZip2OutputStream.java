@@ -22,6 +22,7 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import org.at4j.support.io.BitOutput;
 import org.at4j.support.io.LittleEndianBitOutputStream;
 
 /**
@@ -55,6 +56,9 @@ public class BZip2OutputStream extends OutputStream implements AutoCloseable
 	// If several threads are used to encode the data, this is used to write the
 	// encoded blocks in the right order.
 	private final EncodedBlockWriter m_encodedBlockWriter;
+	// If the output is split into several streams, this keeps track of them.
+	// Otherwise it is null.
+	private final StreamSplitter m_streamSplitter;
 	private final BZip2EncoderExecutorServiceImpl m_executorService;
 	private final boolean m_iCreatedExecutor;
 	private final int m_hashCode = HASH_CODE_GENERATOR.getAndIncrement();
@@ -62,7 +66,7 @@ public class BZip2OutputStream extends OutputStream implements AutoCloseable
 	private boolean m_closed;
 	private long m_pos = 0;
 
-	private static void writeFileHeader(OutputStream os, int blockSize) throws IOException
+	static void writeFileHeader(OutputStream os, int blockSize) throws IOException
 	{
 		// File header
 		os.write('B');
@@ -101,16 +105,20 @@ public class BZip2OutputStream extends OutputStream implements AutoCloseable
 		// bzip2 uses 1kb == 1000b
 		m_blockSize = settings.getBlockSize() * 100 * 1000;
 
-		writeFileHeader(wrapped, settings.getBlockSize());
+		writeFileHeader(m_wrapped, settings.getBlockSize());
+
+		m_streamSplitter = settings.getNumberOfBlocksPerStream() > 0 ? new StreamSplitter(m_wrapped, settings.getBlockSize(), settings.getNumberOfBlocksPerStream()) : null;
 
 		EncodingScratchpad sp;
+		BlockBufferPool pool;
 		if (settings.getExecutorService() != null)
 		{
 			// Use the supplied executor service
 			// There is only one allowed implementation for now.
 			m_executorService = (BZip2EncoderExecutorServiceImpl) settings.getExecutorService();
 			m_iCreatedExecutor = false;
-			m_encodedBlockWriter = new EncodedBlockWriter(m_wrapped);
+			pool = createBlockBufferPool(settings, m_executorService);
+			m_encodedBlockWriter = new EncodedBlockWriter(m_wrapped, pool, m_streamSplitter);
 			// Each encoder thread has its own scratchpad
 			sp = null;
 		}
@@ -119,7 +127,8 @@ public class BZip2OutputStream extends OutputStream implements AutoCloseable
 			// Use separate encoder threads.
 			m_executorService = new BZip2EncoderExecutorServiceImpl(settings.getNumberOfEncoderThreads(), new SingleObserverErrorState());
 			m_iCreatedExecutor = true;
-			m_encodedBlockWriter = new EncodedBlockWriter(m_wrapped);
+			pool = createBlockBufferPool(settings, m_executorService);
+			m_encodedBlockWriter = new EncodedBlockWriter(m_wrapped, pool, m_streamSplitter);
 			// Each encoder thread has its own scratchpad
 			sp = null;
 		}
@@ -129,10 +138,21 @@ public class BZip2OutputStream extends OutputStream implements AutoCloseable
 			m_executorService = null;
 			m_iCreatedExecutor = false;
 			sp = new EncodingScratchpad();
+			pool = null;
 			m_encodedBlockWriter = null;
 		}
 
-		m_blockOutputStream = new BlockOutputStream(m_wrapped, m_blockSize, settings.getNumberOfHuffmanTreeRefinementIterations() , m_executorService, this, m_encodedBlockWriter, sp);
+		m_blockOutputStream = new BlockOutputStream(m_wrapped, m_blockSize, settings.getNumberOfHuffmanTreeRefinementIterations(), settings.getHuffmanTreeRefinementMinGain(), settings.getBlockSortingAlgorithm(), m_executorService, this, m_encodedBlockWriter, pool, m_streamSplitter, sp);
+	}
+
+	private BlockBufferPool createBlockBufferPool(BZip2OutputStreamSettings settings, BZip2EncoderExecutorServiceImpl executor)
+	{
+		int blocksInFlight = settings.getNumberOfBlocksInFlight();
+		if (blocksInFlight == 0)
+		{
+			blocksInFlight = 2 * executor.getNumberOfThreads();
+		}
+		return new BlockBufferPool(m_blockSize, blocksInFlight);
 	}
 
 	private void assertNotClosed() throws IOException
@@ -156,15 +176,15 @@ public class BZip2OutputStream extends OutputStream implements AutoCloseable
 
 	}
 
-	private void writeEosBlock() throws IOException
+	static void writeEosBlock(BitOutput out, int checksum) throws IOException
 	{
 		// Write the end of stream magic
 		for (byte b : EOS_MAGIC) {
-			m_wrapped.writeBitsLittleEndian(b & 0xFF, 8);
+			out.writeBitsLittleEndian(b & 0xFF, 8);
 		}
 		// Write file checksum
-		m_wrapped.writeBitsLittleEndian(m_blockOutputStream.getFileChecksum(), 32);
-		m_wrapped.padToByteBoundary();
+		out.writeBitsLittleEndian(checksum, 32);
+		out.padToByteBoundary();
 	}
 
 	@Override
@@ -213,41 +233,56 @@ public class BZip2OutputStream extends OutputStream implements AutoCloseable
 	@Override
 	public void close() throws IOException
 	{
-		checkErrorState();
-
-		if (!m_closed)
+		try
 		{
-			// This writes out any remaining run length encoding data and closes
-			// the block output stream.
-			m_blockOutputStream.close();
+			checkErrorState();
 
-			if ((m_pos > 0) && (m_encodedBlockWriter != null))
+			if (!m_closed)
 			{
-				// Wait for all blocks to be written.
-				try
+				// This writes out any remaining run length encoding data and closes
+				// the block output stream.
+				m_blockOutputStream.close();
+
+				if ((m_pos > 0) && (m_encodedBlockWriter != null))
 				{
-					m_encodedBlockWriter.waitFor();
+					// Wait for all blocks to be written.
+					try
+					{
+						m_encodedBlockWriter.waitFor();
+					}
+					catch (InterruptedException e)
+					{
+						// Repackage
+						throw new IOException("Interrupted. The output file is most likely corrupted.");
+					}
+					checkErrorState();
 				}
-				catch (InterruptedException e)
+
+				if (m_streamSplitter != null)
 				{
-					// Repackage
-					throw new IOException("Interrupted. The output file is most likely corrupted.");
+					m_streamSplitter.finish();
+				}
+				else
+				{
+					writeEosBlock(m_wrapped, m_blockOutputStream.getFileChecksum());
 				}
-				checkErrorState();
-			}
-
-			writeEosBlock();
 
-			m_wrapped.close();
+				m_wrapped.close();
 
-			debug("Original size: " + m_pos + ", compressed size: " + m_wrapped.getNumberOfBytesWritten());
+				debug("Original size: " + m_pos + ", compressed size: " + m_wrapped.getNumberOfBytesWritten());
 
+				m_closed = true;
+				super.close();
+			}
+		}
+		finally
+		{
+			// Shut down the executor even if encoding failed, so that its
+			// threads do not linger.
 			if (m_iCreatedExecutor && (m_executorService != null))
 			{
 				m_executorService.shutdown();
 			}
-			m_closed = true;
-			super.close();
 		}
 	}
 
@@ -55,14 +55,42 @@ public class BZip2OutputStreamSettings implements Cloneable
 	 */
 	public static final int DEFAULT_NO_OF_HUFFMAN_TREE_REFINEMENT_ITERATIONS = 5;
 
+	/**
+	 * The default minimum gain of a Huffman tree refinement iteration, in
+	 * thousandths of the encoded length of the block. With zero, refinement
+	 * stops as soon as an iteration does not make the block shorter.
+	 */
+	public static final int DEFAULT_HUFFMAN_TREE_REFINEMENT_MIN_GAIN = 0;
+
 	/**
 	 * The default number of encoder threads.
 	 */
 	public static final int DEFAULT_NO_OF_ENCODER_THREADS = 0;
 
+	/**
+	 * The default number of blocks in flight. Zero means twice the number of
+	 * encoder threads.
+	 */
+	public static final int DEFAULT_NO_OF_BLOCKS_IN_FLIGHT = 0;
+
+	/**
+	 * The default number of blocks per stream. Zero means that all data is
+	 * written as a single stream.
+	 */
+	public static final int DEFAULT_NO_OF_BLOCKS_PER_STREAM = 0;
+
+	/**
+	 * The default block sorting algorithm.
+	 */
+	public static final BlockSortingAlgorithm DEFAULT_BLOCK_SORTING_ALGORITHM = BlockSortingAlgorithm.RADIX_QUICKSORT_WITH_FALLBACK;
+
 	private int m_blockSize = DEFAULT_BLOCK_SIZE;
 	private int m_numberOfHuffmanTreeRefinementIterations = DEFAULT_NO_OF_HUFFMAN_TREE_REFINEMENT_ITERATIONS;
+	private int m_huffmanTreeRefinementMinGain = DEFAULT_HUFFMAN_TREE_REFINEMENT_MIN_GAIN;
 	private int m_numberOfEncoderThreads = DEFAULT_NO_OF_ENCODER_THREADS;
+	private int m_numberOfBlocksInFlight = DEFAULT_NO_OF_BLOCKS_IN_FLIGHT;
+	private int m_numberOfBlocksPerStream = DEFAULT_NO_OF_BLOCKS_PER_STREAM;
+	private BlockSortingAlgorithm m_blockSortingAlgorithm = DEFAULT_BLOCK_SORTING_ALGORITHM;
 	private BZip2EncoderExecutorService m_executorService;
 
 	/**
@@ -128,6 +156,70 @@ public class BZip2OutputStreamSettings implements Cloneable
 		return m_numberOfHuffmanTreeRefinementIterations;
 	}
 
+	/**
+	 * Set how much a Huffman tree refinement iteration must shorten the
+	 * encoded block for the refinement to continue. The number of iterations
+	 * set by {@link #setNumberOfHuffmanTreeRefinementIterations(int)} is an
+	 * upper bound; refinement stops earlier when an iteration gains less than
+	 * this.
+	 * <p>
+	 * A higher value gives faster but slightly worse compression.
+	 * <p>
+	 * The default value is zero, which stops the refinement when an iteration
+	 * does not shorten the encoded block at all.
+	 * @param gain The minimum gain in thousandths of the encoded length of the
+	 * block. This should be between 0 and 1000 (inclusive).
+	 * @return {@code this}
+	 * @throws IllegalArgumentException If the gain is not in the permitted
+	 * range.
+	 */
+	public BZip2OutputStreamSettings setHuffmanTreeRefinementMinGain(int gain) throws IllegalArgumentException
+	{
+		if (gain < 0 || gain > 1000)
+		{
+			throw new IllegalArgumentException("Invalid gain " + gain + ". It must be between 0 and 1000 (inclusive)");
+		}
+		m_huffmanTreeRefinementMinGain = gain;
+		return this;
+	}
+
+	/**
+	 * Get the minimum gain of a Huffman tree refinement iteration.
+	 * @return The minimum gain in thousandths of the encoded length of the
+	 * block.
+	 */
+	public int getHuffmanTreeRefinementMinGain()
+	{
+		return m_huffmanTreeRefinementMinGain;
+	}
+
+	/**
+	 * Set the algorithm used for sorting the data of each block in the Burrows
+	 * Wheeler transformation. The choice of the algorithm does not affect the
+	 * compressed data, only how long it takes to create it.
+	 * <p>
+	 * The default is {@link BlockSortingAlgorithm#RADIX_QUICKSORT_WITH_FALLBACK}.
+	 * @param algorithm The block sorting algorithm.
+	 * @return {@code this}
+	 */
+	public BZip2OutputStreamSettings setBlockSortingAlgorithm(BlockSortingAlgorithm algorithm)
+	{
+		// Null check
+		algorithm.getClass();
+
+		m_blockSortingAlgorithm = algorithm;
+		return this;
+	}
+
+	/**
+	 * Get the block sorting algorithm.
+	 * @return The block sorting algorithm.
+	 */
+	public BlockSortingAlgorithm getBlockSortingAlgorithm()
+	{
+		return m_blockSortingAlgorithm;
+	}
+
 	/**
 	 * Set a  for logging diagnostic output to. Output is
 	 * logged to the debug and trace levels.
@@ -178,6 +270,73 @@ public class BZip2OutputStreamSettings implements Cloneable
 		return m_numberOfEncoderThreads;
 	}
 
+	/**
+	 * Set the maximum number of blocks that are in flight at once when
+	 * encoding with separate encoder threads. A block is in flight from when
+	 * data starts being written to it until it has been encoded and written to
+	 * the output. Every block in flight uses about twice the block size of
+	 * memory, which is reused for later blocks.
+	 * <p>
+	 * When the limit is reached, the thread writing to the
+	 * {@link BZip2OutputStream} blocks until the oldest block has been written.
+	 * <p>
+	 * The default value is zero, which means twice the number of encoder
+	 * threads.
+	 * @param no The maximum number of blocks in flight, or {@code 0}.
+	 * @return {@code this}
+	 * @throws IllegalArgumentException If {@code no} is negative.
+	 */
+	public BZip2OutputStreamSettings setNumberOfBlocksInFlight(int no) throws IllegalArgumentException
+	{
+		if (no < 0)
+		{
+			throw new IllegalArgumentException("Invalid number of blocks in flight " + no + ". The number must be zero or greater");
+		}
+
+		m_numberOfBlocksInFlight = no;
+		return this;
+	}
+
+	public int getNumberOfBlocksInFlight()
+	{
+		return m_numberOfBlocksInFlight;
+	}
+
+	/**
+	 * Split the output into several concatenated bzip2 streams of {@code no}
+	 * blocks each. Every stream starts at a byte boundary with its own
+	 * {@code BZh} header, so each one can be found and decompressed on its own,
+	 * and the output can be decompressed in parallel.
+	 * <p>
+	 * The output is still valid bzip2. Decompressors that read concatenated
+	 * streams, like the bzip2 command, give exactly the data that was
+	 * compressed.
+	 * <p>
+	 * The default value is zero, which writes a single stream.
+	 * @param no The number of blocks per stream, or zero.
+	 * @return {@code this}
+	 * @throws IllegalArgumentException If {@code no} is negative.
+	 */
+	public BZip2OutputStreamSettings setNumberOfBlocksPerStream(int no) throws IllegalArgumentException
+	{
+		if (no < 0)
+		{
+			throw new IllegalArgumentException("Invalid number of blocks per stream " + no + ". It must be zero or positive");
+		}
+		m_numberOfBlocksPerStream = no;
+		return this;
+	}
+
+	/**
+	 * Get the number of blocks per stream.
+	 * @return The number of blocks per stream, or zero if all data is written
+	 * as a single stream.
+	 */
+	public int getNumberOfBlocksPerStream()
+	{
+		return m_numberOfBlocksPerStream;
+	}
+
 	/**
 	 * Set an executor service that the {@link BZip2OutputStream} will use to
 	 * spread the encoding over several threads. This executor can be shared
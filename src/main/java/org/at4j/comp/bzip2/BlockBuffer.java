@@ -0,0 +1,90 @@
+/* AT4J -- Archive file tools for Java -- http://www.at4j.org
+ * Copyright (C) 2022 Szum123321
+ *
+ * This file is a part of AT4J
+ *
+ * AT4J is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * AT4J is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.at4j.comp.bzip2;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.at4j.support.io.BitOutput;
+
+/**
+ * The buffers for one block that is encoded in a separate encoder thread. They
+ * are owned by a {@link BlockBufferPool} and reused for block after block, so
+ * that encoding a block does not allocate memory in the size of the block.
+ * @author Szum123321
+ * @since 1.1
+ */
+final class BlockBuffer
+{
+	/**
+	 * A {@link ByteArrayOutputStream} whose contents can be written out
+	 * without copying them first.
+	 */
+	static final class EncodedBytes extends ByteArrayOutputStream
+	{
+		EncodedBytes(int size)
+		{
+			super(size);
+		}
+
+		void writeTo(BitOutput out) throws IOException
+		{
+			out.writeBytes(buf, 0, count);
+		}
+	}
+
+	// The data in the block. This has room for the overshoot used by the
+	// sorting.
+	final byte[] m_data;
+	// Bit flags indicating which bytes that occur at least once in the block.
+	final boolean[] m_seenDifferentBytes = new boolean[256];
+	// The encoded block, except for the last, unfinished byte.
+	final EncodedBytes m_encoded;
+
+	int m_blockNo;
+	// Set by the thread writing to the stream before the block is encoded.
+	int m_blockChecksum;
+	// The last, unfinished byte of the encoded block. Set by the encoder
+	// thread.
+	int m_noBits;
+	int m_bitValue;
+	// Set by the encoder thread if the block could not be encoded.
+	boolean m_failed;
+
+	BlockBuffer(int blockSize)
+	{
+		m_data = new byte[blockSize + ThreeWayRadixQuicksort.DATA_OVERSHOOT];
+		// 2/3rds of the size of the data should be enough for most blocks.
+		m_encoded = new EncodedBytes((2 * blockSize) / 3);
+	}
+
+	/**
+	 * Prepare the buffer for a new block.
+	 */
+	void reset(int blockNo)
+	{
+		m_blockNo = blockNo;
+		Arrays.fill(m_seenDifferentBytes, false);
+		m_encoded.reset();
+		m_noBits = 0;
+		m_bitValue = 0;
+		m_failed = false;
+	}
+}
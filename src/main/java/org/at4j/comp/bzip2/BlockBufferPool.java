@@ -0,0 +1,100 @@
+/* AT4J -- Archive file tools for Java -- http://www.at4j.org
+ * Copyright (C) 2022 Szum123321
+ *
+ * This file is a part of AT4J
+ *
+ * AT4J is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * AT4J is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.at4j.comp.bzip2;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * A fixed number of {@link BlockBuffer}:s shared by a {@link BlockOutputStream}
+ * and its {@link EncodedBlockWriter}. A buffer is taken when a block is
+ * started and released after the encoded block has been written, so the number
+ * of buffers is the number of blocks in flight. When all of them are in use,
+ * the thread writing to the stream has to wait.
+ * <p>
+ * Buffers are created as they are needed, so a short stream does not allocate
+ * all of them.
+ * @author Szum123321
+ * @since 1.1
+ */
+final class BlockBufferPool
+{
+	private final int m_blockSize;
+	private final int m_capacity;
+	private final ArrayBlockingQueue<BlockBuffer> m_free;
+	// The number of buffers created so far. Only used by the thread writing to
+	// the stream.
+	private int m_noCreated = 0;
+
+	BlockBufferPool(int blockSize, int capacity)
+	{
+		if (capacity < 1)
+		{
+			throw new IllegalArgumentException("Invalid capacity " + capacity + ". It must be greater than zero");
+		}
+		m_blockSize = blockSize;
+		m_capacity = capacity;
+		m_free = new ArrayBlockingQueue<>(capacity);
+	}
+
+	int getCapacity()
+	{
+		return m_capacity;
+	}
+
+	/**
+	 * Get a buffer for a new block. This blocks until a buffer is available.
+	 * @param blockNo The number of the block.
+	 * @throws InterruptedIOException If the thread is interrupted while
+	 * waiting.
+	 */
+	BlockBuffer take(int blockNo) throws InterruptedIOException
+	{
+		BlockBuffer res = m_free.poll();
+		if (res == null)
+		{
+			if (m_noCreated < m_capacity)
+			{
+				m_noCreated++;
+				res = new BlockBuffer(m_blockSize);
+			}
+			else
+			{
+				try
+				{
+					res = m_free.take();
+				}
+				catch (InterruptedException e)
+				{
+					throw new InterruptedIOException("Interrupted while waiting for a block to be encoded");
+				}
+			}
+		}
+		res.reset(blockNo);
+		return res;
+	}
+
+	/**
+	 * Return a buffer whose block has been written.
+	 */
+	void release(BlockBuffer b)
+	{
+		m_free.add(b);
+	}
+}
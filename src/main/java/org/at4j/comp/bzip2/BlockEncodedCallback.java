@@ -18,7 +18,6 @@
  */
 package org.at4j.comp.bzip2;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 
 import org.at4j.support.io.BitOutput;
@@ -31,16 +30,17 @@ import org.at4j.support.io.BitOutput;
  */
 final class BlockEncodedCallback
 {
-	private final int m_blockNo;
+	private final BlockBuffer m_block;
 	private final EncodedBlockWriter m_writer;
-	private final ByteArrayOutputStream m_byteOut;
 	private final BitOutput m_bitOut;
+	// Set when the block has been handed to the writer. After that it may be
+	// reused for another block at any moment.
+	private boolean m_reported;
 
-	BlockEncodedCallback(final int blockNo, final ByteArrayOutputStream byteOut, final BitOutput bitOut, final EncodedBlockWriter writer)
+	BlockEncodedCallback(final BlockBuffer block, final BitOutput bitOut, final EncodedBlockWriter writer)
 	{
-		m_blockNo = blockNo;
+		m_block = block;
 		m_writer = writer;
-		m_byteOut = byteOut;
 		m_bitOut = bitOut;
 	}
 
@@ -49,6 +49,25 @@ final class BlockEncodedCallback
 	 */
 	void reportBlockDone() throws IOException
 	{
-		m_writer.writeBlock(m_blockNo, new EncodedBlockData(m_byteOut.toByteArray(), m_bitOut.getNumberOfBitsInUnfinishedByte(), m_bitOut.getUnfinishedByte()));
+		// Move all buffered whole bytes to the block's byte buffer
+		m_bitOut.flush();
+		m_block.m_noBits = m_bitOut.getNumberOfBitsInUnfinishedByte();
+		m_block.m_bitValue = m_bitOut.getUnfinishedByte();
+		m_reported = true;
+		m_writer.blockEncoded(m_block);
+	}
+
+	/**
+	 * This is called if the block could not be encoded, so that the writer does
+	 * not wait for it.
+	 */
+	void reportBlockFailed() throws IOException
+	{
+		if (!m_reported)
+		{
+			m_block.m_failed = true;
+			m_reported = true;
+			m_writer.blockEncoded(m_block);
+		}
 	}
 }
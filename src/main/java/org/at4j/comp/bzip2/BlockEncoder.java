@@ -52,6 +52,12 @@ final class BlockEncoder
 	// Write 50 symbols, then swap Huffman trees.
 	static final int NO_OF_SYMBOLS_PER_SEGMENT = 50;
 
+	// The number of bits used for the encoded length of a segment with one
+	// tree when the lengths for all trees are packed into a long. A segment
+	// is at most 50 * 17 = 850 bits long.
+	private static final int PACKED_COST_BITS = 10;
+	private static final long PACKED_COST_MASK = (1L << PACKED_COST_BITS) - 1;
+
 	// Categories used when optimizing Huffman trees
 	// For each tree length, in which category does a segment belong depending
 	// on its encoded length percentage? 
@@ -81,6 +87,15 @@ final class BlockEncoder
 		}
 	}
 
+	// The number of symbols at the front of the MTF alphabet that are kept
+	// packed in a long.
+	private static final int MTF_FRONT_SIZE = 8;
+	// The first eight symbols of the initial MTF alphabet, symbol 0 in the
+	// least significant byte.
+	private static final long INITIAL_MTF_FRONT = 0x0706050403020100L;
+	private static final long LOW_BITS_OF_EACH_BYTE = 0x0101010101010101L;
+	private static final long HIGH_BITS_OF_EACH_BYTE = 0x8080808080808080L;
+
 	private final byte[] m_block;
 	private final int m_blockNo;
 	private final int m_blockSize;
@@ -90,6 +105,10 @@ final class BlockEncoder
 	// The number of different bytes seen in this block
 	private final int m_numberOfSeenDifferentBytes;
 	private final int m_numberOfHuffmanTreeRefinementIterations;
+	// Refinement stops when an iteration gains less than this, in thousandths
+	// of the encoded length.
+	private final int m_huffmanTreeRefinementMinGain;
+	private final BlockSortingAlgorithm m_blockSortingAlgorithm;
 	// Sink to write encoded data to.
 	private final BitOutput m_out;
 	// This callback is called when the block encoder is done. It may be null.
@@ -99,7 +118,7 @@ final class BlockEncoder
 	private EncodingScratchpad m_scratchpad;
 
 	BlockEncoder(final byte[] block, final int blockNo, final int blockSize, final int blockChecksum, final boolean[] seenDifferentBytes, final int numberOfSeenDifferentBytes, final int numberOfHuffmanTreeRefinementIterations,
-			final BitOutput out, final BlockEncodedCallback bec)
+			final int huffmanTreeRefinementMinGain, final BlockSortingAlgorithm blockSortingAlgorithm, final BitOutput out, final BlockEncodedCallback bec)
 	{
 		m_block = block;
 		m_blockNo = blockNo;
@@ -108,6 +127,8 @@ final class BlockEncoder
 		m_seenDifferentBytes = seenDifferentBytes;
 		m_numberOfSeenDifferentBytes = numberOfSeenDifferentBytes;
 		m_numberOfHuffmanTreeRefinementIterations = numberOfHuffmanTreeRefinementIterations;
+		m_huffmanTreeRefinementMinGain = huffmanTreeRefinementMinGain;
+		m_blockSortingAlgorithm = blockSortingAlgorithm;
 		m_out = out;
 		m_blockEncoderCallback = bec;
 	}
@@ -117,6 +138,18 @@ final class BlockEncoder
 		m_scratchpad = sp;
 	}
 
+	/**
+	 * Tell whoever is waiting for this block that it will not be encoded. This
+	 * is called if {@link #encode()} fails.
+	 */
+	void reportFailure() throws IOException
+	{
+		if (m_blockEncoderCallback != null)
+		{
+			m_blockEncoderCallback.reportBlockFailed();
+		}
+	}
+
 	/**
 	 * Get the seen byte values in the current block.
 	 */
@@ -215,15 +248,21 @@ final class BlockEncoder
 		// will probably be shorter than data.length thanks to the run length
 		// encoding, but data.length (+ 1 for the EOB symbol) is the worst case
 		// length.
-		boolean[] seenSymbols = new boolean[259];
+		final boolean[] seenSymbols = m_scratchpad.m_seenMtfSymbols;
+		Arrays.fill(seenSymbols, false);
 		// RUNA and RUNB are always seen (even when they are not...)
 		seenSymbols[0] = true;
 		seenSymbols[1] = true;
 		int noSeenSymbols = 2;
 
-		// Initialize the move to front alphabet
+		// The move to front alphabet is split in two parts. The first
+		// MTF_FRONT_SIZE symbols are packed into a long, one byte per symbol
+		// with the first symbol in the least significant byte. Most symbols
+		// are found there and can be moved to the front with a few shifts.
+		// The rest of the alphabet is kept in an array.
+		long mtfFront = INITIAL_MTF_FRONT;
 		final byte[] mtfAlphabet = m_scratchpad.m_mtfAlphabet;
-		System.arraycopy(INITIAL_MTF_ALPHABET, 0, mtfAlphabet, 0, mtfAlphabet.length);
+		System.arraycopy(INITIAL_MTF_ALPHABET, MTF_FRONT_SIZE, mtfAlphabet, 0, mtfAlphabet.length - MTF_FRONT_SIZE);
 
 		// The array to store the encoded data in.
 		final int[] encodedData = m_scratchpad.m_encodedData;
@@ -239,7 +278,7 @@ final class BlockEncoder
 		int noSame = 0;
 		for (int curInArrayIndex = 0; curInArrayIndex < dataLen; curInArrayIndex++)
 		{
-			final byte curSymbolIndex = sequenceMap[data[curInArrayIndex] & 0xFF];
+			final int curSymbolIndex = sequenceMap[data[curInArrayIndex] & 0xFF] & 0xFF;
 			if (curSymbolIndex == lastSymbolIndex)
 			{
 				noSame++;
@@ -249,24 +288,42 @@ final class BlockEncoder
 				if (noSame > 0)
 				{
 					// Run length encode
-					curOutArrayIndex += addRunaAndRunb(m_scratchpad.m_encodedData, curOutArrayIndex, noSame);
+					curOutArrayIndex += addRunaAndRunb(encodedData, curOutArrayIndex, noSame);
 					noSame = 0;
 				}
 
-				// Search for the current symbol in the MTF alphabet and count
-				// the distance
-				int j = 0;
-				byte lastMtf = mtfAlphabet[0];
-
-				while (mtfAlphabet[++j] != curSymbolIndex)
+				// Look for the symbol among the front symbols. This sets the
+				// high bit of each byte in found that is equal to the symbol.
+				// Only the lowest of those bits is reliable, but since the
+				// symbols are unique there is at most one match.
+				final long diff = mtfFront ^ (curSymbolIndex * LOW_BITS_OF_EACH_BYTE);
+				final long found = (diff - LOW_BITS_OF_EACH_BYTE) & ~diff & HIGH_BITS_OF_EACH_BYTE;
+				int j;
+				if (found != 0)
+				{
+					// Move the symbols before it one step back.
+					j = Long.numberOfTrailingZeros(found) >>> 3;
+					final long before = mtfFront & ((1L << (j << 3)) - 1);
+					final long after = j == MTF_FRONT_SIZE - 1 ? 0 : mtfFront & -(1L << ((j + 1) << 3));
+					mtfFront = after | (before << 8) | curSymbolIndex;
+				}
+				else
 				{
-					final byte nextLastMtf = mtfAlphabet[j];
-					mtfAlphabet[j] = lastMtf;
-					lastMtf = nextLastMtf;
+					// Search for the current symbol in the rest of the MTF
+					// alphabet and count the distance. The last front symbol
+					// is pushed into it.
+					byte carry = (byte) (mtfFront >>> 56);
+					int k = 0;
+					while ((mtfAlphabet[k] & 0xFF) != curSymbolIndex)
+					{
+						final byte next = mtfAlphabet[k];
+						mtfAlphabet[k++] = carry;
+						carry = next;
+					}
+					mtfAlphabet[k] = carry;
+					mtfFront = (mtfFront << 8) | curSymbolIndex;
+					j = MTF_FRONT_SIZE + k;
 				}
-				// Swap the symbols in the MTF alphabet.
-				mtfAlphabet[j] = lastMtf;
-				mtfAlphabet[0] = curSymbolIndex;
 
 				// Output the distance. Distance 1 gets the value 2 since
 				// RUNA and RUNB have the values 0 and 1.
@@ -323,32 +380,42 @@ final class BlockEncoder
 		final int[][] encodingResults = m_scratchpad.m_encodingResults;
 		// The best tree for each segment
 		final int[] treesUsed = new int[numberOfHuffmanSegments];
+		// Pack the code lengths of a symbol for all trees into a long, so that
+		// a segment is evaluated against all trees with a single addition per
+		// symbol.
+		final long[] packedCodeLengths = m_scratchpad.m_packedCodeLengths;
+		for (int symbol = 0; symbol < numberOfDifferentSymbols; symbol++)
+		{
+			long packed = 0;
+			for (int treeNo = noTrees - 1; treeNo >= 0; treeNo--)
+			{
+				packed = (packed << PACKED_COST_BITS) | codeLengths[treeNo][symbol];
+			}
+			packedCodeLengths[symbol] = packed;
+		}
 		// The shortest seen shortest length for all segments
 		int shortestLength = Integer.MAX_VALUE;
 		// The longest seen -shortest- length for all segments 
 		int longestLength = 0;
 		for (int segmentNo = 0; segmentNo < numberOfHuffmanSegments; segmentNo++)
 		{
-			// Encode this segment with all Huffman trees
-			int shortestLengthForSegment = Integer.MAX_VALUE;
-			int bestTreeIndex = 0;
-			final int[] segmentEncodingResultPerTree = new int[noTrees];
 			final int segmentStart = segmentNo * NO_OF_SYMBOLS_PER_SEGMENT;
 			final int segmentEnd = Math.min(segmentStart + NO_OF_SYMBOLS_PER_SEGMENT, dataLen);
-			for (int treeNo = 0; treeNo < noTrees; treeNo++)
+			long packedBitLen = 0;
+			for (int j = segmentStart; j < segmentEnd; j++)
 			{
-				final int[] curTreeCodeLengths = codeLengths[treeNo];
-				int bitLen = 0;
-				for (int j = segmentStart; j < segmentEnd; j++)
-				{
-					bitLen += curTreeCodeLengths[data[j]];
-				}
+				packedBitLen += packedCodeLengths[data[j]];
+			}
 
-				if (treeNo == 0)
-				{
-					shortestLengthForSegment = bitLen;
-				}
-				else if (bitLen < shortestLengthForSegment)
+			// Unpack the encoded length for each tree and select the best one
+			final int[] segmentEncodingResultPerTree = encodingResults[segmentNo];
+			int shortestLengthForSegment = (int) (packedBitLen & PACKED_COST_MASK);
+			int bestTreeIndex = 0;
+			segmentEncodingResultPerTree[0] = shortestLengthForSegment;
+			for (int treeNo = 1; treeNo < noTrees; treeNo++)
+			{
+				final int bitLen = (int) ((packedBitLen >>> (treeNo * PACKED_COST_BITS)) & PACKED_COST_MASK);
+				if (bitLen < shortestLengthForSegment)
 				{
 					shortestLengthForSegment = bitLen;
 					bestTreeIndex = treeNo;
@@ -370,7 +437,6 @@ final class BlockEncoder
 			{
 				longestLength = shortestLengthForSegment;
 			}
-			encodingResults[segmentNo] = segmentEncodingResultPerTree;
 			treesUsed[segmentNo] = bestTreeIndex;
 		}
 
@@ -583,7 +649,8 @@ final class BlockEncoder
 	 * different segments. Lastly, the created trees are optimized based on the
 	 * data in the segments that they are used to encode. This last step is
 	 * repeated a configurable number of times ({@code
-	 * m_numberOfHuffmanTreeRefinementIterations}).
+	 * m_numberOfHuffmanTreeRefinementIterations}), or until an iteration
+	 * gains less than {@code m_huffmanTreeRefinementMinGain}.
 	 * @param data The data that should be encoded using the created Huffman
 	 * trees.
 	 * @param dataLen The length of the data, excluding the trailing EOB symbol.
@@ -650,6 +717,7 @@ final class BlockEncoder
 			int bestIndex = -1;
 			int bestLength = Integer.MAX_VALUE;
 			int[] bestTreeUsage = null;
+			int prevLength = Integer.MAX_VALUE;
 			for (int i = 0; i < huffmanCodeLengths.length; i++)
 			{
 				if (i > 0)
@@ -674,6 +742,15 @@ final class BlockEncoder
 					bestLength = totLen;
 					bestTreeUsage = easr.m_treesUsed;
 				}
+
+				// Stop refining when the last iteration did not gain enough.
+				// Each iteration is based on the results of the previous one,
+				// so the gains only get smaller.
+				if ((i > 0) && ((long) (prevLength - totLen) * 1000 <= (long) m_huffmanTreeRefinementMinGain * prevLength))
+				{
+					break;
+				}
+				prevLength = totLen;
 			}
 
 			int noTrees = huffmanCodeLengths[bestIndex].length;
@@ -855,7 +932,7 @@ final class BlockEncoder
 		// Sort the data in the block.
 		// data contains the written data after the initial move to front
 		// transformation
-		BurrowsWheelerEncodingResult burrWhee = new BurrowsWheelerEncoder(m_block, m_blockSize, m_scratchpad).encode();
+		BurrowsWheelerEncodingResult burrWhee = new BurrowsWheelerEncoder(m_block, m_blockSize, m_blockSortingAlgorithm, m_scratchpad).encode();
 
 		// Run Move to front and run length encoding transformations on the
 		// Burrows Wheeler encoded data
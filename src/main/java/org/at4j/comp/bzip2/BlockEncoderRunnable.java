@@ -48,6 +48,14 @@ final class BlockEncoderRunnable implements Runnable
 		{
 
 			((EncodingThread) Thread.currentThread()).getErrorState().registerError(e, m_errorOwner);
+			try
+			{
+				m_encoder.reportFailure();
+			}
+			catch (IOException | RuntimeException e2)
+			{
+				// The first error has already been registered
+			}
 		}
 	}
 }
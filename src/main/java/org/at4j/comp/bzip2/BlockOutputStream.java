@@ -18,7 +18,6 @@
  */
 package org.at4j.comp.bzip2;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.Arrays;
@@ -59,6 +58,9 @@ final class BlockOutputStream extends OutputStream
 	private final int m_blockSize;
 	// How many times should the Huffman trees be refined before encoding data?
 	private final int m_numberOfHuffmanTreeRefinementIterations;
+	private final int m_huffmanTreeRefinementMinGain;
+	// The algorithm used for sorting the blocks
+	private final BlockSortingAlgorithm m_blockSortingAlgorithm;
 	// Bit flags indicating which bytes that occur at least once in the current
 	// block.
 	private boolean[] m_seenDifferentBytesInCurBlock;
@@ -79,6 +81,15 @@ final class BlockOutputStream extends OutputStream
 	// If we use several encoder threads, this object is used for writing the
 	// encoded blocks in the right order. Otherwise it is null.
 	private final EncodedBlockWriter m_encodedBlockWriter;
+	// If we use several encoder threads, the buffers for the blocks are taken
+	// from this pool. Otherwise it is null.
+	private final BlockBufferPool m_blockBufferPool;
+	// The buffers of the current block, if it is taken from the pool.
+	private BlockBuffer m_curBuffer;
+	// If the output is split into several streams and blocks are encoded in
+	// this thread, this is told about each written block. Otherwise it is
+	// null.
+	private final StreamSplitter m_streamSplitter;
 
 	// The checksum for the current block.
 	private CRC m_blockChecksum;
@@ -91,7 +102,7 @@ final class BlockOutputStream extends OutputStream
 
 	private int m_blockNo = 0;
 
-	BlockOutputStream(BitOutput wrapped, int blockSize, int numberOfHuffmanTreeRefinementIterations, BZip2EncoderExecutorServiceImpl ex, Object errorOwner, EncodedBlockWriter ebw, EncodingScratchpad sp)
+	BlockOutputStream(BitOutput wrapped, int blockSize, int numberOfHuffmanTreeRefinementIterations, int huffmanTreeRefinementMinGain, BlockSortingAlgorithm blockSortingAlgorithm, BZip2EncoderExecutorServiceImpl ex, Object errorOwner, EncodedBlockWriter ebw, BlockBufferPool pool, StreamSplitter splitter, EncodingScratchpad sp) throws IOException
 	{
 		// Can only have one, not both.
 		assert ex == null ^ sp == null;
@@ -99,6 +110,8 @@ final class BlockOutputStream extends OutputStream
 		m_wrapped = wrapped;
 		m_blockSize = blockSize;
 		m_numberOfHuffmanTreeRefinementIterations = numberOfHuffmanTreeRefinementIterations;
+		m_huffmanTreeRefinementMinGain = huffmanTreeRefinementMinGain;
+		m_blockSortingAlgorithm = blockSortingAlgorithm;
 		m_blockChecksum = new CRC();
 		m_scratchpad = sp;
 		// May be null.
@@ -107,20 +120,26 @@ final class BlockOutputStream extends OutputStream
 		m_errorOwner = errorOwner;
 		// May be null.
 		m_encodedBlockWriter = ebw;
+		// May be null.
+		m_blockBufferPool = pool;
+		// May be null.
+		m_streamSplitter = splitter;
 
 		startNewBlock();
 	}
 
-	private void startNewBlock()
+	private void startNewBlock() throws IOException
 	{
 		m_blockPointer = 0;
 
 		if (m_encodingExecutor != null)
 		{
-			// We use several threads for encoding. Create new instances for
-			// data that may be used right now by an encoder.
-			m_seenDifferentBytesInCurBlock = new boolean[256];
-			m_block = new byte[m_blockSize + ThreeWayRadixQuicksort.DATA_OVERSHOOT];
+			// We use several threads for encoding. Take buffers that are not
+			// used by any encoder. This waits if there are too many blocks in
+			// flight.
+			m_curBuffer = m_blockBufferPool.take(m_blockNo);
+			m_seenDifferentBytesInCurBlock = m_curBuffer.m_seenDifferentBytes;
+			m_block = m_curBuffer.m_data;
 		}
 		else
 		{
@@ -172,20 +191,26 @@ final class BlockOutputStream extends OutputStream
 		if (m_encodingExecutor == null)
 		{
 			// Encode the block in the current thread.
-			BlockEncoder be = new BlockEncoder(m_block, m_blockNo, m_blockPointer, blockChecksum, m_seenDifferentBytesInCurBlock, m_noSeenDifferentBytesInCurBlock, m_numberOfHuffmanTreeRefinementIterations, m_wrapped, null);
+			if (m_streamSplitter != null)
+			{
+				m_streamSplitter.beforeBlock();
+			}
+			BlockEncoder be = new BlockEncoder(m_block, m_blockNo, m_blockPointer, blockChecksum, m_seenDifferentBytesInCurBlock, m_noSeenDifferentBytesInCurBlock, m_numberOfHuffmanTreeRefinementIterations, m_huffmanTreeRefinementMinGain, m_blockSortingAlgorithm, m_wrapped, null);
 			be.setScratchpad(m_scratchpad);
 			be.encode();
+			if (m_streamSplitter != null)
+			{
+				m_streamSplitter.afterBlock(blockChecksum);
+			}
 		}
 		else
 		{
-			// Hand off the block to another thread for encoding.
-
-			// Allocate an output buffer that is 2/3rds of the size of the
-			// written data.
-			ByteArrayOutputStream baos = new ByteArrayOutputStream((2 * m_blockPointer) / 3);
-			BitOutput out = new LittleEndianBitOutputStream(baos);
-			BlockEncodedCallback bec = new BlockEncodedCallback(m_blockNo, baos, out, m_encodedBlockWriter);
-			BlockEncoder be = new BlockEncoder(m_block, m_blockNo, m_blockPointer, blockChecksum, m_seenDifferentBytesInCurBlock, m_noSeenDifferentBytesInCurBlock, m_numberOfHuffmanTreeRefinementIterations, out, bec);
+			// Hand off the block to another thread for encoding. The encoded
+			// data is written to the block's buffer.
+			m_curBuffer.m_blockChecksum = blockChecksum;
+			BitOutput out = new LittleEndianBitOutputStream(m_curBuffer.m_encoded);
+			BlockEncodedCallback bec = new BlockEncodedCallback(m_curBuffer, out, m_encodedBlockWriter);
+			BlockEncoder be = new BlockEncoder(m_block, m_blockNo, m_blockPointer, blockChecksum, m_seenDifferentBytesInCurBlock, m_noSeenDifferentBytesInCurBlock, m_numberOfHuffmanTreeRefinementIterations, m_huffmanTreeRefinementMinGain, m_blockSortingAlgorithm, out, bec);
 			m_encodingExecutor.execute(new BlockEncoderRunnable(be, m_errorOwner));
 		}
 
@@ -343,7 +368,7 @@ final class BlockOutputStream extends OutputStream
 		if (m_encodedBlockWriter != null)
 		{
 			// Tell the encoded block writer that we're done.
-			m_encodedBlockWriter.writeBlock(m_blockNo, null);
+			m_encodedBlockWriter.finish(m_blockNo);
 		}
 
 		// Don't close the wrapped BitOutput. It will be used later on to write
@@ -0,0 +1,48 @@
+/* AT4J -- Archive file tools for Java -- http://www.at4j.org
+ * Copyright (C) 2022 Szum123321
+ *
+ * This file is a part of AT4J
+ *
+ * AT4J is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * AT4J is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.at4j.comp.bzip2;
+
+/**
+ * This is an enumeration over the algorithms that can be used for sorting the
+ * data of a block in the Burrows Wheeler transformation.
+ * @author Szum123321
+ * @since 1.1
+ * @see BZip2OutputStreamSettings#setBlockSortingAlgorithm(BlockSortingAlgorithm)
+ */
+public enum BlockSortingAlgorithm
+{
+	/**
+	 * Three way radix quicksort. This is fast for most data, but gets very
+	 * slow for data with long repeated sequences.
+	 */
+	RADIX_QUICKSORT,
+
+	/**
+	 * Suffix array construction with SA-IS. This runs in linear time for any
+	 * data, but is slower than the quicksort for typical data.
+	 */
+	SUFFIX_ARRAY,
+
+	/**
+	 * Start with the three way radix quicksort, and fall back to the suffix
+	 * array construction if the quicksort turns out to be too much work. This
+	 * is what bzip2 does with its fallback sort.
+	 */
+	RADIX_QUICKSORT_WITH_FALLBACK;
+}
@@ -43,11 +43,18 @@ final class BurrowsWheelerEncoder
 	// The shortest length that will be quicksorted rather than shell sorted
 	private static int MIN_QUICKSORT_LENGTH = 18;
 
+	// How much work, relative to the length of the data, the quicksort may do
+	// before falling back to the suffix array sort. See
+	// ThreeWayRadixQuicksort#setWorkBudget. This is the budget bzip2 gets
+	// from its default work factor of 30.
+	private static final int QUICKSORT_WORK_FACTOR = 9;
+
 	// The data array containing the unencoded data.
 	private final byte[] m_data;
 	// The length of the data in the array. Data occupies the positions 0 to
 	// m_length - 1 in the array.
 	private final int m_length;
+	private final BlockSortingAlgorithm m_sortingAlgorithm;
 	// Contains preallocated data structures. Used to reduce the number of
 	// temporary objects that are created and thus avoid time spent gc:ing.
 	private final EncodingScratchpad m_scratchpad;
@@ -57,7 +64,7 @@ final class BurrowsWheelerEncoder
 	 * {@link ThreeWayRadixQuicksort#ThreeWayRadixQuicksort(byte[], int, int, EncodingScratchpad)}
 	 * .
 	 */
-	BurrowsWheelerEncoder(byte[] data, int length, EncodingScratchpad sp)
+	BurrowsWheelerEncoder(byte[] data, int length, BlockSortingAlgorithm sortingAlgorithm, EncodingScratchpad sp)
 	{
 		if (length > data.length)
 		{
@@ -65,6 +72,7 @@ final class BurrowsWheelerEncoder
 		}
 		m_data = data;
 		m_length = length;
+		m_sortingAlgorithm = sortingAlgorithm;
 		m_scratchpad = sp;
 	}
 
@@ -76,7 +84,7 @@ final class BurrowsWheelerEncoder
 		// Create all rotations of m_data, put them in a matrix and sort the
 		// first column. For each row in the matrix, ptr contains a pointer to
 		// the first byte of the row's m_data rotation.
-		int[] ptr = new ThreeWayRadixQuicksort(m_data, m_length, MIN_QUICKSORT_LENGTH, m_scratchpad).sort();
+		int[] ptr = sort();
 
 		// Get the contents of the last column in the matrix. This, and the
 		// pointer to the ĺocation of where the first byte in m_data is in the
@@ -96,4 +104,27 @@ final class BurrowsWheelerEncoder
 		}
 		return new BurrowsWheelerEncodingResult(lastColumn, firstRow);
 	}
+
+	private int[] sort()
+	{
+		switch (m_sortingAlgorithm)
+		{
+			case SUFFIX_ARRAY:
+				return new SuffixArraySort(m_data, m_length, m_scratchpad).sort();
+			case RADIX_QUICKSORT_WITH_FALLBACK:
+				ThreeWayRadixQuicksort quicksort = new ThreeWayRadixQuicksort(m_data, m_length, MIN_QUICKSORT_LENGTH, m_scratchpad);
+				quicksort.setWorkBudget((long) m_length * QUICKSORT_WORK_FACTOR);
+				try
+				{
+					return quicksort.sort();
+				}
+				catch (ThreeWayRadixQuicksort.WorkBudgetExceededException e)
+				{
+					// The data is too repetitive for the quicksort.
+					return new SuffixArraySort(m_data, m_length, m_scratchpad).sort();
+				}
+			default:
+				return new ThreeWayRadixQuicksort(m_data, m_length, MIN_QUICKSORT_LENGTH, m_scratchpad).sort();
+		}
+	}
 }
@@ -19,112 +19,175 @@
 package org.at4j.comp.bzip2;
 
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.Map;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import org.at4j.support.io.BitOutput;
 
 /**
  * This is used to write encoded blocks in the right order when several encoding
  * threads are used with the {@link BZip2OutputStream}.
+ * <p>
+ * Encoded blocks are put in a ring of slots, one per buffer in the
+ * {@link BlockBufferPool}. Since there can be no more blocks in flight than
+ * there are buffers, two of them never share a slot. The thread that finishes
+ * a block writes every block that is ready, in order, unless another thread is
+ * already doing that. No locks are taken.
  * @author Karl Gustafsson
  * @since 1.1
  */
 final class EncodedBlockWriter
 {
-	// All variables are protected by this object's intrinsic lock
+	// Only used by the thread that has set m_writing
 	private final BitOutput m_out;
-	private final Map<Integer, EncodedBlockData> m_savedBlocks = new HashMap<>();
+	private final BlockBufferPool m_pool;
+	// This may be null
+	private final StreamSplitter m_streamSplitter;
+	// Encoded blocks waiting to be written, at the position blockNo % length
+	private final AtomicReferenceArray<BlockBuffer> m_completed;
+	// Set while a thread is writing blocks
+	private final AtomicBoolean m_writing = new AtomicBoolean();
 	// This latch is used to signal to the bzip2 output stream when this writer
 	// is finished.
 	private final CountDownLatch m_doneLatch = new CountDownLatch(1);
-	private int m_nextBlockToWrite = 0;
-	private boolean m_hasError;
+	private volatile int m_nextBlockToWrite = 0;
+	// The total number of blocks. This is -1 until all blocks are written to
+	// the stream.
+	private volatile int m_noOfBlocks = -1;
+	private volatile boolean m_hasError;
 
-	EncodedBlockWriter(BitOutput out)
+	EncodedBlockWriter(BitOutput out, BlockBufferPool pool, StreamSplitter splitter)
 	{
 		m_out = out;
+		m_pool = pool;
+		m_streamSplitter = splitter;
+		m_completed = new AtomicReferenceArray<>(pool.getCapacity());
 	}
 
-	private void writeEncodedBlockData(final EncodedBlockData bd) throws IOException
+	/**
+	 * Write the block to the output if it is the next block to write, along
+	 * with all blocks after it that are ready. If not, leave it for the thread
+	 * that writes the previous block.
+	 * @param block The encoded block. If it is marked as failed, no more
+	 * blocks are written.
+	 * @throws IOException On errors writing to the output.
+	 */
+	void blockEncoded(final BlockBuffer block) throws IOException
 	{
-		m_out.writeBytes(bd.m_bytes, 0, bd.m_bytes.length);
-		if (bd.m_noBits > 0)
-		{
-			m_out.writeBits(bd.m_bitValue, bd.m_noBits);
-		}
+		m_completed.set(block.m_blockNo % m_completed.length(), block);
+		writeReadyBlocks();
 	}
 
-	private void writeBlockInternal(final int blockNo, final EncodedBlockData blockData) throws IOException
+	/**
+	 * Called when all blocks have been handed to the encoders.
+	 * @param noOfBlocks The total number of blocks.
+	 * @throws IOException On errors writing to the output.
+	 */
+	void finish(final int noOfBlocks) throws IOException
 	{
-		if (blockData == null)
-		{
-			// We're done
-			m_doneLatch.countDown();
-		}
-		else
-		{
-			writeEncodedBlockData(blockData);
+		m_noOfBlocks = noOfBlocks;
+		writeReadyBlocks();
+	}
+
+	private void writeReadyBlocks() throws IOException
+	{
+		Throwable error = null;
 
-			while (m_savedBlocks.containsKey(++m_nextBlockToWrite))
+		// If another thread is writing, it checks for ready blocks again after
+		// it is done, so it will not miss the block we just added.
+		while (isNextBlockReady() && m_writing.compareAndSet(false, true))
+		{
+			try
 			{
-				final EncodedBlockData savedBd = m_savedBlocks.get(m_nextBlockToWrite);
-				if (savedBd != null)
+				BlockBuffer block;
+				while ((block = takeNextBlock()) != null)
 				{
-					writeEncodedBlockData(savedBd);
+					try
+					{
+						if (block.m_failed)
+						{
+							m_hasError = true;
+						}
+						else if (!m_hasError)
+						{
+							if (m_streamSplitter != null)
+							{
+								m_streamSplitter.beforeBlock();
+							}
+							block.m_encoded.writeTo(m_out);
+							if (block.m_noBits > 0)
+							{
+								m_out.writeBits(block.m_bitValue, block.m_noBits);
+							}
+							if (m_streamSplitter != null)
+							{
+								m_streamSplitter.afterBlock(block.m_blockChecksum);
+							}
+						}
+					}
+					catch (IOException | RuntimeException | Error e)
+					{
+						m_hasError = true;
+						if (error == null)
+						{
+							error = e;
+						}
+					}
+					finally
+					{
+						// Blocks are always released, even after an error, so
+						// that the thread writing to the stream is never left
+						// waiting for a buffer.
+						m_pool.release(block);
+					}
 				}
-				else
+
+				if (m_hasError || m_nextBlockToWrite == m_noOfBlocks)
 				{
 					m_doneLatch.countDown();
-					break;
 				}
 			}
+			finally
+			{
+				m_writing.set(false);
+			}
+		}
+
+		if (error instanceof IOException)
+		{
+			throw (IOException) error;
+		}
+		else if (error instanceof RuntimeException)
+		{
+			throw (RuntimeException) error;
+		}
+		else if (error != null)
+		{
+			throw (Error) error;
 		}
 	}
 
-	/**
-	 * It is not time to write this block just yet. Save it until it is time.
-	 * @param blockNo The block number.
-	 * @param blockData The block data.
-	 */
-	private void saveBlock(final int blockNo, EncodedBlockData blockData)
+	private boolean isNextBlockReady()
 	{
-		m_savedBlocks.put(blockNo, blockData);
+		final int next = m_nextBlockToWrite;
+		return m_completed.get(next % m_completed.length()) != null || (next == m_noOfBlocks && m_doneLatch.getCount() > 0);
 	}
 
 	/**
-	 * Write the block data to the output if it is the next block to write. If
-	 * not, queue it for later writing.
-	 * @param blockNo The block number.
-	 * @param blockData The block data or {@code null} as an end of stream
-	 * marker.
-	 * @throws IOException
+	 * Take the next block to write from its slot, if it is there.
 	 */
-	synchronized void writeBlock(final int blockNo, final EncodedBlockData blockData) throws IOException
+	private BlockBuffer takeNextBlock()
 	{
-		if (m_hasError)
-		{
-			return;
-		}
-
-		try
-		{
-			if (blockNo == m_nextBlockToWrite)
-			{
-				writeBlockInternal(blockNo, blockData);
-			}
-			else
-			{
-				saveBlock(blockNo, blockData);
-			}
-		}
-		catch (Error | RuntimeException | IOException e)
+		final int next = m_nextBlockToWrite;
+		final int slot = next % m_completed.length();
+		final BlockBuffer res = m_completed.get(slot);
+		if (res != null)
 		{
-			m_hasError = true;
-			m_doneLatch.countDown();
-			throw e;
+			m_completed.set(slot, null);
+			m_nextBlockToWrite = next + 1;
 		}
+		return res;
 	}
 
 	void waitFor() throws InterruptedException
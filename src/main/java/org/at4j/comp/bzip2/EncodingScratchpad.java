@@ -35,6 +35,9 @@ final class EncodingScratchpad
 	// A move to front alphabet.
 	final byte[] m_mtfAlphabet = new byte[BlockEncoder.MAX_NO_OF_MTF_SYMBOLS];
 
+	// Flags for the MTF symbols that occur in a block.
+	final boolean[] m_seenMtfSymbols = new boolean[BlockEncoder.MAX_NO_OF_MTF_SYMBOLS + 1];
+
 	// This two dimensional array can contain the frequencies for the different
 	// symbols encoded by the different trees (up to six trees)
 	final int[][] m_frequencies2d = new int[BlockEncoder.MAX_NO_OF_HUFFMAN_TREES][BlockEncoder.MAX_NO_OF_MTF_SYMBOLS];
@@ -58,6 +61,12 @@ final class EncodingScratchpad
 	// arises.
 	int[] m_tempArea = new int[1024];
 
+	// Arrays used by the suffix array sort. They are only allocated if that
+	// sort is used.
+	private int[] m_suffixSortText;
+	private int[] m_suffixArray;
+	private boolean[] m_suffixTypes;
+
 	// Stack for block sorting
 	final ThreeWayRadixQuicksort.QuickSortRangeInfo[] m_sortStack = new ThreeWayRadixQuicksort.QuickSortRangeInfo[ThreeWayRadixQuicksort.SORT_STACK_SIZE];
 
@@ -65,6 +74,10 @@ final class EncodingScratchpad
 	// Huffman trees
 	final int[][] m_encodingResults = new int[MAX_NO_OF_SEGMENTS][BlockEncoder.MAX_NO_OF_HUFFMAN_TREES];
 
+	// The code lengths of each symbol for all Huffman trees, packed into one
+	// long per symbol
+	final long[] m_packedCodeLengths = new long[BlockEncoder.MAX_NO_OF_MTF_SYMBOLS];
+
 	final int[] m_categoriesPerSegment = new int[MAX_NO_OF_SEGMENTS];
 
 	// The last column after Burrows Wheeler encoding
@@ -104,4 +117,43 @@ final class EncodingScratchpad
 		}
 		return m_tempArea;
 	}
+
+	/**
+	 * Get the array that holds the data to sort for {@link SuffixArraySort}.
+	 * It has a length of at least {@code len} integers.
+	 */
+	int[] getSuffixSortText(final int len)
+	{
+		if (m_suffixSortText == null || m_suffixSortText.length < len)
+		{
+			m_suffixSortText = new int[Math.max(len, MAX_BLOCK_LENGTH + 1)];
+		}
+		return m_suffixSortText;
+	}
+
+	/**
+	 * Get the suffix array for {@link SuffixArraySort}. It has a length of at
+	 * least {@code len} integers.
+	 */
+	int[] getSuffixArray(final int len)
+	{
+		if (m_suffixArray == null || m_suffixArray.length < len)
+		{
+			m_suffixArray = new int[Math.max(len, MAX_BLOCK_LENGTH + 1)];
+		}
+		return m_suffixArray;
+	}
+
+	/**
+	 * Get the array of suffix types for {@link SuffixArraySort}. It has a
+	 * length of at least {@code len} elements.
+	 */
+	boolean[] getSuffixTypes(final int len)
+	{
+		if (m_suffixTypes == null || m_suffixTypes.length < len)
+		{
+			m_suffixTypes = new boolean[Math.max(len, MAX_BLOCK_LENGTH + 1)];
+		}
+		return m_suffixTypes;
+	}
 }
@@ -60,9 +60,10 @@ final class HighValueBranchHuffmanTree
 	// Declared package private for the unit tests.
 	final int[] m_symbolSequenceNos;
 	// This table contains the Huffman codes and the code bit lengths for each
-	// symbol. It is created when using the constructor that calculates the
-	// Huffman trees to speed up encoding.
-	final int[][] m_huffmanCodesAndLengthsPerSymbol;
+	// symbol, packed into one int as (code << 5) | bit length. It is created
+	// when using the constructor that calculates the Huffman trees to speed up
+	// encoding.
+	final int[] m_huffmanCodesAndLengthsPerSymbol;
 
 	/**
 	 * Get the Huffman code and its bit length for a symbol.
@@ -172,13 +173,12 @@ final class HighValueBranchHuffmanTree
 
 			// Create a table containing the Huffman code and its bit length for
 			// each symbol. This is used to speed up writes.
-			m_huffmanCodesAndLengthsPerSymbol = new int[symbolLengths.length][2];
+			m_huffmanCodesAndLengthsPerSymbol = new int[symbolLengths.length];
 			int[] codeAndLength = new int[2];
 			for (int i = 0; i < symbolLengths.length; i++)
 			{
 				codeAndLength = getCodeAndLengthForSymbol(i, huffmanIndexPerSymbol[i], codeAndLength);
-				m_huffmanCodesAndLengthsPerSymbol[i][0] = codeAndLength[0];
-				m_huffmanCodesAndLengthsPerSymbol[i][1] = codeAndLength[1];
+				m_huffmanCodesAndLengthsPerSymbol[i] = (codeAndLength[0] << 5) | codeAndLength[1];
 			}
 		}
 		else
@@ -308,7 +308,8 @@ final class HighValueBranchHuffmanTree
 	 */
 	void write(final BitOutput out, final int symbol) throws IOException
 	{
-		out.writeBitsLittleEndian(m_huffmanCodesAndLengthsPerSymbol[symbol][0], m_huffmanCodesAndLengthsPerSymbol[symbol][1]);
+		final int codeAndLength = m_huffmanCodesAndLengthsPerSymbol[symbol];
+		out.writeBitsLittleEndian(codeAndLength >>> 5, codeAndLength & 0x1F);
 	}
 
 	/**
@@ -316,7 +317,7 @@ final class HighValueBranchHuffmanTree
 	 */
 	int getBitLength(int symbol)
 	{
-		return m_huffmanCodesAndLengthsPerSymbol[symbol][1];
+		return m_huffmanCodesAndLengthsPerSymbol[symbol] & 0x1F;
 	}
 
 	/**
@@ -0,0 +1,100 @@
+/* AT4J -- Archive file tools for Java -- http://www.at4j.org
+ * Copyright (C) 2022 Szum123321
+ *
+ * This file is a part of AT4J
+ *
+ * AT4J is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * AT4J is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.at4j.comp.bzip2;
+
+import java.io.IOException;
+
+import org.at4j.support.io.LittleEndianBitOutputStream;
+
+/**
+ * This ends the current bzip2 stream and starts a new one after every {@code
+ * n} blocks. It is called by whoever writes encoded blocks to
+ * the output, in block order: the {@link BlockOutputStream} when blocks are
+ * encoded in the thread writing to the stream, or else the
+ * {@link EncodedBlockWriter}.
+ * @author Szum123321
+ * @since 1.1
+ */
+final class StreamSplitter
+{
+	private final LittleEndianBitOutputStream m_out;
+	// The block size in hundreds of kilobytes
+	private final int m_blockSize;
+	private final int m_blocksPerStream;
+
+	// The first stream's header is written by the BZip2OutputStream
+	private boolean m_streamOpen = true;
+	private int m_noOfBlocksInStream = 0;
+	private int m_streamChecksum = 0;
+
+	StreamSplitter(LittleEndianBitOutputStream out, int blockSize, int blocksPerStream)
+	{
+		m_out = out;
+		m_blockSize = blockSize;
+		m_blocksPerStream = blocksPerStream;
+	}
+
+	/**
+	 * Called before a block is written. This starts a new stream if the last
+	 * one has been ended.
+	 */
+	void beforeBlock() throws IOException
+	{
+		if (!m_streamOpen)
+		{
+			BZip2OutputStream.writeFileHeader(m_out, m_blockSize);
+			m_streamOpen = true;
+		}
+	}
+
+	/**
+	 * Called after a block is written. This ends the stream if it has got all
+	 * of its blocks.
+	 * @param blockChecksum The checksum of the block.
+	 */
+	void afterBlock(int blockChecksum) throws IOException
+	{
+		m_streamChecksum = (m_streamChecksum << 1) | (m_streamChecksum >>> 31);
+		m_streamChecksum ^= blockChecksum;
+		if (++m_noOfBlocksInStream == m_blocksPerStream)
+		{
+			endStream();
+		}
+	}
+
+	private void endStream() throws IOException
+	{
+		BZip2OutputStream.writeEosBlock(m_out, m_streamChecksum);
+		m_streamOpen = false;
+		m_noOfBlocksInStream = 0;
+		m_streamChecksum = 0;
+	}
+
+	/**
+	 * End the last stream, if it has not been ended already. An empty input
+	 * gives one empty stream.
+	 */
+	void finish() throws IOException
+	{
+		if (m_streamOpen)
+		{
+			endStream();
+		}
+	}
+}
@@ -0,0 +1,318 @@
+/* AT4J -- Archive file tools for Java -- http://www.at4j.org
+ * Copyright (C) 2022 Szum123321
+ *
+ * This file is a part of AT4J
+ *
+ * AT4J is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * AT4J is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.at4j.comp.bzip2;
+
+import java.util.Arrays;
+
+/**
+ * Sorts the rotations of a block by building the suffix array of its least
+ * rotation with SA-IS (induced sorting), which runs in linear time no matter
+ * how repetitive the data is.
+ * <p>
+ * The rotations of a string that is its own least rotation (a power of a
+ * Lyndon word) are in the same order as its suffixes, so the block is first
+ * rotated, then the suffixes are sorted and the rotation is undone when
+ * copying the pointers.
+ * <p>
+ * See Nong, Zhang and Chan, <i>Two Efficient Algorithms for Linear Time Suffix
+ * Array Construction</i>.
+ * @author Szum123321
+ * @since 1.1
+ */
+final class SuffixArraySort
+{
+	// The byte values are shifted by one to make room for the sentinel
+	private static final int ALPHABET_SIZE = 257;
+
+	// The data array.
+	private final byte[] m_data;
+	// The length of the data in the array. Data occupies the positions 0 to
+	// m_length - 1 in the array.
+	private final int m_length;
+	// Contains preallocated data structures. Used to reduce the number of
+	// temporary objects that are created and thus avoid time spent gc:ing.
+	private final EncodingScratchpad m_scratchpad;
+
+	SuffixArraySort(final byte[] data, final int length, final EncodingScratchpad sp)
+	{
+		if (length > data.length)
+		{
+			throw new IllegalArgumentException("Invalid data length " + length + ". It must be <= the length of the data array (" + data.length + ")");
+		}
+		m_data = data;
+		m_length = length;
+		m_scratchpad = sp;
+	}
+
+	/**
+	 * Sort the rotations of the data.
+	 * @return An array where the position {@code i} holds the starting position
+	 * of the {@code i}:th smallest rotation. This is the same as
+	 * {@link ThreeWayRadixQuicksort#sort()} returns.
+	 */
+	int[] sort()
+	{
+		final int n = m_length;
+		final int[] ptr = m_scratchpad.m_ptrs;
+		final int rotation = getLeastRotation();
+
+		// The rotated data followed by the sentinel
+		final int[] text = m_scratchpad.getSuffixSortText(n + 1);
+		for (int i = rotation; i < n; i++)
+		{
+			text[i - rotation] = (m_data[i] & 0xFF) + 1;
+		}
+		for (int i = 0; i < rotation; i++)
+		{
+			text[n - rotation + i] = (m_data[i] & 0xFF) + 1;
+		}
+		text[n] = 0;
+
+		final int[] sa = m_scratchpad.getSuffixArray(n + 1);
+		final boolean[] types = m_scratchpad.getSuffixTypes(n + 1);
+		sais(text, 0, sa, 0, types, n + 1, ALPHABET_SIZE);
+
+		// The first suffix is always the sentinel.
+		for (int i = 0; i < n; i++)
+		{
+			int p = sa[i + 1] + rotation;
+			ptr[i] = p >= n ? p - n : p;
+		}
+		return ptr;
+	}
+
+	/**
+	 * Get the starting position of the lexicographically least rotation of the
+	 * data.
+	 */
+	private int getLeastRotation()
+	{
+		final int n = m_length;
+		int i = 0;
+		int j = 1;
+		int k = 0;
+		while (i < n && j < n && k < n)
+		{
+			int a = m_data[(i + k) % n] & 0xFF;
+			int b = m_data[(j + k) % n] & 0xFF;
+			if (a == b)
+			{
+				k++;
+			}
+			else
+			{
+				if (a > b)
+				{
+					i += k + 1;
+				}
+				else
+				{
+					j += k + 1;
+				}
+				if (i == j)
+				{
+					j++;
+				}
+				k = 0;
+			}
+		}
+		return Math.min(i, j);
+	}
+
+	/**
+	 * Build the suffix array of {@code s[sOff, sOff + n)} in
+	 * {@code sa[saOff, saOff + n)}. The last symbol of the string must be a
+	 * unique sentinel with the value 0, and all symbols must be smaller than
+	 * {@code k}.
+	 * <p>
+	 * {@code s} and {@code sa} may be the same array, as they are when the
+	 * method recurses.
+	 * @param types Scratch space for the suffix types, at least {@code n}
+	 * elements.
+	 */
+	private static void sais(final int[] s, final int sOff, final int[] sa, final int saOff, final boolean[] types, final int n, final int k)
+	{
+		// Classify the suffixes. true == S-type, false == L-type
+		types[n - 1] = true;
+		for (int i = n - 2; i >= 0; i--)
+		{
+			int c = s[sOff + i];
+			int next = s[sOff + i + 1];
+			types[i] = c < next || (c == next && types[i + 1]);
+		}
+
+		final int[] counts = new int[k];
+		for (int i = 0; i < n; i++)
+		{
+			counts[s[sOff + i]]++;
+		}
+		final int[] buckets = new int[k];
+
+		// Stage 1: sort the LMS substrings.
+		getBucketEnds(counts, buckets);
+		Arrays.fill(sa, saOff, saOff + n, -1);
+		for (int i = 1; i < n; i++)
+		{
+			if (isLMS(types, i))
+			{
+				sa[saOff + --buckets[s[sOff + i]]] = i;
+			}
+		}
+		induce(s, sOff, sa, saOff, types, n, counts, buckets);
+
+		// Compact the sorted LMS substrings into the first n1 positions.
+		int n1 = 0;
+		for (int i = 0; i < n; i++)
+		{
+			int pos = sa[saOff + i];
+			if (isLMS(types, pos))
+			{
+				sa[saOff + n1++] = pos;
+			}
+		}
+
+		// Name the LMS substrings. LMS positions are at least two apart, so
+		// pos / 2 is unique.
+		Arrays.fill(sa, saOff + n1, saOff + n, -1);
+		int name = 0;
+		int prev = -1;
+		for (int i = 0; i < n1; i++)
+		{
+			final int pos = sa[saOff + i];
+			boolean diff = false;
+			for (int d = 0; d < n; d++)
+			{
+				if (prev == -1 || s[sOff + pos + d] != s[sOff + prev + d] || types[pos + d] != types[prev + d])
+				{
+					diff = true;
+					break;
+				}
+				else if (d > 0 && (isLMS(types, pos + d) || isLMS(types, prev + d)))
+				{
+					break;
+				}
+			}
+			if (diff)
+			{
+				name++;
+				prev = pos;
+			}
+			sa[saOff + n1 + pos / 2] = name - 1;
+		}
+		for (int i = n - 1, j = n - 1; i >= n1; i--)
+		{
+			if (sa[saOff + i] >= 0)
+			{
+				sa[saOff + j--] = sa[saOff + i];
+			}
+		}
+
+		// Stage 2: sort the reduced string, which is stored at the end of sa.
+		final int s1Off = saOff + n - n1;
+		if (name < n1)
+		{
+			sais(sa, s1Off, sa, saOff, new boolean[n1], n1, name);
+		}
+		else
+		{
+			// All names are unique, so the names are the ranks.
+			for (int i = 0; i < n1; i++)
+			{
+				sa[saOff + sa[s1Off + i]] = i;
+			}
+		}
+
+		// Stage 3: induce the suffix array from the sorted LMS suffixes. The
+		// reduced string is not needed anymore, so its space is reused for
+		// the positions of the LMS suffixes.
+		for (int i = 1, j = 0; i < n; i++)
+		{
+			if (isLMS(types, i))
+			{
+				sa[s1Off + j++] = i;
+			}
+		}
+		for (int i = 0; i < n1; i++)
+		{
+			sa[saOff + i] = sa[s1Off + sa[saOff + i]];
+		}
+		Arrays.fill(sa, saOff + n1, saOff + n, -1);
+
+		getBucketEnds(counts, buckets);
+		for (int i = n1 - 1; i >= 0; i--)
+		{
+			int j = sa[saOff + i];
+			sa[saOff + i] = -1;
+			sa[saOff + --buckets[s[sOff + j]]] = j;
+		}
+		induce(s, sOff, sa, saOff, types, n, counts, buckets);
+	}
+
+	/**
+	 * Induce the order of the L-type suffixes from the LMS suffixes, and then
+	 * the order of the S-type suffixes from the L-type ones.
+	 */
+	private static void induce(final int[] s, final int sOff, final int[] sa, final int saOff, final boolean[] types, final int n, final int[] counts, final int[] buckets)
+	{
+		getBucketStarts(counts, buckets);
+		for (int i = 0; i < n; i++)
+		{
+			int j = sa[saOff + i] - 1;
+			if (j >= 0 && !types[j])
+			{
+				sa[saOff + buckets[s[sOff + j]]++] = j;
+			}
+		}
+
+		getBucketEnds(counts, buckets);
+		for (int i = n - 1; i >= 0; i--)
+		{
+			int j = sa[saOff + i] - 1;
+			if (j >= 0 && types[j])
+			{
+				sa[saOff + --buckets[s[sOff + j]]] = j;
+			}
+		}
+	}
+
+	private static boolean isLMS(final boolean[] types, final int i)
+	{
+		return i > 0 && types[i] && !types[i - 1];
+	}
+
+	private static void getBucketStarts(final int[] counts, final int[] buckets)
+	{
+		int sum = 0;
+		for (int i = 0; i < counts.length; i++)
+		{
+			buckets[i] = sum;
+			sum += counts[i];
+		}
+	}
+
+	private static void getBucketEnds(final int[] counts, final int[] buckets)
+	{
+		int sum = 0;
+		for (int i = 0; i < counts.length; i++)
+		{
+			sum += counts[i];
+			buckets[i] = sum;
+		}
+	}
+}
@@ -53,6 +53,22 @@ final class ThreeWayRadixQuicksort
 	 */
 	private static final int[] SHELL_SORT_INCREMENTS = { 1, 4, 13, 40, 121, 364, 1093, 3280, 9841, 29524, 88573, 265720, 797161, 2391484 };
 
+	/**
+	 * Thrown by {@link ThreeWayRadixQuicksort#sort()} when the work budget
+	 * set with {@link ThreeWayRadixQuicksort#setWorkBudget(long)} runs out.
+	 */
+	static final class WorkBudgetExceededException extends RuntimeException
+	{
+		private static final long serialVersionUID = 1L;
+
+		WorkBudgetExceededException()
+		{
+			// No stack trace. This is thrown to abandon the sort, not to
+			// report an error.
+			super(null, null, false, false);
+		}
+	}
+
 	// Declared package private for the unit tests
 	static class QuickSortRangeInfo
 	{
@@ -88,6 +104,9 @@ final class ThreeWayRadixQuicksort
 	private final QuickSortRangeInfo[] m_sortStack;
 	// A pointer to the current position in the sort stack.
 	private int m_sortStackPointer = -1;
+	// How many more eight symbol comparisons the shell sort may do. There is
+	// no limit by default.
+	private long m_workLeft = Long.MAX_VALUE;
 	// Array containing a pointer for each element in m_data to its location in
 	// the sorted data.
 	// This is declared package private for the unit tests.
@@ -129,6 +148,18 @@ final class ThreeWayRadixQuicksort
 		m_ptr = m_scratchpad.m_ptrs;
 	}
 
+	/**
+	 * Limit the work done by the shell sort, which is where the time goes for
+	 * data with long repeated sequences. If the limit is exceeded, the sort
+	 * throws a {@link WorkBudgetExceededException}.
+	 * @param budget The number of eight symbol comparisons the shell sort may
+	 * do.
+	 */
+	void setWorkBudget(final long budget)
+	{
+		m_workLeft = budget;
+	}
+
 	/**
 	 * Get the data at the specified position. It is assumed that the position
 	 * is within the range of the data.
@@ -329,6 +360,10 @@ final class ThreeWayRadixQuicksort
 																					if (m_sortCache[curPos1] == m_sortCache[curPos2])
 																					{
 																						curDepth += 8;
+																						if (--m_workLeft < 0)
+																						{
+																							throw new WorkBudgetExceededException();
+																						}
 																						if (curDepth >= m_length)
 																						{
 																							// The strings are exactly equal. This can happen for bzip2 when
@@ -47,6 +47,13 @@ public interface BitOutput extends Closeable
 	 */
 	void padToByteBoundary() throws IOException;
 
+	/**
+	 * Write all whole bytes that are buffered by this output to the underlying
+	 * sink. The bits of an unfinished byte are not written.
+	 * @throws IOException On I/O errors.
+	 */
+	void flush() throws IOException;
+
 	/**
 	 * Get the value of the unfinished byte. The value is shifted so that the
 	 * least significant bit positions are used.
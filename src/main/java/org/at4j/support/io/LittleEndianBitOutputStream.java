@@ -25,22 +25,29 @@ import java.io.OutputStream;
  * This is an {@link OutputStream} that implements {@link BitOutput} and hence
  * can be used to write individual bits to the output. The bits are stored in
  * little-endian order.
+ * <p>
+ * Bits are collected in a 64-bit accumulator and moved to an internal buffer
+ * a whole 32-bit word at a time. The buffer is written to the wrapped stream
+ * when it is full, when the stream is flushed or closed, and before bytes
+ * are written directly with one of the {@code write} methods.
  * @author Karl Gustafsson
  * @since 1.1
  */
 public class LittleEndianBitOutputStream extends OutputStream implements BitOutput
 {
-	// 2^0
-	private static final int POINTER_START_OF_BYTE = 0;
-	// 2^7
-	private static final int POINTER_END_OF_BYTE = 7;
+	private static final int BUFFER_SIZE = 8192;
 
 	private final OutputStream m_out;
 
-	// The current byte
-	private int m_curByte = 0;
-	// The pointer to the current bit location in the current byte.
-	private int m_pointerInByte = POINTER_START_OF_BYTE;
+	// Bits that have not been moved to the buffer yet. The last written bit is
+	// the least significant bit. There are always fewer than 32 bits here
+	// between calls.
+	private long m_acc = 0;
+	private int m_noBitsInAcc = 0;
+
+	// Whole bytes that have not been written to the wrapped stream yet.
+	private final byte[] m_buf = new byte[BUFFER_SIZE];
+	private int m_bufPos = 0;
 
 	private long m_numberOfBytesWritten = 0;
 
@@ -54,70 +61,115 @@ public class LittleEndianBitOutputStream extends OutputStream implements BitOutp
 
 	private boolean isAtByteBoundary()
 	{
-		return m_pointerInByte == POINTER_START_OF_BYTE;
+		return (m_noBitsInAcc & 7) == 0;
 	}
 
 	private void assertAtByteBoundary() throws IOException
 	{
 		if (!isAtByteBoundary())
 		{
-			throwIOException("Not at byte boundary. Position: pos=" + m_pointerInByte);
+			throwIOException("Not at byte boundary. Position: pos=" + (m_noBitsInAcc & 7));
 		}
 	}
 
 	private void throwIOException(String msg) throws IOException
 	{
-		throw new IOException(msg + ". Position in stream: " + m_numberOfBytesWritten);
+		throw new IOException(msg + ". Position in stream: " + getNumberOfBytesWritten());
 	}
 
-	private void writeCurByte() throws IOException
+	private void flushBuffer() throws IOException
 	{
-		m_out.write(m_curByte);
-		m_numberOfBytesWritten++;
-		m_pointerInByte = POINTER_START_OF_BYTE;
-		m_curByte = 0;
+		if (m_bufPos > 0)
+		{
+			m_out.write(m_buf, 0, m_bufPos);
+			m_bufPos = 0;
+		}
+	}
+
+	/**
+	 * Move the 32 oldest bits in the accumulator to the buffer. The
+	 * accumulator must contain at least 32 bits.
+	 */
+	private void drainWord() throws IOException
+	{
+		if (m_bufPos > BUFFER_SIZE - 4)
+		{
+			flushBuffer();
+		}
+		m_noBitsInAcc -= 32;
+		final int word = (int) (m_acc >>> m_noBitsInAcc);
+		m_buf[m_bufPos] = (byte) (word >>> 24);
+		m_buf[m_bufPos + 1] = (byte) (word >>> 16);
+		m_buf[m_bufPos + 2] = (byte) (word >>> 8);
+		m_buf[m_bufPos + 3] = (byte) word;
+		m_bufPos += 4;
+		m_numberOfBytesWritten += 4;
+	}
+
+	/**
+	 * Move all whole bytes in the accumulator to the buffer.
+	 */
+	private void drainBytes() throws IOException
+	{
+		if (m_bufPos > BUFFER_SIZE - 4)
+		{
+			flushBuffer();
+		}
+		while (m_noBitsInAcc >= 8)
+		{
+			m_noBitsInAcc -= 8;
+			m_buf[m_bufPos++] = (byte) (m_acc >>> m_noBitsInAcc);
+			m_numberOfBytesWritten++;
+		}
+	}
+
+	/**
+	 * Append the {@code no} rightmost bits of {@code val} to the accumulator.
+	 * {@code no} must be between 0 and 32 (inclusive).
+	 */
+	private void appendBits(final int val, final int no) throws IOException
+	{
+		// There are fewer than 32 bits in the accumulator, so this never
+		// overflows it.
+		m_acc = (m_acc << no) | ((val & 0xFFFFFFFFL) & ((1L << no) - 1));
+		m_noBitsInAcc += no;
+		if (m_noBitsInAcc >= 32)
+		{
+			drainWord();
+		}
 	}
 
 	/**
 	 * Get the total number of whole <i>bytes</i> written by this stream so far.
+	 * This includes bytes that are still buffered by this stream.
 	 * @return The number of whole bytes written.
 	 */
 	public long getNumberOfBytesWritten()
 	{
-		return m_numberOfBytesWritten;
+		return m_numberOfBytesWritten + (m_noBitsInAcc >>> 3);
 	}
 
 	public int getUnfinishedByte()
 	{
-		return m_pointerInByte > 0 ? m_curByte >>> (7 - (m_pointerInByte - 1)) : 0;
+		return (int) (m_acc & ((1 << (m_noBitsInAcc & 7)) - 1));
 	}
 
 	public int getNumberOfBitsInUnfinishedByte()
 	{
-		return m_pointerInByte;
+		return m_noBitsInAcc & 7;
 	}
 
 	public void padToByteBoundary() throws IOException
 	{
-		if (m_pointerInByte > POINTER_START_OF_BYTE)
+		if (!isAtByteBoundary())
 		{
-			writeCurByte();
+			appendBits(0, 8 - (m_noBitsInAcc & 7));
 		}
 	}
 
 	public void writeBit(boolean val) throws IOException
 	{
-		if (val)
-		{
-			m_curByte = m_curByte | 1 << (7 - m_pointerInByte);
-		}
-		m_pointerInByte++;
-
-		if (m_pointerInByte > POINTER_END_OF_BYTE)
-		{
-			// Write the current byte and start a new one
-			writeCurByte();
-		}
+		appendBits(val ? 1 : 0, 1);
 	}
 
 	public void writeBits(int val, int no) throws IOException, IndexOutOfBoundsException
@@ -127,31 +179,7 @@ public class LittleEndianBitOutputStream extends OutputStream implements BitOutp
 			throw new IndexOutOfBoundsException("Invalid number of bits " + no + ". Must be between 0 and 8 (inclusive)");
 		}
 
-		if (no == 0)
-		{
-			return;
-		}
-
-		if (m_pointerInByte + no <= 8)
-		{
-			// All bits to write fit in the current byte
-			m_curByte = m_curByte | ((val & ((1 << no) - 1)) << (8 - m_pointerInByte - no));
-			m_pointerInByte += no;
-			if (m_pointerInByte > POINTER_END_OF_BYTE)
-			{
-				writeCurByte();
-			}
-		}
-		else
-		{
-			// Bits will have to be written in the next byte too
-			int bitsToWriteInCurByte = 8 - m_pointerInByte;
-			int bitsToWriteInNextByte = no - bitsToWriteInCurByte;
-			m_curByte = m_curByte | (val >>> (no - bitsToWriteInCurByte));
-			writeCurByte();
-			m_curByte = (val & ((1 << bitsToWriteInNextByte) - 1)) << (8 - bitsToWriteInNextByte);
-			m_pointerInByte = bitsToWriteInNextByte;
-		}
+		appendBits(val, no);
 	}
 
 	public void writeBitsLittleEndian(int val, int no) throws IndexOutOfBoundsException, IOException
@@ -161,21 +189,7 @@ public class LittleEndianBitOutputStream extends OutputStream implements BitOutp
 			throw new IndexOutOfBoundsException("Invalid number of bits to write " + no + ". It must be between 0 and 32 (inclusive)");
 		}
 
-		if (no == 0)
-		{
-			return;
-		}
-
-		int noWrites = no / 8;
-		int mod = no % 8;
-		if (mod != 0)
-		{
-			writeBits(val >>> (noWrites * 8), mod);
-		}
-		for (int i = 0; i < noWrites; i++)
-		{
-			writeBits(val >>> ((noWrites - i - 1) * 8), 8);
-		}
+		appendBits(val, no);
 	}
 
 	public void writeBytes(byte[] barr, int off, int len) throws IndexOutOfBoundsException, IOException
@@ -201,29 +215,21 @@ public class LittleEndianBitOutputStream extends OutputStream implements BitOutp
 		if (isAtByteBoundary())
 		{
 			// Special case
-			m_out.write(barr, off, len);
-			m_numberOfBytesWritten += len;
+			write(barr, off, len);
 		}
 		else
 		{
-			// Copy the bytes to write to a new array. We cannot modify barr,
-			// even if it is tempting.
-			byte[] toWrite = new byte[len];
-			System.arraycopy(barr, off, toWrite, 0, len);
-
-			int prevByte = m_curByte;
-			int leftShiftDistance = 8 - m_pointerInByte;
-			for (int i = 0; i < len; i++)
+			// Shift the bytes in through the accumulator, four at a time.
+			final int end = off + len;
+			int i = off;
+			for (; i + 4 <= end; i += 4)
+			{
+				appendBits(((barr[i] & 0xFF) << 24) | ((barr[i + 1] & 0xFF) << 16) | ((barr[i + 2] & 0xFF) << 8) | (barr[i + 3] & 0xFF), 32);
+			}
+			for (; i < end; i++)
 			{
-				// Shift in bits from the previous byte and shift out bytes
-				// from this byte
-				int nextPrevByte = (toWrite[i] & 0xFF) << leftShiftDistance;
-				toWrite[i] = (byte) ((prevByte | ((toWrite[i] & 0xFF) >>> m_pointerInByte)) & 0xFF);
-				prevByte = nextPrevByte;
+				appendBits(barr[i] & 0xFF, 8);
 			}
-			m_curByte = prevByte & 0xFF;
-			m_out.write(toWrite);
-			m_numberOfBytesWritten += len;
 		}
 	}
 
@@ -231,8 +237,7 @@ public class LittleEndianBitOutputStream extends OutputStream implements BitOutp
 	public void write(int b) throws IOException
 	{
 		assertAtByteBoundary();
-		m_out.write(b);
-		m_numberOfBytesWritten++;
+		appendBits(b & 0xFF, 8);
 	}
 
 	@Override
@@ -245,10 +250,32 @@ public class LittleEndianBitOutputStream extends OutputStream implements BitOutp
 	public void write(byte[] barr, int off, int len) throws IOException
 	{
 		assertAtByteBoundary();
-		m_out.write(barr, off, len);
+		drainBytes();
+		if (len <= BUFFER_SIZE - m_bufPos)
+		{
+			System.arraycopy(barr, off, m_buf, m_bufPos, len);
+			m_bufPos += len;
+		}
+		else
+		{
+			flushBuffer();
+			m_out.write(barr, off, len);
+		}
 		m_numberOfBytesWritten += len;
 	}
 
+	/**
+	 * Write all whole bytes to the wrapped stream and flush it. The bits in an
+	 * unfinished byte are kept until the byte is finished or padded.
+	 */
+	@Override
+	public void flush() throws IOException
+	{
+		drainBytes();
+		flushBuffer();
+		m_out.flush();
+	}
+
 	/**
 	 * Close the output stream.
 	 * <p>
@@ -259,6 +286,8 @@ public class LittleEndianBitOutputStream extends OutputStream implements BitOutp
 	@Override
 	public void close() throws IOException
 	{
+		drainBytes();
+		flushBuffer();
 		m_out.close();
 		super.close();
 	}
@@ -0,0 +1,58 @@
+/*
+ * A simple backup mod for Fabric
+ * Copyright (C)  2022   Szum123321
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package net.szum123321.textile_backup.core.digest;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * The whole state fits into a single 256-bit vector, so a round is just a handful of lane-wise operations.
+ * This class must only be loaded through {@link BalticRound#get()}, as the module it depends on is optional.
+ */
+final class VectorBalticRound implements BalticRound {
+    private final static VectorSpecies<Long> SPECIES = LongVector.SPECIES_256;
+    private final static VectorSpecies<Byte> BYTE_SPECIES = ByteVector.SPECIES_256;
+
+    VectorBalticRound() {
+        //Without hardware support the Vector API is much slower than plain code
+        if(LongVector.SPECIES_PREFERRED.vectorBitSize() < SPECIES.vectorBitSize())
+            throw new UnsupportedOperationException("256-bit vectors are not supported by this CPU");
+    }
+
+    @Override
+    public void apply(long[] state, byte[] data, int off, int blocks) {
+        LongVector s = LongVector.fromArray(SPECIES, state, 0);
+
+        for(int i = 0; i < blocks; i++, off += BLOCK_SIZE) {
+            //Reinterpretation is always little-endian, regardless of the platform
+            s = s.lanewise(VectorOperators.XOR, ByteVector.fromArray(BYTE_SPECIES, data, off).reinterpretAsLongs());
+
+            //xorshift64*, see BalticHash.xorshift64star
+            s = s.lanewise(VectorOperators.XOR, s.lanewise(VectorOperators.ASHR, 12));
+            s = s.lanewise(VectorOperators.XOR, s.lanewise(VectorOperators.LSHL, 25));
+            s = s.lanewise(VectorOperators.XOR, s.lanewise(VectorOperators.ASHR, 27));
+            s = s.mul(0x2545F4914F6CDD1DL);
+        }
+
+        s.intoArray(state, 0);
+    }
+}
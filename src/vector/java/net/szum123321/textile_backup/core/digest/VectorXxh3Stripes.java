@@ -0,0 +1,79 @@
+/*
+ * A simple backup mod for Fabric
+ * Copyright (C)  2022   Szum123321
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package net.szum123321.textile_backup.core.digest;
+
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShuffle;
+import jdk.incubator.vector.VectorSpecies;
+
+import java.nio.ByteOrder;
+
+/**
+ * With 512-bit vectors a whole stripe fits into one vector, with 256-bit ones it takes two.
+ * This class must only be loaded through {@link Xxh3Stripes#get()}, as the module it depends on is optional.
+ */
+final class VectorXxh3Stripes implements Xxh3Stripes {
+    private final static VectorSpecies<Long> SPECIES = LongVector.SPECIES_PREFERRED.vectorBitSize() >= 512 ? LongVector.SPECIES_512 : LongVector.SPECIES_256;
+    //Each lane gets the input of its neighbour added, see Xxh3Hash.accumulate512
+    private final static VectorShuffle<Long> SWAP = VectorShuffle.fromOp(SPECIES, i -> i ^ 1);
+
+    VectorXxh3Stripes() {
+        //Without hardware support the Vector API is much slower than plain code
+        if(LongVector.SPECIES_PREFERRED.vectorBitSize() < 256)
+            throw new UnsupportedOperationException("256-bit vectors are not supported by this CPU");
+    }
+
+    @Override
+    public void accumulate(long[] acc, byte[] data, int off, int secretOff, int stripes) {
+        if(SPECIES.length() == 8) accumulate512(acc, data, off, secretOff, stripes);
+        else accumulate256(acc, data, off, secretOff, stripes);
+    }
+
+    private static void accumulate512(long[] acc, byte[] data, int off, int secretOff, int stripes) {
+        LongVector a = LongVector.fromArray(SPECIES, acc, 0);
+
+        for(int i = 0; i < stripes; i++)
+            a = round(a, data, off + i * STRIPE_LEN, secretOff + i * SECRET_CONSUME_RATE);
+
+        a.intoArray(acc, 0);
+    }
+
+    private static void accumulate256(long[] acc, byte[] data, int off, int secretOff, int stripes) {
+        LongVector lo = LongVector.fromArray(SPECIES, acc, 0), hi = LongVector.fromArray(SPECIES, acc, 4);
+
+        for(int i = 0; i < stripes; i++) {
+            int dataOff = off + i * STRIPE_LEN, keyOff = secretOff + i * SECRET_CONSUME_RATE;
+            lo = round(lo, data, dataOff, keyOff);
+            hi = round(hi, data, dataOff + 32, keyOff + 32);
+        }
+
+        lo.intoArray(acc, 0);
+        hi.intoArray(acc, 4);
+    }
+
+    private static LongVector round(LongVector a, byte[] data, int off, int secretOff) {
+        LongVector value = LongVector.fromByteArray(SPECIES, data, off, ByteOrder.LITTLE_ENDIAN);
+        LongVector key = value.lanewise(VectorOperators.XOR, LongVector.fromByteArray(SPECIES, Xxh3Hash.SECRET, secretOff, ByteOrder.LITTLE_ENDIAN));
+
+        return a.add(value.rearrange(SWAP))
+                .add(key.and(0xFFFFFFFFL).mul(key.lanewise(VectorOperators.LSHR, 32)));
+    }
+}